@@ -19,6 +19,9 @@ import de.qaware.chronix.ChronixClient
 import de.qaware.chronix.converter.MetricTimeSeriesConverter
 import de.qaware.chronix.lucene.client.ChronixLuceneStorage
 import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.importer.CsvImporter
+import de.qaware.chronix.lucene.client.importer.CsvSeriesFactory
+import de.qaware.chronix.lucene.client.stream.PointColumns
 import de.qaware.chronix.timeseries.MetricTimeSeries
 import org.apache.lucene.analysis.standard.StandardAnalyzer
 import org.apache.lucene.queryparser.classic.QueryParser
@@ -31,7 +34,6 @@ import spock.lang.Specification
 
 import java.nio.file.Path
 import java.nio.file.Paths
-import java.text.DecimalFormat
 import java.util.function.BinaryOperator
 import java.util.function.Function
 import java.util.stream.Collectors
@@ -99,7 +101,7 @@ class ChronixClientTestIT extends Specification {
 
         when: "We first clean the index to ensure that no old data is loaded."
         luceneIndex.getOpenWriter().deleteAll()
-        luceneIndex.getOpenWriter().commit()
+        luceneIndex.commit([(CsvImporter.IMPORTED_FILES): ""])
 
         LOGGER.info("Adding data to Chronix.")
         importTimeSeriesData()
@@ -114,57 +116,35 @@ class ChronixClientTestIT extends Specification {
 
     def importTimeSeriesData() {
         def url = ChronixClientTestIT.getResource("/timeSeries")
-        def tsDir = new File(url.toURI())
-
-        tsDir.listFiles().each { File file ->
-            LOGGER.info("Processing file {}", file)
-            def documents = new HashMap<Integer, MetricTimeSeries>()
-
-            def attributes = file.name.split("_")
-            def onlyOnce = true
-            def nf = DecimalFormat.getInstance(Locale.ENGLISH)
-
-            def filePoints = 0
-
-            file.splitEachLine(";") { fields ->
-                //Its the first line of a csv file
-                if ("Date" == fields[0]) {
-                    if (onlyOnce) {
-                        fields.subList(1, fields.size()).eachWithIndex { String field, int i ->
-                            def ts = new MetricTimeSeries.Builder(field,"metric")
-                                    .attribute("host", attributes[0])
-                                    .attribute("source", attributes[1])
-                                    .attribute("group", attributes[2])
-
-                            //Add some generic fields an values
-                                    .attribute("myIntField", 5I)
-                                    .attribute("myLongField", 8L)
-                                    .attribute("myDoubleField", 5.5D)
-                                    .attribute("myByteField", "String as byte".getBytes("UTF-8"))
-                                    .attribute("myStringList", listStringField)
-                                    .attribute("myIntList", listIntField)
-                                    .attribute("myLongList", listLongField)
-                                    .attribute("myDoubleList", listDoubleField)
-                                    .build()
-                            documents.put(i, ts)
-
-                        }
-                    }
-                } else {
-                    //First field is the timestamp: 26.08.2013 00:00:17.361
-                    def date = Date.parse("dd.MM.yyyy HH:mm:ss.SSS", fields[0])
-                    fields.subList(1, fields.size()).eachWithIndex { String value, int i ->
-                        documents.get(i).add(date.getTime(), nf.parse(value).doubleValue())
-                        filePoints = i
-
-                    }
-                }
-                onlyOnce = false
+        def files = new File(url.toURI()).listFiles().collect { it.toPath() }
+
+        def factory = new CsvSeriesFactory<MetricTimeSeries>() {
+            @Override
+            MetricTimeSeries create(Path file, String column, PointColumns points) {
+                def attributes = file.fileName.toString().split("_")
+                def ts = new MetricTimeSeries.Builder(column, "metric")
+                        .attribute("host", attributes[0])
+                        .attribute("source", attributes[1])
+                        .attribute("group", attributes[2])
+
+                //Add some generic fields an values
+                        .attribute("myIntField", 5I)
+                        .attribute("myLongField", 8L)
+                        .attribute("myDoubleField", 5.5D)
+                        .attribute("myByteField", "String as byte".getBytes("UTF-8"))
+                        .attribute("myStringList", listStringField)
+                        .attribute("myIntList", listIntField)
+                        .attribute("myLongList", listLongField)
+                        .attribute("myDoubleList", listDoubleField)
+                        .build()
+                ts.addAll(Arrays.copyOf(points.timestamps, points.size()), Arrays.copyOf(points.values, points.size()))
+                return ts
             }
-            chronix.add(documents.values(), luceneIndex)
-            def updateResponse = luceneIndex.getOpenWriter().commit()
-            LOGGER.info("Update Response of Commit is {}", updateResponse)
         }
+
+        def importer = new CsvImporter<MetricTimeSeries>(new ChronixLuceneStorage(200, groupBy, reduce), new MetricTimeSeriesConverter<>(), factory)
+        def report = importer.importFiles(luceneIndex, files)
+        LOGGER.info("Imported time series: {}", report)
     }
 
     def "Test add and query time series to Chronix with Solr"() {
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.load
+
+import de.qaware.chronix.converter.MetricTimeSeriesConverter
+import de.qaware.chronix.lucene.client.ChronixLuceneStorage
+import de.qaware.chronix.lucene.client.ChronixQueries
+import de.qaware.chronix.lucene.client.CommitPolicy
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.add.IndexingOptions
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.store.FSDirectory
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.BinaryOperator
+import java.util.function.Function
+
+/**
+ * Load and soak tests of the Lucene storage with synthetic time series.
+ * Not part of the regular build, run them with gradle loadTest.
+ * The results are written as json to build/reports/load.
+ */
+class ChronixLoadTest extends Specification {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChronixLoadTest.class)
+
+    @Shared
+    LoadConfig config = LoadConfig.fromSystemProperties()
+
+    @Shared
+    SyntheticGenerator generator = new SyntheticGenerator(config)
+
+    @Shared
+    def converter = new MetricTimeSeriesConverter<>()
+
+    @Shared
+    Function<MetricTimeSeries, String> groupBy = new Function<MetricTimeSeries, String>() {
+        @Override
+        String apply(MetricTimeSeries ts) {
+            return ts.attribute("series")
+        }
+    }
+
+    @Shared
+    BinaryOperator<MetricTimeSeries> reduce = new BinaryOperator<MetricTimeSeries>() {
+        @Override
+        MetricTimeSeries apply(MetricTimeSeries t1, MetricTimeSeries t2) {
+            t1.addAll(t2.getTimestampsAsArray(), t2.getValuesAsArray())
+            return t1
+        }
+    }
+
+    @Shared
+    def storage = new ChronixLuceneStorage<MetricTimeSeries>(200, groupBy, reduce,
+            new IndexingOptions().setIdentityAttributes("series", "host"))
+
+    def "test bulk ingest"() {
+        given:
+        def indexDir = new File(config.indexDir, "ingest")
+        def index = openIndex(indexDir)
+        index.getOpenWriter().deleteAll()
+        index.commit()
+
+        def latency = new LatencyRecorder()
+        def pool = Executors.newFixedThreadPool(config.writers)
+        LoadReport.resetPeakHeap()
+
+        when:
+        long start = System.nanoTime()
+        def writers = (0..<config.writers).collect { writer ->
+            pool.submit({
+                for (int seriesId = writer; seriesId < config.series; seriesId += config.writers) {
+                    def chunks = (0..<config.chunksPerSeries).collect { chunk -> generator.chunk(seriesId, chunk) }
+                    chunks.collate(config.batchSize).each { batch -> latency.time { storage.add(converter, batch, index) } }
+                }
+            } as Callable)
+        }
+        writers*.get()
+        index.commit()
+        double seconds = (System.nanoTime() - start) / 1e9d
+        pool.shutdown()
+
+        def chunks = index.getOpenWriter().numDocs()
+        def report = new LoadReport("ingest", config)
+                .put("durationSeconds", seconds)
+                .put("chunks", chunks)
+                .put("points", config.totalPoints())
+                .put("pointsPerSecond", config.totalPoints() / seconds)
+                .put("chunksPerSecond", chunks / seconds)
+                .put("addLatency", latency.summary())
+                .putHeap()
+                .putIndexSize(indexDir)
+        report.write(config.reportDir)
+        LOGGER.info("Ingest report {}", report)
+        index.close()
+
+        then:
+        chunks == config.series * config.chunksPerSeries
+    }
+
+    def "test concurrent ingest and query"() {
+        given: "one chunk of every series is indexed, so every query has a result"
+        def indexDir = new File(config.indexDir, "soak")
+        def writerIndex = openIndex(indexDir)
+        writerIndex.setCommitPolicy(CommitPolicy.manual().setMaxTime(config.refreshMs, TimeUnit.MILLISECONDS))
+        writerIndex.getOpenWriter().deleteAll()
+        (0..<config.series).collect { generator.chunk(it, 0) }.collate(config.batchSize).each {
+            storage.add(converter, it, writerIndex)
+        }
+        writerIndex.commit()
+
+        def addLatency = new LatencyRecorder()
+        def queryLatency = new LatencyRecorder()
+        def addedPoints = new AtomicLong()
+        def errors = new AtomicInteger()
+        def pool = Executors.newFixedThreadPool(config.writers + config.readers)
+        LoadReport.resetPeakHeap()
+
+        when:
+        long start = System.nanoTime()
+        long deadline = start + TimeUnit.SECONDS.toNanos(config.soakSeconds)
+        def writers = (0..<config.writers).collect { writer ->
+            pool.submit({
+                int chunk = 1
+                while (System.nanoTime() < deadline) {
+                    for (int seriesId = writer * config.batchSize; seriesId < config.series && System.nanoTime() < deadline; seriesId += config.writers * config.batchSize) {
+                        def batch = (seriesId..<Math.min(config.series, seriesId + config.batchSize)).collect { generator.chunk(it, chunk) }
+                        guarded(errors) { addLatency.time { storage.add(converter, batch, writerIndex) } }
+                        addedPoints.addAndGet((long) batch.size() * config.chunkSize)
+                    }
+                    chunk++
+                }
+            } as Callable)
+        }
+        //Every reader has its own index instance on the same directory and reopens it periodically to see new chunks
+        def readers = (0..<config.readers).collect { reader ->
+            pool.submit({
+                def random = new Random(config.seed + reader)
+                def readerIndex = openIndex(indexDir)
+                long refresh = System.nanoTime()
+                while (System.nanoTime() < deadline) {
+                    if (System.nanoTime() - refresh > TimeUnit.MILLISECONDS.toNanos(config.refreshMs)) {
+                        readerIndex.close()
+                        readerIndex = openIndex(indexDir)
+                        refresh = System.nanoTime()
+                    }
+                    int seriesId = random.nextInt(config.series)
+                    def query = ChronixQueries.series([series: generator.series(seriesId), host: generator.host(seriesId)])
+                    guarded(errors) {
+                        def result = queryLatency.time { storage.stream(converter, readerIndex, query).collect() }
+                        if (result.size() != 1) {
+                            throw new IllegalStateException("Expected one series for " + query + " but got " + result.size())
+                        }
+                    }
+                }
+                readerIndex.close()
+            } as Callable)
+        }
+        (writers + readers)*.get()
+        writerIndex.commit()
+        double seconds = (System.nanoTime() - start) / 1e9d
+        pool.shutdown()
+
+        def report = new LoadReport("soak", config)
+                .put("durationSeconds", seconds)
+                .put("errors", errors.get())
+                .put("chunks", writerIndex.getOpenWriter().numDocs())
+                .put("pointsPerSecond", addedPoints.get() / seconds)
+                .put("queriesPerSecond", queryLatency.count() / seconds)
+                .put("addLatency", addLatency.summary())
+                .put("queryLatency", queryLatency.summary())
+                .putHeap()
+                .putIndexSize(indexDir)
+        report.write(config.reportDir)
+        LOGGER.info("Soak report {}", report)
+        writerIndex.close()
+
+        then:
+        errors.get() == 0
+        queryLatency.count() > 0
+        addLatency.count() > 0
+    }
+
+    LuceneIndex openIndex(File indexDir) {
+        indexDir.mkdirs()
+        new LuceneIndex(FSDirectory.open(indexDir.toPath()), new StandardAnalyzer())
+    }
+
+    static void guarded(AtomicInteger errors, Closure operation) {
+        try {
+            operation.call()
+        } catch (Exception e) {
+            LOGGER.error("Operation failed during load test", e)
+            errors.incrementAndGet()
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.load
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Records latencies of concurrent operations and computes their percentiles.
+ */
+class LatencyRecorder {
+
+    private long[] nanos = new long[1024]
+    private int size
+
+    /**
+     * Times the given operation
+     *
+     * @param operation the operation
+     * @return the result of the operation
+     */
+    def <T> T time(Closure<T> operation) {
+        long start = System.nanoTime()
+        try {
+            return operation.call()
+        } finally {
+            record(System.nanoTime() - start)
+        }
+    }
+
+    synchronized void record(long latencyNanos) {
+        if (size == nanos.length) {
+            nanos = Arrays.copyOf(nanos, size * 2)
+        }
+        nanos[size++] = latencyNanos
+    }
+
+    synchronized int count() {
+        size
+    }
+
+    /**
+     * @return the count and the percentiles (p50, p90, p99, p99.9, max) in milliseconds
+     */
+    synchronized Map<String, Object> summary() {
+        long[] sorted = Arrays.copyOf(nanos, size)
+        Arrays.sort(sorted)
+        [count : size,
+         p50Ms : percentile(sorted, 0.5d),
+         p90Ms : percentile(sorted, 0.9d),
+         p99Ms : percentile(sorted, 0.99d),
+         p999Ms: percentile(sorted, 0.999d),
+         maxMs : size == 0 ? 0 : millis(sorted[size - 1])]
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0
+        }
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)
+        millis(sorted[Math.max(0, index)])
+    }
+
+    private static double millis(long nanos) {
+        nanos / (double) TimeUnit.MILLISECONDS.toNanos(1)
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.load
+
+/**
+ * Configuration of the load tests. All values can be set as system properties,
+ * e.g. gradle loadTest -Pload.series=100000 -Pload.chunksPerSeries=10 for 100M points with the default chunk size.
+ */
+class LoadConfig {
+
+    /**
+     * The number of series (cardinality)
+     */
+    int series
+    /**
+     * The number of chunks per series
+     */
+    int chunksPerSeries
+    /**
+     * The number of points per chunk
+     */
+    int chunkSize
+    /**
+     * The number of additional attributes per series
+     */
+    int attributes
+    /**
+     * The number of distinct metric names. The hosts are derived from the series and the metrics.
+     */
+    int metrics
+    /**
+     * The number of chunks that are added at once
+     */
+    int batchSize
+    /**
+     * The number of concurrent writers and readers
+     */
+    int writers
+    int readers
+    /**
+     * The duration of the soak test and the refresh interval of the readers
+     */
+    int soakSeconds
+    int refreshMs
+    /**
+     * The interval between two points and the seed of the generator
+     */
+    long intervalMs
+    long seed
+    /**
+     * The directories of the index and the reports
+     */
+    File indexDir
+    File reportDir
+
+    static LoadConfig fromSystemProperties() {
+        new LoadConfig(
+                series: Integer.getInteger("load.series", 1000),
+                chunksPerSeries: Integer.getInteger("load.chunksPerSeries", 10),
+                chunkSize: Integer.getInteger("load.chunkSize", 1000),
+                attributes: Integer.getInteger("load.attributes", 5),
+                metrics: Integer.getInteger("load.metrics", 20),
+                batchSize: Integer.getInteger("load.batchSize", 100),
+                writers: Integer.getInteger("load.writers", 2),
+                readers: Integer.getInteger("load.readers", 4),
+                soakSeconds: Integer.getInteger("load.soakSeconds", 60),
+                refreshMs: Integer.getInteger("load.refreshMs", 1000),
+                intervalMs: Long.getLong("load.intervalMs", 1000L),
+                seed: Long.getLong("load.seed", 42L),
+                indexDir: new File(System.getProperty("load.indexDir", "build/load/index")),
+                reportDir: new File(System.getProperty("load.reportDir", "build/reports/load")))
+    }
+
+    /**
+     * @return the number of points of the bulk ingest
+     */
+    long totalPoints() {
+        (long) series * chunksPerSeries * chunkSize
+    }
+
+    /**
+     * @return the configuration as map for the reports
+     */
+    Map<String, Object> toMap() {
+        [series     : series, chunksPerSeries: chunksPerSeries, chunkSize: chunkSize, attributes: attributes,
+         metrics    : metrics, batchSize: batchSize, writers: writers, readers: readers,
+         soakSeconds: soakSeconds, refreshMs: refreshMs, intervalMs: intervalMs, seed: seed]
+    }
+}
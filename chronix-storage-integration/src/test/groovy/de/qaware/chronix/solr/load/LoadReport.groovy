@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.load
+
+import groovy.json.JsonOutput
+
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+import java.text.SimpleDateFormat
+
+/**
+ * The results of a load test run. Written as json into the report directory,
+ * as latest result and appended to the history of the test, so runs can be compared.
+ */
+class LoadReport {
+
+    private final String name
+    private final Map<String, Object> values = new LinkedHashMap<>()
+
+    LoadReport(String name, LoadConfig config) {
+        this.name = name
+        values.put("test", name)
+        values.put("timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()))
+        values.put("jvm", System.getProperty("java.version"))
+        values.put("processors", Runtime.runtime.availableProcessors())
+        values.put("config", config.toMap())
+    }
+
+    LoadReport put(String key, Object value) {
+        values.put(key, value)
+        this
+    }
+
+    /**
+     * Adds the used heap (after a gc) and the peak heap since the last reset
+     */
+    LoadReport putHeap() {
+        System.gc()
+        def heapPools = ManagementFactory.memoryPoolMXBeans.findAll { it.type == MemoryType.HEAP }
+        put("heapUsedMB", ManagementFactory.memoryMXBean.heapMemoryUsage.used / MB)
+        put("heapPeakMB", heapPools.sum { it.peakUsage.used } / MB)
+    }
+
+    /**
+     * Adds the size of the index files
+     */
+    LoadReport putIndexSize(File indexDir) {
+        long bytes = indexDir.listFiles().findAll { it.isFile() }.sum(0L) { it.length() } as long
+        put("indexSizeMB", bytes / MB)
+    }
+
+    static void resetPeakHeap() {
+        ManagementFactory.memoryPoolMXBeans.findAll { it.type == MemoryType.HEAP }.each { it.resetPeakUsage() }
+    }
+
+    /**
+     * Writes the report
+     *
+     * @param reportDir the report directory
+     * @return the json file of the report
+     */
+    File write(File reportDir) {
+        reportDir.mkdirs()
+        def json = JsonOutput.toJson(values)
+        def latest = new File(reportDir, name + ".json")
+        latest.text = JsonOutput.prettyPrint(json)
+        new File(reportDir, name + "-history.jsonl") << json + "\n"
+        latest
+    }
+
+    @Override
+    String toString() {
+        JsonOutput.prettyPrint(JsonOutput.toJson(values))
+    }
+
+    private static final double MB = 1024 * 1024
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.load
+
+import de.qaware.chronix.timeseries.MetricTimeSeries
+
+/**
+ * Generates synthetic time series chunks. The chunks only depend on the configuration,
+ * the series and the chunk number, hence every run (and every thread) generates the same data.
+ */
+class SyntheticGenerator {
+
+    static final long START = 1_500_000_000_000L
+
+    private final LoadConfig config
+
+    SyntheticGenerator(LoadConfig config) {
+        this.config = config
+    }
+
+    /**
+     * Generates a chunk of a series. The values are a random walk.
+     *
+     * @param seriesId the id of the series
+     * @param chunkNr  the number of the chunk within the series
+     * @return the chunk
+     */
+    MetricTimeSeries chunk(int seriesId, int chunkNr) {
+        def random = new Random(config.seed * 1_000_003L + seriesId * 10_007L + chunkNr)
+        def builder = new MetricTimeSeries.Builder(metric(seriesId), "metric")
+                .attribute("host", host(seriesId))
+                .attribute("series", series(seriesId))
+        for (int attribute = 0; attribute < config.attributes; attribute++) {
+            builder.attribute("attribute" + attribute, "value-" + ((seriesId + attribute) % 16))
+        }
+        def ts = builder.build()
+
+        long[] timestamps = new long[config.chunkSize]
+        double[] values = new double[config.chunkSize]
+        long chunkStart = START + (long) chunkNr * config.chunkSize * config.intervalMs
+        double value = random.nextDouble() * 100
+        for (int i = 0; i < config.chunkSize; i++) {
+            timestamps[i] = chunkStart + i * config.intervalMs
+            value += random.nextGaussian()
+            values[i] = value
+        }
+        ts.addAll(timestamps, values)
+        ts
+    }
+
+    String metric(int seriesId) {
+        "metric-" + (seriesId % config.metrics)
+    }
+
+    String host(int seriesId) {
+        "host-" + seriesId.intdiv(config.metrics)
+    }
+
+    String series(int seriesId) {
+        "series-" + seriesId
+    }
+}
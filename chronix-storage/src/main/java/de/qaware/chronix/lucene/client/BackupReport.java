@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+/**
+ * The result of an incremental backup of a lucene index
+ */
+public final class BackupReport {
+
+    private final long generation;
+    private final int copiedFiles;
+    private final int skippedFiles;
+    private final int deletedFiles;
+    private final long copiedBytes;
+
+    /**
+     * Constructs a backup report
+     *
+     * @param generation   the generation of the backed up commit
+     * @param copiedFiles  the number of files copied to the target
+     * @param skippedFiles the number of files already present in the target
+     * @param deletedFiles the number of files deleted from the target as they are not part of the commit
+     * @param copiedBytes  the number of bytes copied
+     */
+    BackupReport(long generation, int copiedFiles, int skippedFiles, int deletedFiles, long copiedBytes) {
+        this.generation = generation;
+        this.copiedFiles = copiedFiles;
+        this.skippedFiles = skippedFiles;
+        this.deletedFiles = deletedFiles;
+        this.copiedBytes = copiedBytes;
+    }
+
+    /**
+     * @return the generation of the backed up commit
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the number of files copied to the target
+     */
+    public int getCopiedFiles() {
+        return copiedFiles;
+    }
+
+    /**
+     * @return the number of files already present in the target
+     */
+    public int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * @return the number of files deleted from the target
+     */
+    public int getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    /**
+     * @return the number of bytes copied
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BackupReport{" +
+                "generation=" + generation +
+                ", copiedFiles=" + copiedFiles +
+                ", skippedFiles=" + skippedFiles +
+                ", deletedFiles=" + deletedFiles +
+                ", copiedBytes=" + copiedBytes +
+                '}';
+    }
+}
@@ -16,18 +16,47 @@
 package de.qaware.chronix.lucene.client;
 
 import de.qaware.chronix.converter.TimeSeriesConverter;
+import de.qaware.chronix.lucene.client.catalog.CatalogCollector;
+import de.qaware.chronix.lucene.client.add.IndexingOptions;
+import de.qaware.chronix.lucene.client.add.IngestQueue;
 import de.qaware.chronix.lucene.client.add.LuceneAddingService;
+import de.qaware.chronix.lucene.client.delete.DeleteReport;
+import de.qaware.chronix.lucene.client.delete.LuceneDeletingService;
+import de.qaware.chronix.lucene.client.stream.ColumnarSink;
+import de.qaware.chronix.lucene.client.stream.ColumnarTimeSeriesConverter;
+import de.qaware.chronix.lucene.client.stream.ExportReport;
+import de.qaware.chronix.lucene.client.stream.LuceneDownsamplingService;
+import de.qaware.chronix.lucene.client.stream.LuceneExportingService;
+import de.qaware.chronix.lucene.client.stream.LuceneMergingService;
+import de.qaware.chronix.lucene.client.stream.LuceneScanningService;
+import de.qaware.chronix.lucene.client.stream.LuceneSpillingService;
 import de.qaware.chronix.lucene.client.stream.LuceneStreamingService;
+import de.qaware.chronix.lucene.client.stream.ProfiledResult;
+import de.qaware.chronix.lucene.client.stream.QueryMemoryExceededException;
+import de.qaware.chronix.lucene.client.stream.QueryOptions;
+import de.qaware.chronix.lucene.client.stream.QueryProfile;
+import de.qaware.chronix.lucene.client.stream.QueryTimeoutException;
 import de.qaware.chronix.streaming.StorageService;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeSet;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.SortedSet;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -35,6 +64,7 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 
 /**
  * Lucene storage implementation of the Chronix StorageService interface
@@ -47,6 +77,8 @@ public final class ChronixLuceneStorage<T> implements StorageService<T, LuceneIn
     private final int nrOfDocumentPerBatch;
     private final BinaryOperator<T> reduce;
     private final Function<T, String> groupBy;
+    private final IndexingOptions indexingOptions;
+    private final SingleFlight<List<T>> inFlight = new SingleFlight<>();
 
     /**
      * Constructs a Chronix storage that is based on Apache solr.
@@ -56,9 +88,24 @@ public final class ChronixLuceneStorage<T> implements StorageService<T, LuceneIn
      * @param reduce               the function to reduce the grouped time series records into one time series
      */
     public ChronixLuceneStorage(final int nrOfDocumentPerBatch, final Function<T, String> groupBy, final BinaryOperator<T> reduce) {
+        this(nrOfDocumentPerBatch, groupBy, reduce, new IndexingOptions());
+    }
+
+    /**
+     * Constructs a Chronix storage that is based on Apache lucene.
+     * The group by function is also used as series key to derive the chunk ids.
+     *
+     * @param nrOfDocumentPerBatch number of documents that are processed in one batch
+     * @param groupBy              the function to group time series records
+     * @param reduce               the function to reduce the grouped time series records into one time series
+     * @param indexingOptions      the options how time series are indexed
+     */
+    public ChronixLuceneStorage(final int nrOfDocumentPerBatch, final Function<T, String> groupBy, final BinaryOperator<T> reduce,
+                                final IndexingOptions indexingOptions) {
         this.nrOfDocumentPerBatch = nrOfDocumentPerBatch;
         this.groupBy = groupBy;
         this.reduce = reduce;
+        this.indexingOptions = indexingOptions;
     }
 
     /**
@@ -71,24 +118,207 @@ public final class ChronixLuceneStorage<T> implements StorageService<T, LuceneIn
      */
     @Override
     public Stream<T> stream(TimeSeriesConverter<T> converter, LuceneIndex index, Query query) {
-        LOGGER.debug("Streaming data from lucene using converter {}, Lucene Index {}, and Lucene Query {}", converter, index, query);
+        return stream(converter, index, query, new QueryOptions());
+    }
+
+    /**
+     * Queries lucene and returns the time series in a stream.
+     * The search, the conversion and the grouping are done before this method returns.
+     * The time series are returned in the order of their first chunk, e.g. the sort of the query options.
+     * If the query exceeds its deadline a {@link QueryTimeoutException} is thrown
+     * and all resources of the query are released.
+     * <p>
+     * If the options define a downsampling, the chunks are downsampled while they are converted and
+     * the chunks of a time series are merged by the downsampling instead of the reduce function.
+     * <p>
+     * If the options enable the chunk merge, the chunks of a time series are merged in time order
+     * instead of reducing them. Both require a {@link ColumnarTimeSeriesConverter}.
+     * <p>
+     * If the options define a memory budget, the grouped time series are spilled to temporary files
+     * once their estimated size exceeds the budget, or a {@link QueryMemoryExceededException} is thrown.
+     * Close the stream (e.g. with try-with-resources) to delete the remaining spill files if it is not consumed completely.
+     * The spill files of an abandoned stream are deleted when the jvm exits.
+     * <p>
+     * If the options enable coalescing, identical concurrent queries on the same reader are executed once
+     * and their callers share the time series.
+     *
+     * @param converter the time series converter
+     * @param index     the lucene index
+     * @param query     the user query
+     * @param options   the query options, e.g. the deadline
+     * @return a stream of time series
+     */
+    public Stream<T> stream(TimeSeriesConverter<T> converter, LuceneIndex index, Query query, QueryOptions options) {
+        LOGGER.debug("Streaming data from lucene using converter {}, Lucene Index {}, Lucene Query {}, and {}", converter, index, query, options);
+        checkConverter(converter, options);
+        try {
+            IndexSearcher searcher = index.getSearcher();
+            if (options.isCoalesce()) {
+                return coalesce(converter, searcher, query, options);
+            }
+            return stream(converter, searcher, query, options);
+        } catch (IOException e) {
+            LOGGER.error("Could not open the lucene index searcher", e);
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * Executes identical concurrent queries once and passes the time series to all callers.
+     * The key holds the reader, hence a query on a reopened reader is not coalesced with one on the previous reader.
+     * It holds the converter instance, too, as two converters of the same class may be configured differently.
+     */
+    private Stream<T> coalesce(TimeSeriesConverter<T> converter, IndexSearcher searcher, Query query, QueryOptions options) throws IOException {
+        List<Object> key = Arrays.asList(new IdentityKey(searcher.getIndexReader()), new IdentityKey(converter), query, options);
         try {
-            LuceneStreamingService<T> luceneStreamingService = new LuceneStreamingService<>(converter, query, index.getSearcher(), nrOfDocumentPerBatch);
+            return inFlight.execute(key, () -> {
+                try {
+                    return stream(converter, searcher, query, options).collect(toList());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).stream();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Queries lucene like {@link #stream(TimeSeriesConverter, LuceneIndex, Query, QueryOptions)} and returns
+     * the time series together with the execution profile of the query: the rewritten query, the matching chunks
+     * per segment, the loaded chunks and their stored bytes, and the time of the search, the conversion and the reduce.
+     *
+     * @param converter    the time series converter
+     * @param index        the lucene index
+     * @param query        the user query
+     * @param queryOptions the query options, the profile is set on a copy of them
+     * @return the time series and the profile of the query
+     */
+    public ProfiledResult<T> profile(TimeSeriesConverter<T> converter, LuceneIndex index, Query query, QueryOptions queryOptions) {
+        QueryProfile profile = new QueryProfile();
+        QueryOptions options = queryOptions.copy().setProfile(profile);
+        checkConverter(converter, options);
+        List<T> timeSeries = Collections.emptyList();
+        try {
+            IndexSearcher searcher = index.getSearcher();
+            profile.setRewrittenQuery(searcher.rewrite(query).toString());
+            Stream<T> stream = stream(converter, searcher, query, options);
+
+            //the search, the conversion and the grouping are done, the reduce is done by the terminal operation
+            long start = System.nanoTime();
+            timeSeries = stream.collect(toList());
+            profile.reduced(System.nanoTime() - start, timeSeries.size());
+        } catch (IOException e) {
+            LOGGER.error("Could not open the lucene index searcher", e);
+        }
+        LOGGER.debug("Profiled query {}: {}", query, profile);
+        return new ProfiledResult<>(timeSeries, profile);
+    }
+
+    /**
+     * Queries the tiers of a tiered index and returns the time series in a stream.
+     * Only the tiers that can contain chunks within the time range of the query are searched.
+     * The chunks of a time series that is split across the tiers are grouped as if they were in one index.
+     *
+     * @param converter the time series converter
+     * @param index     the tiered lucene index
+     * @param query     the user query
+     * @param options   the query options, e.g. the deadline
+     * @return a stream of time series
+     * @see #stream(TimeSeriesConverter, LuceneIndex, Query, QueryOptions)
+     */
+    public Stream<T> stream(TimeSeriesConverter<T> converter, TieredLuceneIndex index, Query query, QueryOptions options) {
+        LOGGER.debug("Streaming data from lucene using converter {}, Tiered Lucene Index {}, Lucene Query {}, and {}", converter, index, query, options);
+        checkConverter(converter, options);
+        try (IndexReader reader = index.openReader(query)) {
+            return stream(converter, new IndexSearcher(reader), query, options);
+        } catch (IOException e) {
+            LOGGER.error("Could not open the tiers of the lucene index", e);
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * Checks the converter before the index is opened
+     */
+    private static void checkConverter(TimeSeriesConverter<?> converter, QueryOptions options) {
+        if ((options.hasDownsampling() || options.hasMergeChunks()) && !(converter instanceof ColumnarTimeSeriesConverter)) {
+            throw new IllegalArgumentException("Downsampling and merging chunks require a ColumnarTimeSeriesConverter, got " + converter);
+        }
+    }
+
+    private Stream<T> stream(TimeSeriesConverter<T> converter, IndexSearcher searcher, Query query, QueryOptions options) throws IOException {
+        if (options.hasDownsampling() || options.hasMergeChunks()) {
+            return streamColumnar(converter, searcher, query, options);
+        }
+        if (options.hasMemoryBudget()) {
+            return LuceneSpillingService.stream(converter, query, searcher, nrOfDocumentPerBatch, options, groupBy, reduce);
+        }
+        try (LuceneStreamingService<T> luceneStreamingService = new LuceneStreamingService<>(converter, query, searcher, nrOfDocumentPerBatch, options)) {
 
             return StreamSupport.stream(Spliterators.spliteratorUnknownSize(luceneStreamingService, Spliterator.SIZED), false)
                     .filter(Objects::nonNull)//Remove empty results
-                    .collect(groupingBy(groupBy)).values().stream()
+                    .collect(groupingBy(groupBy, LinkedHashMap::new, toList())).values().stream()
                     .map(ts -> ts.stream().reduce(reduce).get());
+        }
+    }
+
+    private Stream<T> streamColumnar(TimeSeriesConverter<T> converter, IndexSearcher searcher, Query query, QueryOptions options) throws IOException {
+        ColumnarTimeSeriesConverter<T> columnarConverter = (ColumnarTimeSeriesConverter<T>) converter;
+        if (options.hasDownsampling()) {
+            return LuceneDownsamplingService.stream(columnarConverter, query, searcher, nrOfDocumentPerBatch, options, groupBy);
+        }
+        return LuceneMergingService.stream(columnarConverter, query, searcher, nrOfDocumentPerBatch, options, groupBy);
+    }
 
+    /**
+     * Scans the points of the chunks matching the query as primitive columns.
+     * The chunks are decoded one after another in the calling thread into reused arrays.
+     * No time series is created, not grouped and not reduced. Hence large ranges can be
+     * aggregated by the sink with a memory footprint bounded by the largest chunk.
+     *
+     * @param converter the converter that decodes the points of a chunk
+     * @param index     the lucene index
+     * @param query     the user query
+     * @param sink      the sink receiving the points of each chunk
+     * @return the number of scanned chunks, or 0 if the index can not be searched
+     */
+    public long scan(ColumnarTimeSeriesConverter<T> converter, LuceneIndex index, Query query, ColumnarSink sink) {
+        LOGGER.debug("Scanning data from lucene using converter {}, Lucene Index {}, Lucene Query {}", converter, index, query);
+        try {
+            return LuceneScanningService.scan(converter, query, index.getSearcher(), sink);
         } catch (IOException e) {
-            LOGGER.error("Could not open the lucene index searcher", e);
+            LOGGER.error("Could not scan the lucene index", e);
         }
-        return Stream.empty();
+        return 0;
+    }
+
+    /**
+     * Exports the chunks matching the query to the channel in a columnar binary format.
+     * The timestamps and values of a chunk are written as contiguous primitive columns, in blocks and in the
+     * calling thread. Hence the memory of an export is bounded by the largest chunk.
+     *
+     * @param converter   the converter that decodes the points of a chunk
+     * @param index       the lucene index
+     * @param query       the user query
+     * @param channel     the channel to write to, it is not closed
+     * @param passThrough true to write the stored data of chunks within the query range unchanged instead of decoding them
+     * @return the report of the export, or null if the index can not be searched or the channel fails
+     */
+    public ExportReport export(ColumnarTimeSeriesConverter<T> converter, LuceneIndex index, Query query, WritableByteChannel channel, boolean passThrough) {
+        LOGGER.debug("Exporting data from lucene using converter {}, Lucene Index {}, Lucene Query {}", converter, index, query);
+        try {
+            return LuceneExportingService.export(converter, query, index.getSearcher(), channel, passThrough, LuceneExportingService.DEFAULT_BLOCK_SIZE);
+        } catch (IOException e) {
+            LOGGER.error("Could not export the lucene index", e);
+        }
+        return null;
     }
 
     /**
      * Adds the given collection of documents to the solr connection using the collector.
      * Note: The function does not call commit on the connection. Documents are just added to lucene.
+     * Use {@link LuceneIndex#commit()} or a {@link CommitPolicy} on the index to commit them.
      *
      * @param converter   the converter matching the type <T>
      * @param documents   the documents of type <T>
@@ -98,12 +328,104 @@ public final class ChronixLuceneStorage<T> implements StorageService<T, LuceneIn
     @Override
     public boolean add(TimeSeriesConverter<T> converter, Collection<T> documents, LuceneIndex luceneIndex) {
         try {
-            return LuceneAddingService.add(converter, documents, luceneIndex.getOpenWriter());
+            return LuceneAddingService.add(converter, documents, luceneIndex.getOpenWriter(), indexingOptions, groupBy);
         } catch (IOException e) {
             LOGGER.error("Could not open lucene index writer", e);
         }
         return false;
     }
 
+    /**
+     * Creates a bounded queue that adds the time series of many producers with a fixed set of indexing threads.
+     * The time series are indexed with the indexing options of this storage.
+     * Note: The queue does not commit the documents and must be closed to stop its threads.
+     *
+     * @param converter   the converter matching the type <T>
+     * @param luceneIndex the lucene index
+     * @param capacity    the max number of queued time series
+     * @param threads     the number of indexing threads
+     * @return the started queue
+     */
+    public IngestQueue<T> ingestQueue(TimeSeriesConverter<T> converter, LuceneIndex luceneIndex, int capacity, int threads) {
+        return new IngestQueue<>(converter, luceneIndex, indexingOptions, groupBy, capacity, threads);
+    }
 
+    /**
+     * Deletes the points of the time series matching the query within the given time range.
+     * Chunks within the time range are deleted, chunks overlapping the time range are replaced by their parts
+     * before and after the range. The parts are converted with the converter and indexed like added time series.
+     * Note: The function does not commit the deletes.
+     *
+     * @param converter   the converter matching the type <T>
+     * @param luceneIndex the lucene index
+     * @param query       the query that selects the chunks, e.g. {@link ChronixQueries#series(Map)}
+     * @param start       the start of the time range (inclusive)
+     * @param end         the end of the time range (inclusive)
+     * @return the report of the delete, or null if the chunks could not be deleted
+     */
+    public DeleteReport delete(TimeSeriesConverter<T> converter, LuceneIndex luceneIndex, Query query, long start, long end) {
+        try {
+            return LuceneDeletingService.delete(converter, query, start, end, luceneIndex.getOpenWriter(), indexingOptions, groupBy);
+        } catch (IOException e) {
+            LOGGER.error("Could not delete the range {} - {} of {} from lucene", start, end, query, e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the distinct values and the number of matching chunks per value of the given attributes.
+     * The catalog is computed from the sorted (set) doc values of the attributes. Hence the attributes
+     * have to be identity attributes (see {@link IndexingOptions#setIdentityAttributes(String...)}).
+     * No stored field is loaded and no chunk is decoded.
+     *
+     * @param index      the lucene index
+     * @param query      the query that selects the chunks
+     * @param attributes the identity attributes, e.g. host, metric
+     * @return the attributes with their distinct values (sorted) and counts, or an empty map if the index can not be searched
+     */
+    public Map<String, Map<String, Long>> catalog(LuceneIndex index, Query query, String... attributes) {
+        LOGGER.debug("Reading catalog of {} from Lucene Index {} for Lucene Query {}", attributes, index, query);
+        try {
+            CatalogCollector collector = new CatalogCollector(attributes);
+            index.getSearcher().search(query, collector);
+            return collector.getCatalog();
+        } catch (IOException e) {
+            LOGGER.error("Could not read the catalog from the lucene index", e);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Returns the distinct values of an identity attribute for the chunks matching the query.
+     *
+     * @param index     the lucene index
+     * @param query     the query that selects the chunks
+     * @param attribute the identity attribute, e.g. host
+     * @return the sorted distinct values
+     */
+    public SortedSet<String> distinct(LuceneIndex index, Query query, String attribute) {
+        Map<String, Long> counts = catalog(index, query, attribute).getOrDefault(attribute, Collections.emptyMap());
+        return new TreeSet<>(counts.keySet());
+    }
+
+    /**
+     * Compares objects like readers and converters by their identity
+     */
+    private static final class IdentityKey {
+        private final Object object;
+
+        private IdentityKey(Object object) {
+            this.object = object;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).object == object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(object);
+        }
+    }
 }
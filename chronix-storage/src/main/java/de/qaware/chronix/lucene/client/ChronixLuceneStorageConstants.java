@@ -24,6 +24,16 @@ public final class ChronixLuceneStorageConstants {
 
     public static final String MULTI_VALUE_FIELD_DELIMITER = "::mv::";
 
+    /**
+     * Indexed (not stored) field holding the deterministic id of a chunk
+     */
+    public static final String CHUNK_ID = "_chunk_id";
+
+    /**
+     * Stored field holding the packed attributes of a chunk, see {@link PackedAttributes}
+     */
+    public static final String PACKED_ATTRIBUTES = "_attributes";
+
     private ChronixLuceneStorageConstants() {
 
     }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.lucene.client.stream.LuceneStreamingService;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.util.Map;
+
+/**
+ * Factory methods for lucene queries on the chronix lucene storage
+ */
+public final class ChronixQueries {
+
+    private ChronixQueries() {
+        //Avoid instances
+    }
+
+    /**
+     * Creates an exact (single term) query on an identity attribute.
+     *
+     * @param attribute the identity attribute, e.g. host
+     * @param value     the not analyzed value
+     * @return a term query
+     */
+    public static Query exact(String attribute, String value) {
+        return new TermQuery(new Term(attribute, value));
+    }
+
+    /**
+     * Creates a query that selects the series with the given identity attribute values.
+     * Every attribute is a non scoring filter clause.
+     *
+     * @param identity the identity attributes and their values, e.g. host=server-1, metric=cpu
+     * @return a query selecting the matching series, or a query that matches all if the map is empty
+     */
+    public static Query series(Map<String, String> identity) {
+        if (identity.isEmpty()) {
+            return new MatchAllDocsQuery();
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        identity.forEach((attribute, value) -> builder.add(exact(attribute, value), BooleanClause.Occur.FILTER));
+        return new ConstantScoreQuery(builder.build());
+    }
+
+    /**
+     * Creates a range query on an integral numeric attribute (see IndexingOptions#setNumericAttributes).
+     * Use Long.MIN_VALUE or Long.MAX_VALUE for an open bound, e.g. cpuCount &gt;= 16.
+     *
+     * @param attribute the numeric attribute
+     * @param min       the lower bound (inclusive)
+     * @param max       the upper bound (inclusive)
+     * @return a point range query
+     */
+    public static Query numericRange(String attribute, long min, long max) {
+        return LongPoint.newRangeQuery(attribute, min, max);
+    }
+
+    /**
+     * Creates a range query on a floating point numeric attribute (see IndexingOptions#setFloatingPointAttributes).
+     * Use Double.NEGATIVE_INFINITY or Double.POSITIVE_INFINITY for an open bound.
+     *
+     * @param attribute the numeric attribute
+     * @param min       the lower bound (inclusive)
+     * @param max       the upper bound (inclusive)
+     * @return a point range query
+     */
+    public static Query numericRange(String attribute, double min, double max) {
+        return DoublePoint.newRangeQuery(attribute, min, max);
+    }
+
+    /**
+     * Creates a query that selects the chunks overlapping the given time range,
+     * i.e. chunks that end at or after the start and start at or before the end of the range.
+     *
+     * @param start the start of the range (inclusive)
+     * @param end   the end of the range (inclusive)
+     * @return a non scoring query on the start and end points of the chunks
+     */
+    public static Query range(long start, long end) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(LongPoint.newRangeQuery(Schema.END, start, Long.MAX_VALUE), BooleanClause.Occur.FILTER);
+        builder.add(LongPoint.newRangeQuery(Schema.START, Long.MIN_VALUE, end), BooleanClause.Occur.FILTER);
+        return new ConstantScoreQuery(builder.build());
+    }
+
+    /**
+     * Returns the time range of a query. The range is parsed from start and end terms (e.g. start:NOW-1DAY)
+     * and narrowed by the required point ranges on the end and start of the chunks, e.g. of {@link #range(long, long)}.
+     *
+     * @param query the query
+     * @return the start (default 0) and the end (default Long.MAX_VALUE) of the query
+     */
+    public static long[] timeRange(Query query) {
+        long[] range = LuceneStreamingService.queryRange(query);
+        narrow(query, range);
+        return range;
+    }
+
+    private static void narrow(Query query, long[] range) {
+        if (query instanceof ConstantScoreQuery) {
+            narrow(((ConstantScoreQuery) query).getQuery(), range);
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.isRequired()) {
+                    narrow(clause.getQuery(), range);
+                }
+            }
+        } else if (query instanceof PointRangeQuery && ((PointRangeQuery) query).getNumDims() == 1
+                && ((PointRangeQuery) query).getBytesPerDim() == Long.BYTES) {
+            PointRangeQuery pointRange = (PointRangeQuery) query;
+            if (Schema.END.equals(pointRange.getField())) {
+                //chunks that end before the lower bound are not selected
+                range[0] = Math.max(range[0], LongPoint.decodeDimension(pointRange.getLowerPoint(), 0));
+            } else if (Schema.START.equals(pointRange.getField())) {
+                //chunks that start after the upper bound are not selected
+                range[1] = Math.min(range[1], LongPoint.decodeDimension(pointRange.getUpperPoint(), 0));
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines when the lucene index commits automatically.
+ * A commit is triggered if one of the configured limits is reached:
+ * <p>
+ * - the time since the last commit (time based)
+ * <p>
+ * - the number of index operations since the last commit (doc count based)
+ * <p>
+ * - the ram used by the index writer buffer (ram buffer based)
+ * <p>
+ * A limit that is not set (value &lt;= 0) is not checked.
+ * A policy without any limit never commits automatically.
+ */
+public final class CommitPolicy {
+
+    private static final long DEFAULT_CHECK_INTERVAL_MS = 100;
+
+    private long maxTimeMs = -1;
+    private long maxOperations = -1;
+    private double maxRamBufferMB = -1;
+    private long checkIntervalMs = DEFAULT_CHECK_INTERVAL_MS;
+
+    /**
+     * @return a commit policy that never commits automatically
+     */
+    public static CommitPolicy manual() {
+        return new CommitPolicy();
+    }
+
+    /**
+     * Sets the max time between two commits.
+     *
+     * @param maxTime the max time between two commits
+     * @param unit    the time unit of max time
+     * @return this policy
+     */
+    public CommitPolicy setMaxTime(long maxTime, TimeUnit unit) {
+        this.maxTimeMs = unit.toMillis(maxTime);
+        return this;
+    }
+
+    /**
+     * Sets the max number of index operations (added, updated or deleted documents) between two commits.
+     *
+     * @param maxOperations the max number of uncommitted operations
+     * @return this policy
+     */
+    public CommitPolicy setMaxOperations(long maxOperations) {
+        this.maxOperations = maxOperations;
+        return this;
+    }
+
+    /**
+     * Sets the max ram used by the index writer buffer before a commit is triggered.
+     *
+     * @param maxRamBufferMB the max ram in mega bytes
+     * @return this policy
+     */
+    public CommitPolicy setMaxRamBufferMB(double maxRamBufferMB) {
+        this.maxRamBufferMB = maxRamBufferMB;
+        return this;
+    }
+
+    /**
+     * Sets the interval in which the scheduler checks the limits.
+     * Default is 100 milliseconds.
+     *
+     * @param checkInterval the check interval
+     * @param unit          the time unit of the check interval
+     * @return this policy
+     */
+    public CommitPolicy setCheckInterval(long checkInterval, TimeUnit unit) {
+        this.checkIntervalMs = Math.max(1, unit.toMillis(checkInterval));
+        return this;
+    }
+
+    /**
+     * @return the interval in milliseconds in which the limits are checked
+     */
+    public long getCheckIntervalMs() {
+        return checkIntervalMs;
+    }
+
+    /**
+     * @return true if no limit is set, and hence the policy never commits automatically
+     */
+    public boolean isManual() {
+        return maxTimeMs <= 0 && maxOperations <= 0 && maxRamBufferMB <= 0;
+    }
+
+    /**
+     * Checks if one of the limits is reached.
+     *
+     * @param millisSinceLastCommit the milliseconds since the last commit
+     * @param pendingOperations     the number of uncommitted operations
+     * @param ramBytesUsed          the ram used by the index writer buffer
+     * @return true if a commit should be done
+     */
+    boolean needsCommit(long millisSinceLastCommit, long pendingOperations, long ramBytesUsed) {
+        if (pendingOperations <= 0) {
+            return false;
+        }
+        return (maxTimeMs > 0 && millisSinceLastCommit >= maxTimeMs)
+                || (maxOperations > 0 && pendingOperations >= maxOperations)
+                || (maxRamBufferMB > 0 && ramBytesUsed >= maxRamBufferMB * 1024 * 1024);
+    }
+
+    @Override
+    public String toString() {
+        return "CommitPolicy{" +
+                "maxTimeMs=" + maxTimeMs +
+                ", maxOperations=" + maxOperations +
+                ", maxRamBufferMB=" + maxRamBufferMB +
+                ", checkIntervalMs=" + checkIntervalMs +
+                '}';
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Copies the files of a pinned index commit incrementally into a target directory.
+ * Lucene never changes a written file. Hence a file that is already present in the target
+ * with the same length is skipped. The segments file is copied last, and files of older backups
+ * that are not referenced by the commit are deleted afterwards. So the target is always a valid index.
+ */
+final class IndexBackup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexBackup.class);
+
+    private static final String TEMP_SUFFIX = ".backup";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Directory source;
+    private final Path target;
+
+    /**
+     * Constructs an index backup
+     *
+     * @param source the directory of the index
+     * @param target the path of the backup
+     */
+    IndexBackup(Directory source, Path target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * Copies the files of the commit that are not already in the target.
+     *
+     * @param commit the pinned commit
+     * @return the backup report
+     * @throws IOException if a file can not be copied
+     */
+    BackupReport copy(IndexCommit commit) throws IOException {
+        Files.createDirectories(target);
+        Collection<String> fileNames = commit.getFileNames();
+        String segmentsFile = commit.getSegmentsFileName();
+
+        List<String> dataFiles = new ArrayList<>(fileNames);
+        dataFiles.remove(segmentsFile);
+
+        int copied = 0;
+        int skipped = 0;
+        long bytes = 0;
+        for (String fileName : dataFiles) {
+            long length = source.fileLength(fileName);
+            if (isPresent(fileName, length)) {
+                skipped++;
+            } else {
+                bytes += copyFile(fileName, length);
+                copied++;
+            }
+        }
+        //The segments file makes the copied files visible
+        bytes += copyFile(segmentsFile, source.fileLength(segmentsFile));
+        copied++;
+
+        int deleted = deleteUnreferencedFiles(fileNames);
+        BackupReport report = new BackupReport(commit.getGeneration(), copied, skipped, deleted, bytes);
+        LOGGER.debug("Backup to {} done: {}", target, report);
+        return report;
+    }
+
+    private boolean isPresent(String fileName, long length) throws IOException {
+        Path file = target.resolve(fileName);
+        return Files.exists(file) && Files.size(file) == length;
+    }
+
+    /**
+     * Copies the file into a temporary file and moves it atomically to its name.
+     * Files of a file system directory are copied with zero-copy file channels.
+     *
+     * @param fileName the file name
+     * @param length   the length of the file
+     * @return the number of copied bytes
+     * @throws IOException if the file can not be copied
+     */
+    private long copyFile(String fileName, long length) throws IOException {
+        Path temp = target.resolve(fileName + TEMP_SUFFIX);
+        Directory unwrapped = FilterDirectory.unwrap(source);
+        if (unwrapped instanceof FSDirectory) {
+            Path file = ((FSDirectory) unwrapped).getDirectory().resolve(fileName);
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                while (position < length) {
+                    position += in.transferTo(position, length - position, out);
+                }
+                out.force(true);
+            }
+        } else {
+            try (IndexInput in = source.openInput(fileName, IOContext.READONCE);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int chunk = (int) Math.min(buffer.length, remaining);
+                    in.readBytes(buffer, 0, chunk);
+                    out.write(buffer, 0, chunk);
+                    remaining -= chunk;
+                }
+            }
+        }
+        Files.move(temp, target.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return length;
+    }
+
+    /**
+     * Deletes the index files of older backups that are not part of the commit.
+     *
+     * @param fileNames the files of the commit
+     * @return the number of deleted files
+     * @throws IOException if the target can not be listed or a file can not be deleted
+     */
+    private int deleteUnreferencedFiles(Collection<String> fileNames) throws IOException {
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(target)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                boolean indexFile = fileName.startsWith(IndexFileNames.SEGMENTS) || fileName.startsWith("_") || fileName.endsWith(TEMP_SUFFIX);
+                if (indexFile && !fileNames.contains(fileName) && Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+}
@@ -15,34 +15,75 @@
  */
 package de.qaware.chronix.lucene.client;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.codecs.Codec;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeScheduler;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Class that holds the lucene index writer and searcher
+ * Class that holds the lucene index writer and searcher.
+ * Opening and closing the writer and the reader is synchronized, hence concurrent callers share one writer.
  *
  * @author f.lautenschlager
  */
-public final class LuceneIndex {
+public final class LuceneIndex implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LuceneIndex.class);
 
-    private IndexSearcher searcher;
-    private IndexReader reader;
-    private IndexWriter writer;
+    private volatile IndexSearcher searcher;
+    private volatile IndexReader reader;
+    private volatile IndexWriter writer;
 
     private final Directory directory;
     private final Analyzer analyzer;
 
+    /**
+     * Group commit state. The sequence numbers are the ones of the current writer.
+     */
+    private final Object commitLock = new Object();
+    private long lastCommittedSequenceNumber;
+    private long lastCommitTime = System.currentTimeMillis();
+
+    /**
+     * Pins commits for backups. The policy is shared by all writers of this index,
+     * hence a snapshot survives the reopening of the writer.
+     */
+    private final SnapshotDeletionPolicy snapshotPolicy = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+
+    private Sort indexSort;
+    private MergePolicy mergePolicy;
+    private MergeScheduler mergeScheduler;
+    private Codec codec;
+    private CommitPolicy commitPolicy = CommitPolicy.manual();
+    private ScheduledExecutorService commitScheduler;
+    private ExecutorService searchExecutor;
+    private int maxDocsPerSlice = 250_000;
+    private int maxSegmentsPerSlice = 5;
+
     /**
      * Constructs and lucene index
      *
@@ -61,13 +102,60 @@ public final class LuceneIndex {
      * @return the lucene index searcher
      * @throws IOException if the underlying lucene reader can not be opened or created
      */
-    public IndexSearcher getSearcher() throws IOException {
-        if (searcher == null && readerClosed()) {
+    public synchronized IndexSearcher getSearcher() throws IOException {
+        //a searcher on a closed reader (e.g. closed by opening the writer) is replaced
+        if (searcher == null || readerClosed() || searcher.getIndexReader() != reader) {
             reader = getOpenReader();
-            searcher = new IndexSearcher(reader);
+            if (searchExecutor == null) {
+                searcher = new IndexSearcher(reader);
+            } else {
+                searcher = SlicedIndexSearcher.create(reader, searchExecutor, maxDocsPerSlice, maxSegmentsPerSlice);
+            }
         }
         return searcher;
+    }
+
+    /**
+     * Creates a bounded executor for the concurrent search of segments.
+     * The executor can be shared by the indexes and must be shut down by the caller.
+     *
+     * @param threads the number of search threads, e.g. the number of cores
+     * @return a fixed thread pool with daemon threads
+     */
+    public static ExecutorService newSearchExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("chronix-lucene-search-%d").build());
+    }
+
+    /**
+     * Sets the executor that searches the slices of the index concurrently, e.g. {@link #newSearchExecutor(int)}.
+     * Queries that collect with a collector manager, e.g. counting and the top hits of the streaming service,
+     * then search their slices in parallel and merge the results. The executor is not shut down by this index.
+     * <p>
+     * Note: The calling thread waits for the slices, hence a query must not run within the bounded executor itself.
+     *
+     * @param searchExecutor the executor, null to search the segments in the calling thread
+     * @return this lucene index
+     */
+    public synchronized LuceneIndex setSearchExecutor(ExecutorService searchExecutor) {
+        this.searchExecutor = searchExecutor;
+        this.searcher = null;
+        return this;
+    }
 
+    /**
+     * Sets the slices of the concurrent search. A slice is a group of neighbouring segments that is searched by one task.
+     * Defaults to 250.000 documents and 5 segments.
+     *
+     * @param maxDocsPerSlice     the max number of documents of a slice, a larger segment is a slice on its own
+     * @param maxSegmentsPerSlice the max number of segments of a slice
+     * @return this lucene index
+     */
+    public synchronized LuceneIndex setSlices(int maxDocsPerSlice, int maxSegmentsPerSlice) {
+        this.maxDocsPerSlice = maxDocsPerSlice;
+        this.maxSegmentsPerSlice = Math.max(1, maxSegmentsPerSlice);
+        this.searcher = null;
+        return this;
     }
 
 
@@ -78,7 +166,7 @@ public final class LuceneIndex {
      * @return an open lucene writer
      * @throws IOException if the lucene writer can not be opened or created
      */
-    public IndexWriter getOpenWriter() throws IOException {
+    public synchronized IndexWriter getOpenWriter() throws IOException {
         if (writerClosed()) {
             LOGGER.debug("Closing reader and opening writer.");
             if (readerOpen()) {
@@ -86,11 +174,320 @@ public final class LuceneIndex {
                 reader.close();
             }
             IndexWriterConfig config = new IndexWriterConfig(analyzer);
+            config.setIndexDeletionPolicy(snapshotPolicy);
+            if (indexSort != null) {
+                config.setIndexSort(indexSort);
+            }
+            if (mergePolicy != null) {
+                config.setMergePolicy(mergePolicy);
+            }
+            if (mergeScheduler != null) {
+                config.setMergeScheduler(mergeScheduler);
+            }
+            if (codec != null) {
+                config.setCodec(codec);
+            }
             writer = new IndexWriter(directory, config);
+            synchronized (commitLock) {
+                //sequence numbers start again with a new writer, waiters of older writers are bound to their writer
+                lastCommittedSequenceNumber = 0;
+                commitLock.notifyAll();
+            }
         }
         return writer;
     }
 
+    /**
+     * Sets the sort of the documents within the segments, e.g. descending by end for "latest N chunks" queries.
+     * Limited queries with the same sort terminate early on each segment.
+     * The sort is used when the writer is opened the next time and can not be changed for an existing index.
+     *
+     * @param indexSort the sort of the documents within the segments
+     * @return this lucene index
+     */
+    public LuceneIndex setIndexSort(Sort indexSort) {
+        this.indexSort = indexSort;
+        return this;
+    }
+
+    /**
+     * Sets the merge policy of the writer, e.g. a {@link TimeSeriesMergePolicy}.
+     * The policy is used when the writer is opened the next time.
+     *
+     * @param mergePolicy the merge policy, null for the lucene default
+     * @return this lucene index
+     */
+    public LuceneIndex setMergePolicy(MergePolicy mergePolicy) {
+        this.mergePolicy = mergePolicy;
+        return this;
+    }
+
+    /**
+     * Sets the merge scheduler of the writer, e.g. a {@link org.apache.lucene.index.SerialMergeScheduler}
+     * that merges in the committing thread. The scheduler is used when the writer is opened the next time.
+     *
+     * @param mergeScheduler the merge scheduler, null for the lucene default
+     * @return this lucene index
+     */
+    public LuceneIndex setMergeScheduler(MergeScheduler mergeScheduler) {
+        this.mergeScheduler = mergeScheduler;
+        return this;
+    }
+
+    /**
+     * Sets the codec of the writer, e.g. a codec with best compression of the stored fields for cold data.
+     * The codec is used for the segments that are written after the writer is opened the next time.
+     *
+     * @param codec the codec, null for the lucene default
+     * @return this lucene index
+     */
+    public LuceneIndex setCodec(Codec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Sets the commit policy and (re)starts the background commit scheduler.
+     * The scheduler only commits an open writer and never opens one.
+     *
+     * @param commitPolicy the commit policy, {@link CommitPolicy#manual()} disables the scheduler
+     * @return this lucene index
+     */
+    public LuceneIndex setCommitPolicy(CommitPolicy commitPolicy) {
+        stopCommitScheduler();
+        this.commitPolicy = commitPolicy;
+        if (!commitPolicy.isManual()) {
+            LOGGER.debug("Starting commit scheduler with {}", commitPolicy);
+            commitScheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("chronix-lucene-commit-%d").build());
+            commitScheduler.scheduleWithFixedDelay(this::commitIfNeeded,
+                    commitPolicy.getCheckIntervalMs(), commitPolicy.getCheckIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * @return the commit policy of this index
+     */
+    public CommitPolicy getCommitPolicy() {
+        return commitPolicy;
+    }
+
+    /**
+     * Commits all operations that are completed when this method is called.
+     * Concurrent callers are grouped: A caller whose operations are already covered
+     * by a commit that was done while it was waiting returns without an additional commit.
+     *
+     * @return the sequence number of the commit that covers the operations of the caller
+     * @throws IOException if the lucene writer can not be opened or the commit fails
+     */
+    public long commit() throws IOException {
+        IndexWriter currentWriter = getOpenWriter();
+        return commit(currentWriter, currentWriter.getMaxCompletedSequenceNumber());
+    }
+
+    /**
+     * Commits the index together with the given user data, e.g. the progress of an import.
+     * The user data is merged into the user data of the last commit. The commit is done even if
+     * all documents are already committed.
+     *
+     * @param userData the user data to store with the commit
+     * @return the sequence number of the commit
+     * @throws IOException if the commit fails
+     */
+    public long commit(Map<String, String> userData) throws IOException {
+        IndexWriter currentWriter = getOpenWriter();
+        synchronized (commitLock) {
+            //the writer is not reopened while holding the commit lock, it is opened before
+            Map<String, String> commitData = getCommitData(currentWriter);
+            commitData.putAll(userData);
+            currentWriter.setLiveCommitData(commitData.entrySet());
+            return commitNow(currentWriter, currentWriter.getMaxCompletedSequenceNumber());
+        }
+    }
+
+    /**
+     * Returns the user data of the last commit, including user data that is set for the next commit.
+     *
+     * @return a copy of the commit user data
+     * @throws IOException if the writer can not be opened
+     */
+    public Map<String, String> getCommitData() throws IOException {
+        return getCommitData(getOpenWriter());
+    }
+
+    private static Map<String, String> getCommitData(IndexWriter currentWriter) {
+        Map<String, String> commitData = new HashMap<>();
+        Iterable<Map.Entry<String, String>> liveCommitData = currentWriter.getLiveCommitData();
+        if (liveCommitData != null) {
+            liveCommitData.forEach(entry -> commitData.put(entry.getKey(), entry.getValue()));
+        }
+        return commitData;
+    }
+
+    /**
+     * Waits until the given sequence number is committed, e.g. by the commit scheduler.
+     * The sequence number is the one returned by the writer for an operation,
+     * or {@link IndexWriter#getMaxCompletedSequenceNumber()} after adding documents.
+     * Sequence numbers start again with each writer, hence the writer that returned the sequence number is
+     * passed, too. If that writer is closed or replaced by a new one, its operations are committed.
+     *
+     * @param sequenceWriter the writer that returned the sequence number
+     * @param sequenceNumber the sequence number of the operation
+     * @param timeout        the max time to wait
+     * @param unit           the time unit of the timeout
+     * @return true if the operation is committed, false if the timeout elapsed
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean awaitCommit(IndexWriter sequenceWriter, long sequenceNumber, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (commitLock) {
+            while (sequenceWriter == writer && sequenceWriter.isOpen() && lastCommittedSequenceNumber < sequenceNumber) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                commitLock.wait(remainingMs);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the sequence number of the last commit of the current writer
+     */
+    public long getLastCommittedSequenceNumber() {
+        synchronized (commitLock) {
+            return lastCommittedSequenceNumber;
+        }
+    }
+
+    /**
+     * Commits the given writer if the target sequence number is not already committed.
+     *
+     * @param currentWriter the writer to commit
+     * @param target        the sequence number that should be committed
+     * @return the sequence number of the last commit
+     * @throws IOException if the commit fails
+     */
+    private long commit(IndexWriter currentWriter, long target) throws IOException {
+        synchronized (commitLock) {
+            if (lastCommittedSequenceNumber > 0 && lastCommittedSequenceNumber >= target) {
+                LOGGER.debug("Sequence number {} is already committed with {}", target, lastCommittedSequenceNumber);
+                return lastCommittedSequenceNumber;
+            }
+            return commitNow(currentWriter, target);
+        }
+    }
+
+    /**
+     * Commits the given writer and notifies the threads waiting for the commit.
+     */
+    private long commitNow(IndexWriter currentWriter, long target) throws IOException {
+        synchronized (commitLock) {
+            long sequenceNumber = currentWriter.commit();
+            lastCommittedSequenceNumber = Math.max(sequenceNumber, target);
+            lastCommitTime = System.currentTimeMillis();
+            commitLock.notifyAll();
+            LOGGER.debug("Committed index up to sequence number {}", lastCommittedSequenceNumber);
+            return lastCommittedSequenceNumber;
+        }
+    }
+
+    /**
+     * Backups the last commit of the index into the given target directory while the writer keeps on indexing.
+     * The commit is pinned with a snapshot, so its files are not deleted by merges or later commits.
+     * Only the files that are not already in the target (from an earlier backup) are copied.
+     * Afterwards the snapshot is released.
+     * <p>
+     * Note: Uncommitted documents are not part of the backup. If the index has no commit yet, a commit is done.
+     *
+     * @param target the directory of the backup
+     * @return the report of the backup
+     * @throws IOException if the commit can not be pinned or the files can not be copied
+     */
+    public BackupReport backup(Path target) throws IOException {
+        getOpenWriter();
+        if (!DirectoryReader.indexExists(directory)) {
+            commit();
+        }
+        IndexCommit commit = snapshotPolicy.snapshot();
+        LOGGER.debug("Pinned commit {} for backup to {}", commit.getGeneration(), target);
+        try {
+            return new IndexBackup(directory, target).copy(commit);
+        } finally {
+            snapshotPolicy.release(commit);
+            if (writerOpen()) {
+                writer.deleteUnusedFiles();
+            }
+        }
+    }
+
+    /**
+     * Closes the writer. Closing commits all pending operations, hence waiting callers are released.
+     *
+     * @throws IOException if the writer can not be closed
+     */
+    private void closeWriter() throws IOException {
+        writer.close();
+        synchronized (commitLock) {
+            lastCommittedSequenceNumber = Long.MAX_VALUE;
+            lastCommitTime = System.currentTimeMillis();
+            commitLock.notifyAll();
+        }
+    }
+
+    /**
+     * Called by the commit scheduler. Checks the commit policy and commits an open writer if needed.
+     */
+    private void commitIfNeeded() {
+        IndexWriter currentWriter = writer;
+        if (currentWriter == null || !currentWriter.isOpen()) {
+            return;
+        }
+        try {
+            long completed = currentWriter.getMaxCompletedSequenceNumber();
+            long pending = currentWriter.hasUncommittedChanges() ? completed - getLastCommittedSequenceNumber() : 0;
+            long millisSinceLastCommit = System.currentTimeMillis() - lastCommitTime;
+
+            if (commitPolicy.needsCommit(millisSinceLastCommit, pending, currentWriter.ramBytesUsed())) {
+                commit(currentWriter, completed);
+            }
+        } catch (AlreadyClosedException e) {
+            LOGGER.debug("Writer was closed while checking the commit policy", e);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not commit the lucene index", e);
+        }
+    }
+
+    /**
+     * Stops the commit scheduler, if running.
+     */
+    private void stopCommitScheduler() {
+        if (commitScheduler != null) {
+            commitScheduler.shutdownNow();
+            commitScheduler = null;
+        }
+    }
+
+    /**
+     * Stops the commit scheduler and closes the writer (that commits pending operations) and the reader.
+     *
+     * @throws IOException if the writer or reader can not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        stopCommitScheduler();
+        if (writerOpen()) {
+            LOGGER.debug("Closing writer");
+            closeWriter();
+        }
+        if (readerOpen()) {
+            LOGGER.debug("Closing reader");
+            reader.close();
+        }
+    }
+
     /**
      * Closes the index writer if it is open.
      * Then opens the index reader.
@@ -98,10 +495,10 @@ public final class LuceneIndex {
      * @return an open lucene reader.
      * @throws IOException if the lucene reader can not be opened or created
      */
-    public IndexReader getOpenReader() throws IOException {
+    public synchronized IndexReader getOpenReader() throws IOException {
         if (writerOpen()) {
             LOGGER.debug("Closing writer");
-            writer.close();
+            closeWriter();
         }
         if (readerClosed()) {
             LOGGER.debug("Opening reader");
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Packs the attributes of a chunk into one binary value, see IndexingOptions#setPackedAttributes.
+ * <p>
+ * The value starts with a table of the attribute names, followed by the attributes that refer to
+ * their name by its index. Lists are a single attribute, hence their name is stored once.
+ * Numbers and lengths are variable length encoded.
+ * <pre>
+ * packed:    byte version, vint #names, names (vint length + utf-8), vint #attributes, attributes
+ * attribute: vint name index, value
+ * value:     byte tag, 'I' zigzag vint | 'L' zigzag vlong | 'F' float | 'D' double
+ *            | 'S' vint length + utf-8 | 'B' vint length + bytes | 'A' vint count + values
+ * </pre>
+ */
+public final class PackedAttributes {
+
+    private static final byte VERSION = 1;
+
+    private PackedAttributes() {
+        //Avoid instances
+    }
+
+    /**
+     * Packs the attributes. Attributes of a type that is not supported are ignored.
+     * Supported types are String, byte[], Integer, Long, Float, Double and collections or arrays of them.
+     *
+     * @param attributes the attributes
+     * @return the packed attributes
+     */
+    public static byte[] pack(Map<String, Object> attributes) {
+        Writer names = new Writer();
+        Writer values = new Writer();
+        Map<String, Integer> dictionary = new HashMap<>();
+        int count = 0;
+
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            if (!isSupported(attribute.getValue())) {
+                continue;
+            }
+            Integer index = dictionary.get(attribute.getKey());
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(attribute.getKey(), index);
+                names.writeBytes(attribute.getKey().getBytes(StandardCharsets.UTF_8));
+            }
+            values.writeVLong(index);
+            writeValue(values, attribute.getValue());
+            count++;
+        }
+
+        Writer packed = new Writer();
+        packed.write(VERSION);
+        packed.writeVLong(dictionary.size());
+        packed.append(names);
+        packed.writeVLong(count);
+        packed.append(values);
+        return packed.toByteArray();
+    }
+
+    /**
+     * Unpacks the attributes and passes them to the consumer. Lists are passed as list.
+     *
+     * @param packed    the packed attributes
+     * @param offset    the offset of the packed attributes
+     * @param length    the length of the packed attributes
+     * @param attribute the consumer of the attribute names and values
+     */
+    public static void unpack(byte[] packed, int offset, int length, BiConsumer<String, Object> attribute) {
+        ByteBuffer buffer = ByteBuffer.wrap(packed, offset, length);
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown version " + version + " of packed attributes");
+        }
+        String[] names = new String[(int) readVLong(buffer)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = new String(readBytes(buffer), StandardCharsets.UTF_8);
+        }
+        long count = readVLong(buffer);
+        for (long i = 0; i < count; i++) {
+            String name = names[(int) readVLong(buffer)];
+            attribute.accept(name, readValue(buffer));
+        }
+    }
+
+    private static boolean isSupported(Object value) {
+        return value instanceof String || value instanceof byte[] || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Double || value instanceof Collection || value instanceof Object[];
+    }
+
+    private static void writeValue(Writer out, Object value) {
+        if (value instanceof Integer) {
+            out.write('I');
+            out.writeVLong(zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write('L');
+            out.writeVLong(zigZag((Long) value));
+        } else if (value instanceof Float) {
+            out.write('F');
+            out.writeLong(Float.floatToIntBits((Float) value), Integer.BYTES);
+        } else if (value instanceof Double) {
+            out.write('D');
+            out.writeLong(Double.doubleToLongBits((Double) value), Long.BYTES);
+        } else if (value instanceof byte[]) {
+            out.write('B');
+            out.writeBytes((byte[]) value);
+        } else if (value instanceof Collection || value instanceof Object[]) {
+            Collection<?> elements = value instanceof Object[] ? Arrays.asList((Object[]) value) : (Collection<?>) value;
+            List<Object> supported = new ArrayList<>(elements.size());
+            elements.stream().filter(element -> isSupported(element) && !(element instanceof Collection)).forEach(supported::add);
+            out.write('A');
+            out.writeVLong(supported.size());
+            supported.forEach(element -> writeValue(out, element));
+        } else {
+            out.write('S');
+            out.writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Object readValue(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case 'I':
+                return (int) unZigZag(readVLong(in));
+            case 'L':
+                return unZigZag(readVLong(in));
+            case 'F':
+                return in.getFloat();
+            case 'D':
+                return in.getDouble();
+            case 'B':
+                return readBytes(in);
+            case 'S':
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case 'A':
+                int size = (int) readVLong(in);
+                List<Object> elements = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    elements.add(readValue(in));
+                }
+                return elements;
+            default:
+                throw new IllegalStateException("Unknown tag " + tag + " of packed attributes");
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[(int) readVLong(in)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Byte array output with variable length numbers
+     */
+    private static final class Writer extends ByteArrayOutputStream {
+
+        private Writer() {
+            super(64);
+        }
+
+        private void writeVLong(long value) {
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                write((int) ((remaining & 0x7F) | 0x80));
+                remaining >>>= 7;
+            }
+            write((int) remaining);
+        }
+
+        private void writeLong(long value, int bytes) {
+            for (int shift = (bytes - 1) * Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        private void append(Writer other) {
+            write(other.buf, 0, other.count);
+        }
+
+        private void writeBytes(byte[] bytes) {
+            writeVLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
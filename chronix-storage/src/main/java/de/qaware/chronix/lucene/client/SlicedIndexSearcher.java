@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Index searcher that searches slices of neighbouring segments concurrently.
+ * <p>
+ * A slice holds up to a max number of segments and documents. The slices keep the order of the segments,
+ * hence hits with the same score are merged in the order of their document ids, as without an executor.
+ */
+final class SlicedIndexSearcher extends IndexSearcher {
+
+    /**
+     * The slices are computed by the constructor of the index searcher, before the fields of this class are set
+     */
+    private static final ThreadLocal<int[]> SLICE_LIMITS = new ThreadLocal<>();
+
+    private SlicedIndexSearcher(IndexReader reader, ExecutorService executor) {
+        super(reader, executor);
+    }
+
+    /**
+     * Creates a searcher that searches the slices of the reader with the executor
+     *
+     * @param reader              the index reader
+     * @param executor            the executor, shared by the searchers
+     * @param maxDocsPerSlice     the max number of documents of a slice, a larger segment is a slice on its own
+     * @param maxSegmentsPerSlice the max number of segments of a slice
+     * @return the index searcher
+     */
+    static IndexSearcher create(IndexReader reader, ExecutorService executor, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+        SLICE_LIMITS.set(new int[]{maxDocsPerSlice, maxSegmentsPerSlice});
+        try {
+            return new SlicedIndexSearcher(reader, executor);
+        } finally {
+            SLICE_LIMITS.remove();
+        }
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        int[] limits = SLICE_LIMITS.get();
+        List<LeafSlice> slices = new ArrayList<>();
+        List<LeafReaderContext> slice = new ArrayList<>();
+        long docs = 0;
+        for (LeafReaderContext leaf : leaves) {
+            if (!slice.isEmpty() && (docs + leaf.reader().maxDoc() > limits[0] || slice.size() >= limits[1])) {
+                slices.add(new LeafSlice(slice.toArray(new LeafReaderContext[slice.size()])));
+                slice.clear();
+                docs = 0;
+            }
+            slice.add(leaf);
+            docs += leaf.reader().maxDoc();
+        }
+        if (!slice.isEmpty()) {
+            slices.add(new LeafSlice(slice.toArray(new LeafReaderContext[slice.size()])));
+        }
+        return slices.toArray(new LeafSlice[slices.size()]);
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.qaware.chronix.Schema;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene70.Lucene70Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FilterCodecReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lucene index with a hot and a cold tier.
+ * <p>
+ * New chunks are added to the hot tier, e.g. an index in a {@link org.apache.lucene.store.RAMDirectory}
+ * or a {@link org.apache.lucene.store.MMapDirectory} that preloads its files. Chunks whose end is older than a cutoff
+ * are migrated into the cold tier, an index on disk whose stored fields are written with best compression.
+ * Queries are routed to the tiers that can contain chunks within the time range of the query.
+ * <p>
+ * The tiers are read with near real time readers of their writers. Hence the tiers should only be
+ * written through this class or the writers of their indexes, not read with {@link LuceneIndex#getSearcher()}.
+ * Chunks with an end older than the last cutoff should not be added to the hot tier while a migration runs.
+ */
+public final class TieredLuceneIndex implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TieredLuceneIndex.class);
+
+    /**
+     * The commit user data of both tiers with the cutoff of the last migration
+     */
+    public static final String MIGRATED_UNTIL = "chronix.tier.migratedUntil";
+
+    private final LuceneIndex hot;
+    private final LuceneIndex cold;
+
+    private DirectoryReader hotReader;
+    private DirectoryReader coldReader;
+
+    private ScheduledExecutorService migrationScheduler;
+
+    /**
+     * Constructs a tiered index. Sets the codec of the cold tier to best compression.
+     *
+     * @param hot  the index of the recent chunks
+     * @param cold the index of the migrated chunks
+     */
+    public TieredLuceneIndex(LuceneIndex hot, LuceneIndex cold) {
+        this.hot = hot;
+        this.cold = cold.setCodec(new Lucene70Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION));
+    }
+
+    /**
+     * @return the index of the recent chunks, new chunks are added to this index
+     */
+    public LuceneIndex getHot() {
+        return hot;
+    }
+
+    /**
+     * @return the index of the migrated chunks
+     */
+    public LuceneIndex getCold() {
+        return cold;
+    }
+
+    /**
+     * Opens a reader across the tiers that can contain chunks within the time range of the query.
+     * A tier is skipped, if the start and end of its chunks are out of the range (see {@link ChronixQueries#timeRange(Query)}).
+     * The caller has to close the reader, this releases the readers of the tiers.
+     *
+     * @param query the user query
+     * @return a reader on the tiers that have to be searched, may be without any tier
+     * @throws IOException if the tiers can not be read
+     */
+    public synchronized IndexReader openReader(Query query) throws IOException {
+        refresh();
+        long[] range = ChronixQueries.timeRange(query);
+        List<IndexReader> tiers = new ArrayList<>(2);
+        if (overlaps(hotReader, range)) {
+            tiers.add(hotReader);
+        }
+        if (overlaps(coldReader, range)) {
+            tiers.add(coldReader);
+        }
+        LOGGER.debug("Searching {} of 2 tiers for range {} - {}", tiers.size(), range[0], range[1]);
+        //Does not close the tier readers, but holds a reference until it is closed
+        return new MultiReader(tiers.toArray(new IndexReader[tiers.size()]), false);
+    }
+
+    /**
+     * Migrates the chunks whose end is older than the cutoff from the hot into the cold tier.
+     * The chunks are copied into the cold tier (and compressed) and committed together with the cutoff.
+     * Afterwards they are deleted from the hot tier, which is committed with the same cutoff.
+     * If the migration is interrupted between the two commits, the next migration deletes the already copied chunks
+     * from the hot tier first. Chunks added to the hot tier in the meantime are kept and migrated as usual.
+     * Hence a chunk is never lost and not copied twice.
+     *
+     * @param cutoff the cutoff in the time unit of the chunks, e.g. milliseconds since epoch
+     * @return the number of migrated chunks
+     * @throws IOException if the chunks can not be copied or deleted
+     */
+    public synchronized long migrate(long cutoff) throws IOException {
+        IndexWriter hotWriter = hot.getOpenWriter();
+        IndexWriter coldWriter = cold.getOpenWriter();
+
+        long coldUntil = migratedUntil(cold);
+        if (coldUntil > migratedUntil(hot)) {
+            long deleted = finishMigration(hotWriter, coldWriter, coldUntil);
+            LOGGER.info("Finished the migration until {}, deleted {} copied chunks from the hot tier", coldUntil, deleted);
+            hot.commit(Collections.singletonMap(MIGRATED_UNTIL, Long.toString(coldUntil)));
+        }
+
+        Query migrated = olderThan(cutoff);
+        long migratedChunks = 0;
+        try (DirectoryReader reader = DirectoryReader.open(hotWriter)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            Weight weight = searcher.createNormalizedWeight(migrated, false);
+            List<MigratedChunks> chunks = new ArrayList<>();
+            for (LeafReaderContext leaf : reader.leaves()) {
+                MigratedChunks leafChunks = MigratedChunks.of(leaf, weight);
+                if (leafChunks != null) {
+                    chunks.add(leafChunks);
+                    migratedChunks += leafChunks.numDocs();
+                }
+            }
+            if (chunks.isEmpty()) {
+                LOGGER.debug("No chunks older than {} to migrate", cutoff);
+                return 0;
+            }
+
+            coldWriter.addIndexes(chunks.toArray(new CodecReader[chunks.size()]));
+            cold.commit(Collections.singletonMap(MIGRATED_UNTIL, Long.toString(cutoff)));
+
+            delete(hotWriter, coldWriter, reader, chunks, cutoff);
+            hot.commit(Collections.singletonMap(MIGRATED_UNTIL, Long.toString(cutoff)));
+            //reclaims the memory of the hot tier and narrows the point ranges used to skip the tier
+            hotWriter.forceMergeDeletes();
+        }
+        LOGGER.info("Migrated {} chunks older than {} into the cold tier", migratedChunks, cutoff);
+        return migratedChunks;
+    }
+
+    /**
+     * Starts a background migration of the chunks that are older than the retention of the hot tier.
+     * The cutoff of each migration is the current time minus the retention in milliseconds.
+     *
+     * @param hotRetention the time chunks stay in the hot tier
+     * @param interval     the interval between two migrations
+     * @param unit         the time unit of the retention and the interval
+     * @return this tiered index
+     */
+    public synchronized TieredLuceneIndex scheduleMigration(long hotRetention, long interval, TimeUnit unit) {
+        stopMigrationScheduler();
+        long retentionMs = unit.toMillis(hotRetention);
+        migrationScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("chronix-lucene-migration-%d").build());
+        migrationScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                migrate(System.currentTimeMillis() - retentionMs);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Could not migrate chunks into the cold tier", e);
+            }
+        }, interval, interval, unit);
+        return this;
+    }
+
+    /**
+     * Stops the migration scheduler and closes the readers and both tiers.
+     *
+     * @throws IOException if a tier can not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        stopMigrationScheduler();
+        if (hotReader != null) {
+            hotReader.decRef();
+            hotReader = null;
+        }
+        if (coldReader != null) {
+            coldReader.decRef();
+            coldReader = null;
+        }
+        hot.close();
+        cold.close();
+    }
+
+    @Override
+    public String toString() {
+        return "TieredLuceneIndex{" +
+                "hot=" + hot +
+                ", cold=" + cold +
+                '}';
+    }
+
+    /**
+     * Opens or reopens the near real time readers of the tiers
+     */
+    private void refresh() throws IOException {
+        hotReader = refresh(hotReader, hot);
+        coldReader = refresh(coldReader, cold);
+    }
+
+    private static DirectoryReader refresh(DirectoryReader reader, LuceneIndex tier) throws IOException {
+        if (reader == null) {
+            return DirectoryReader.open(tier.getOpenWriter());
+        }
+        DirectoryReader changed = DirectoryReader.openIfChanged(reader, tier.getOpenWriter());
+        if (changed == null) {
+            return reader;
+        }
+        reader.decRef();
+        return changed;
+    }
+
+    /**
+     * @return true if the tier can contain chunks within the range. Chunks without start and end are always in range.
+     * The point ranges include deleted chunks until their segments are merged.
+     */
+    private static boolean overlaps(IndexReader reader, long[] range) throws IOException {
+        if (reader.numDocs() == 0) {
+            return false;
+        }
+        if (PointValues.getDocCount(reader, Schema.START) < reader.maxDoc() || PointValues.getDocCount(reader, Schema.END) < reader.maxDoc()) {
+            return true;
+        }
+        long minStart = LongPoint.decodeDimension(PointValues.getMinPackedValue(reader, Schema.START), 0);
+        long maxEnd = LongPoint.decodeDimension(PointValues.getMaxPackedValue(reader, Schema.END), 0);
+        return maxEnd >= range[0] && minStart <= range[1];
+    }
+
+    private static Query olderThan(long cutoff) {
+        return LongPoint.newRangeQuery(Schema.END, Long.MIN_VALUE, cutoff - 1);
+    }
+
+    private static long migratedUntil(LuceneIndex tier) throws IOException {
+        String migratedUntil = tier.getCommitData().get(MIGRATED_UNTIL);
+        return migratedUntil == null ? Long.MIN_VALUE : Long.parseLong(migratedUntil);
+    }
+
+    /**
+     * Deletes the chunks of an interrupted migration from the hot tier. Only the chunks that are found in the cold tier
+     * are deleted, identified by the fingerprint of their stored fields, as the copies keep the stored fields unchanged.
+     * Chunks older than the cutoff that were added after the interruption are not in the cold tier and are kept.
+     *
+     * @return the number of deleted chunks
+     * @throws IOException if the tiers can not be read, or a segment of the hot tier was merged in the meantime
+     */
+    private static long finishMigration(IndexWriter hotWriter, IndexWriter coldWriter, long coldUntil) throws IOException {
+        try (DirectoryReader hotReader = DirectoryReader.open(hotWriter);
+             DirectoryReader coldReader = DirectoryReader.open(coldWriter)) {
+            byte[] minEnd = PointValues.getMinPackedValue(hotReader, Schema.END);
+            if (minEnd == null) {
+                return 0;
+            }
+            //the copies have an end within the range of the hot tier
+            Query copies = LongPoint.newRangeQuery(Schema.END, LongPoint.decodeDimension(minEnd, 0), coldUntil - 1);
+            Map<HashCode, Integer> copied = new HashMap<>();
+            for (int doc : chunks(coldReader, copies)) {
+                copied.merge(fingerprint(coldReader.document(doc)), 1, Integer::sum);
+            }
+
+            long deleted = 0;
+            for (int doc : chunks(hotReader, olderThan(coldUntil))) {
+                HashCode fingerprint = fingerprint(hotReader.document(doc));
+                Integer count = copied.get(fingerprint);
+                if (count == null) {
+                    LOGGER.debug("Keeping chunk {} of the hot tier that is not in the cold tier", doc);
+                    continue;
+                }
+                if (count == 1) {
+                    copied.remove(fingerprint);
+                } else {
+                    copied.put(fingerprint, count - 1);
+                }
+                if (hotWriter.tryDeleteDocument(hotReader, doc) == -1) {
+                    throw new IOException("Segment of the hot tier was merged while finishing the migration until " + coldUntil
+                            + ", the next migration finishes it");
+                }
+                deleted++;
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * @return the ids of the live documents matching the query
+     */
+    private static List<Integer> chunks(DirectoryReader reader, Query query) throws IOException {
+        Weight weight = new IndexSearcher(reader).createNormalizedWeight(query, false);
+        List<Integer> docs = new ArrayList<>();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            Scorer scorer = weight.scorer(leaf);
+            if (scorer == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            DocIdSetIterator iterator = scorer.iterator();
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    docs.add(leaf.docBase + doc);
+                }
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * @return the hash of the names and values of the stored fields in their stored order
+     */
+    private static HashCode fingerprint(Document document) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (IndexableField field : document) {
+            hasher.putString(field.name(), StandardCharsets.UTF_8);
+            if (field.numericValue() != null) {
+                hasher.putString(field.numericValue().getClass().getSimpleName(), StandardCharsets.UTF_8)
+                        .putString(field.numericValue().toString(), StandardCharsets.UTF_8);
+            } else if (field.binaryValue() != null) {
+                BytesRef bytes = field.binaryValue();
+                hasher.putBytes(bytes.bytes, bytes.offset, bytes.length);
+            } else if (field.stringValue() != null) {
+                hasher.putString(field.stringValue(), StandardCharsets.UTF_8);
+            }
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Deletes the copied chunks from the hot tier by their document ids. If a segment was merged in the meantime,
+     * the remaining copied chunks are found by their fingerprint in the cold tier, like an interrupted migration.
+     * Hence chunks that were added to the hot tier during the migration are kept.
+     */
+    private static void delete(IndexWriter hotWriter, IndexWriter coldWriter, DirectoryReader reader, List<MigratedChunks> chunks,
+                               long cutoff) throws IOException {
+        for (MigratedChunks leafChunks : chunks) {
+            DocIdSetIterator docs = leafChunks.iterator();
+            for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+                if (hotWriter.tryDeleteDocument(reader, leafChunks.docBase + doc) == -1) {
+                    LOGGER.warn("Segment of migrated chunks was merged during the migration, deleting the copied chunks by their fingerprint");
+                    finishMigration(hotWriter, coldWriter, cutoff);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void stopMigrationScheduler() {
+        if (migrationScheduler != null) {
+            migrationScheduler.shutdownNow();
+            migrationScheduler = null;
+        }
+    }
+
+    /**
+     * A segment of the hot tier reduced to the chunks that are migrated
+     */
+    private static final class MigratedChunks extends FilterCodecReader {
+
+        private final FixedBitSet migrated;
+        private final int numDocs;
+        private final int docBase;
+
+        private MigratedChunks(CodecReader in, FixedBitSet migrated, int docBase) {
+            super(in);
+            this.migrated = migrated;
+            this.numDocs = migrated.cardinality();
+            this.docBase = docBase;
+        }
+
+        /**
+         * @return the migrated chunks of the segment, or null if no chunk of the segment is migrated
+         */
+        private static MigratedChunks of(LeafReaderContext leaf, Weight weight) throws IOException {
+            Scorer scorer = weight.scorer(leaf);
+            if (scorer == null) {
+                return null;
+            }
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            FixedBitSet migrated = new FixedBitSet(leaf.reader().maxDoc());
+            DocIdSetIterator docs = scorer.iterator();
+            for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    migrated.set(doc);
+                }
+            }
+            if (migrated.cardinality() == 0) {
+                return null;
+            }
+            CodecReader reader = leaf.reader() instanceof CodecReader ? (CodecReader) leaf.reader() : SlowCodecReaderWrapper.wrap(leaf.reader());
+            return new MigratedChunks(reader, migrated, leaf.docBase);
+        }
+
+        private DocIdSetIterator iterator() {
+            return new BitSetIterator(migrated, numDocs);
+        }
+
+        @Override
+        public Bits getLiveDocs() {
+            return migrated;
+        }
+
+        @Override
+        public int numDocs() {
+            return numDocs;
+        }
+
+        @Override
+        public CacheHelper getCoreCacheHelper() {
+            return null;
+        }
+
+        @Override
+        public CacheHelper getReaderCacheHelper() {
+            return null;
+        }
+    }
+}
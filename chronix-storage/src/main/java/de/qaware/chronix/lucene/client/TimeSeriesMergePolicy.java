@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeTrigger;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A merge policy for append-mostly time series.
+ * <p>
+ * The segments of an index are ordered by the time they are flushed, and a merged segment takes the place
+ * of the segments it replaces. For time series that are appended in time order, neighbouring segments
+ * therefore cover adjacent time ranges. This policy only merges neighbouring segments of a similar size
+ * (same level, like the log merge policies), so the time ranges of the segments do not get mixed.
+ * <p>
+ * Segments older than the seal age are never merged again, hence historical data is not rewritten over and over.
+ * The age of a segment is the time its oldest data was flushed. It is kept as a segment attribute through merges.
+ * <p>
+ * The policy counts the flushed and the merged bytes to report the write amplification.
+ */
+public final class TimeSeriesMergePolicy extends MergePolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeSeriesMergePolicy.class);
+
+    /**
+     * Segment attribute holding the flush time (epoch millis) of the oldest data of a merged segment
+     */
+    static final String CREATED_ATTRIBUTE = "chronix.created";
+
+    private static final String TIMESTAMP_DIAGNOSTIC = "timestamp";
+    private static final String SOURCE_DIAGNOSTIC = "source";
+    private static final String SOURCE_FLUSH = "flush";
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private int mergeFactor = 10;
+    private long maxMergedSegmentBytes = (long) (5 * 1024 * BYTES_PER_MB);
+    private long floorSegmentBytes = (long) (2 * BYTES_PER_MB);
+    private long sealAgeMs = TimeUnit.DAYS.toMillis(1);
+    private double forceMergeDeletesPctAllowed = 10.0;
+
+    /**
+     * Write amplification metrics
+     */
+    private final AtomicLong flushedBytes = new AtomicLong();
+    private final AtomicLong mergedBytes = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private final Set<String> seenSegments = new HashSet<>();
+
+    /**
+     * Sets the number of neighbouring segments of the same level that are merged at once. Default is 10.
+     *
+     * @param mergeFactor the number of segments merged at once
+     * @return this policy
+     */
+    public TimeSeriesMergePolicy setMergeFactor(int mergeFactor) {
+        if (mergeFactor < 2) {
+            throw new IllegalArgumentException("mergeFactor must be at least 2, got " + mergeFactor);
+        }
+        this.mergeFactor = mergeFactor;
+        return this;
+    }
+
+    /**
+     * Sets the max size of a merged segment. Default is 5 GB.
+     *
+     * @param maxMergedSegmentMB the max size in mega bytes
+     * @return this policy
+     */
+    public TimeSeriesMergePolicy setMaxMergedSegmentMB(double maxMergedSegmentMB) {
+        this.maxMergedSegmentBytes = (long) (maxMergedSegmentMB * BYTES_PER_MB);
+        return this;
+    }
+
+    /**
+     * Sets the size below which all segments are treated as equal. Default is 2 MB.
+     *
+     * @param floorSegmentMB the floor size in mega bytes
+     * @return this policy
+     */
+    public TimeSeriesMergePolicy setFloorSegmentMB(double floorSegmentMB) {
+        this.floorSegmentBytes = (long) (floorSegmentMB * BYTES_PER_MB);
+        return this;
+    }
+
+    /**
+     * Sets the age after which a segment is sealed and not merged anymore. Default is one day.
+     *
+     * @param sealAge the seal age
+     * @param unit    the time unit of the seal age
+     * @return this policy
+     */
+    public TimeSeriesMergePolicy setSealAge(long sealAge, TimeUnit unit) {
+        this.sealAgeMs = unit.toMillis(sealAge);
+        return this;
+    }
+
+    /**
+     * Sets the percentage of deleted documents a segment may have before forceMergeDeletes rewrites it. Default is 10.
+     *
+     * @param pct the allowed percentage of deleted documents
+     * @return this policy
+     */
+    public TimeSeriesMergePolicy setForceMergeDeletesPctAllowed(double pct) {
+        this.forceMergeDeletesPctAllowed = pct;
+        return this;
+    }
+
+    /**
+     * @return the bytes of the segments written by flushes (seen by this policy)
+     */
+    public long getFlushedBytes() {
+        return flushedBytes.get();
+    }
+
+    /**
+     * @return the bytes rewritten by the merges of this policy
+     */
+    public long getMergedBytes() {
+        return mergedBytes.get();
+    }
+
+    /**
+     * @return the number of finished merges of this policy
+     */
+    public long getMerges() {
+        return merges.get();
+    }
+
+    /**
+     * @return the write amplification, i.e. (flushed + merged bytes) / flushed bytes, or 1 if nothing is flushed
+     */
+    public double getWriteAmplification() {
+        long flushed = flushedBytes.get();
+        if (flushed == 0) {
+            return 1;
+        }
+        return (double) (flushed + mergedBytes.get()) / flushed;
+    }
+
+    @Override
+    public MergeSpecification findMerges(MergeTrigger mergeTrigger, SegmentInfos infos, IndexWriter writer) throws IOException {
+        trackFlushedSegments(infos, writer);
+
+        Collection<SegmentCommitInfo> merging = writer.getMergingSegments();
+        long now = System.currentTimeMillis();
+
+        MergeSpecification spec = null;
+        List<SegmentCommitInfo> run = new ArrayList<>();
+        for (SegmentCommitInfo info : infos) {
+            if (merging.contains(info) || isSealed(info, now) || size(info, writer) >= maxMergedSegmentBytes) {
+                //a segment that can not be merged separates the neighbours
+                spec = addRunMerges(run, spec, writer);
+                run = new ArrayList<>();
+            } else {
+                run.add(info);
+            }
+        }
+        return addRunMerges(run, spec, writer);
+    }
+
+    @Override
+    public MergeSpecification findForcedMerges(SegmentInfos infos, int maxSegmentCount, Map<SegmentCommitInfo, Boolean> segmentsToMerge,
+                                               IndexWriter writer) throws IOException {
+        Collection<SegmentCommitInfo> merging = writer.getMergingSegments();
+        List<SegmentCommitInfo> candidates = new ArrayList<>();
+        for (SegmentCommitInfo info : infos) {
+            if (segmentsToMerge.containsKey(info) && !merging.contains(info)) {
+                candidates.add(info);
+            }
+        }
+        if (candidates.size() <= maxSegmentCount
+                && (candidates.size() != 1 || !candidates.get(0).hasDeletions())) {
+            return null;
+        }
+
+        //split the neighbouring segments into at most maxSegmentCount groups
+        MergeSpecification spec = new MergeSpecification();
+        int groups = Math.max(1, Math.min(maxSegmentCount, candidates.size()));
+        int from = 0;
+        for (int group = 0; group < groups; group++) {
+            int to = from + (candidates.size() - from) / (groups - group);
+            List<SegmentCommitInfo> segments = candidates.subList(from, to);
+            if (segments.size() > 1 || (segments.size() == 1 && segments.get(0).hasDeletions())) {
+                spec.add(new TimeSeriesMerge(segments));
+            }
+            from = to;
+        }
+        return spec.merges.isEmpty() ? null : spec;
+    }
+
+    @Override
+    public MergeSpecification findForcedDeletesMerges(SegmentInfos infos, IndexWriter writer) throws IOException {
+        Collection<SegmentCommitInfo> merging = writer.getMergingSegments();
+        MergeSpecification spec = null;
+        for (SegmentCommitInfo info : infos) {
+            double pctDeletes = 100.0 * writer.numDeletedDocs(info) / info.info.maxDoc();
+            if (!merging.contains(info) && pctDeletes > forceMergeDeletesPctAllowed) {
+                //rewrite each segment on its own, so time ranges are not mixed
+                if (spec == null) {
+                    spec = new MergeSpecification();
+                }
+                List<SegmentCommitInfo> segment = new ArrayList<>();
+                segment.add(info);
+                spec.add(new TimeSeriesMerge(segment));
+            }
+        }
+        return spec;
+    }
+
+    /**
+     * Adds merges of neighbouring segments on the same level within a run of mergeable segments.
+     *
+     * @param run  neighbouring segments that can be merged
+     * @param spec the merge specification so far, may be null
+     * @return the merge specification, may be null
+     * @throws IOException if the size of a segment can not be read
+     */
+    private MergeSpecification addRunMerges(List<SegmentCommitInfo> run, MergeSpecification spec, IndexWriter writer) throws IOException {
+        MergeSpecification result = spec;
+        int start = 0;
+        while (start + mergeFactor <= run.size()) {
+            List<SegmentCommitInfo> window = run.subList(start, start + mergeFactor);
+            if (isMergeable(window, writer)) {
+                if (result == null) {
+                    result = new MergeSpecification();
+                }
+                result.add(new TimeSeriesMerge(new ArrayList<>(window)));
+                start += mergeFactor;
+            } else {
+                start++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param window neighbouring segments
+     * @return true if all segments are on the same level and the merged segment is not too large
+     * @throws IOException if the size of a segment can not be read
+     */
+    private boolean isMergeable(List<SegmentCommitInfo> window, IndexWriter writer) throws IOException {
+        long total = 0;
+        int level = -1;
+        for (SegmentCommitInfo info : window) {
+            long size = size(info, writer);
+            total += size;
+            int segmentLevel = level(size);
+            if (level != -1 && segmentLevel != level) {
+                return false;
+            }
+            level = segmentLevel;
+        }
+        return total <= maxMergedSegmentBytes;
+    }
+
+    /**
+     * @param size the size of a segment
+     * @return the level (log to the base of the merge factor) of the segment size
+     */
+    private int level(long size) {
+        double floored = Math.max(size, floorSegmentBytes) / (double) floorSegmentBytes;
+        return (int) (Math.log(floored) / Math.log(mergeFactor));
+    }
+
+    /**
+     * @param info the segment
+     * @param now  the current time
+     * @return true if the oldest data of the segment is older than the seal age
+     */
+    private boolean isSealed(SegmentCommitInfo info, long now) {
+        long created = created(info);
+        return created > 0 && now - created > sealAgeMs;
+    }
+
+    /**
+     * @param info the segment
+     * @return the flush time of the oldest data of the segment, or -1 if unknown
+     */
+    static long created(SegmentCommitInfo info) {
+        String created = info.info.getAttribute(CREATED_ATTRIBUTE);
+        if (created == null) {
+            created = info.info.getDiagnostics().get(TIMESTAMP_DIAGNOSTIC);
+        }
+        try {
+            return created == null ? -1 : Long.parseLong(created);
+        } catch (NumberFormatException e) {
+            LOGGER.debug("Could not parse creation time {} of segment {}", created, info.info.name, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Adds the sizes of the flushed segments that are seen the first time.
+     */
+    private synchronized void trackFlushedSegments(SegmentInfos infos, IndexWriter writer) throws IOException {
+        Set<String> current = new HashSet<>();
+        for (SegmentCommitInfo info : infos) {
+            current.add(info.info.name);
+            if (!seenSegments.contains(info.info.name) && SOURCE_FLUSH.equals(info.info.getDiagnostics().get(SOURCE_DIAGNOSTIC))) {
+                flushedBytes.addAndGet(size(info, writer));
+            }
+        }
+        seenSegments.clear();
+        seenSegments.addAll(current);
+    }
+
+    /**
+     * A merge that keeps the creation time of its oldest segment and counts the merged bytes.
+     */
+    private final class TimeSeriesMerge extends OneMerge {
+
+        private final long created;
+
+        TimeSeriesMerge(List<SegmentCommitInfo> segments) {
+            super(segments);
+            long oldest = Long.MAX_VALUE;
+            for (SegmentCommitInfo info : segments) {
+                long segmentCreated = created(info);
+                if (segmentCreated > 0) {
+                    oldest = Math.min(oldest, segmentCreated);
+                }
+            }
+            this.created = oldest == Long.MAX_VALUE ? -1 : oldest;
+        }
+
+        @Override
+        public void setMergeInfo(SegmentCommitInfo info) {
+            super.setMergeInfo(info);
+            if (created > 0) {
+                //written with the segment info of the merged segment
+                info.info.putAttribute(CREATED_ATTRIBUTE, Long.toString(created));
+            }
+        }
+
+        @Override
+        public void mergeFinished() throws IOException {
+            super.mergeFinished();
+            if (!isAborted()) {
+                long bytes = totalBytesSize();
+                mergedBytes.addAndGet(bytes);
+                merges.incrementAndGet();
+                LOGGER.debug("Merged {} segments ({} bytes). Write amplification is {}", segments.size(), bytes, getWriteAmplification());
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.add;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Options that define how time series are converted into lucene documents.
+ * The options should be configured once before they are used for adding time series.
+ */
+public final class IndexingOptions {
+
+    private boolean upsert;
+    private Set<String> identityAttributes = Collections.emptySet();
+    private Set<String> analyzedAttributes;
+    private Set<String> numericAttributes = Collections.emptySet();
+    private Set<String> floatingPointAttributes = Collections.emptySet();
+    private boolean packedAttributes;
+
+    /**
+     * Enables the upsert mode.
+     * In upsert mode a chunk replaces an already indexed chunk with the same chunk id,
+     * i.e. the same series key and the same start.
+     * The chunk id is only indexed in upsert mode, hence chunks that are appended are not replaced later on.
+     *
+     * @param upsert true to replace chunks with the same chunk id, false to append them
+     * @return this options
+     */
+    public IndexingOptions setUpsert(boolean upsert) {
+        this.upsert = upsert;
+        return this;
+    }
+
+    /**
+     * @return true if chunks with the same chunk id are replaced
+     */
+    public boolean isUpsert() {
+        return upsert;
+    }
+
+    /**
+     * Sets the attributes that identify a series, e.g. host, metric or group.
+     * Identity attributes are not analyzed. They are indexed as single term (StringField)
+     * and as sorted doc values. Hence an exact lookup is a single term query.
+     *
+     * @param attributes the names of the identity attributes
+     * @return this options
+     */
+    public IndexingOptions setIdentityAttributes(String... attributes) {
+        this.identityAttributes = new HashSet<>(Arrays.asList(attributes));
+        return this;
+    }
+
+    /**
+     * Sets the string attributes that are analyzed for full text search (TextField).
+     * If not set, every string attribute that is not an identity attribute is analyzed.
+     * If set, only the given attributes are analyzed and all other string attributes
+     * are indexed as single term (StringField).
+     *
+     * @param attributes the names of the analyzed attributes
+     * @return this options
+     */
+    public IndexingOptions setAnalyzedAttributes(String... attributes) {
+        this.analyzedAttributes = new HashSet<>(Arrays.asList(attributes));
+        return this;
+    }
+
+    /**
+     * Sets the integral numeric attributes that are indexed for range queries, e.g. cpuCount.
+     * The values are indexed as long point and numeric doc values, whatever their type is in a chunk.
+     * Hence an attribute that is an integer in one chunk and a long in another is still found by one range query.
+     * A floating point value with a fraction is rejected. The values are still stored.
+     * Elements of numeric lists are indexed as points (multi valued), but not as doc values.
+     *
+     * @param attributes the names of the integral attributes
+     * @return this options
+     * @see de.qaware.chronix.lucene.client.ChronixQueries#numericRange(String, long, long)
+     */
+    public IndexingOptions setNumericAttributes(String... attributes) {
+        this.numericAttributes = new HashSet<>(Arrays.asList(attributes));
+        return this;
+    }
+
+    /**
+     * Sets the floating point numeric attributes that are indexed for range queries, e.g. load.
+     * The values are indexed as double point and double doc values, whatever their type is in a chunk.
+     * The values are still stored. Elements of numeric lists are indexed as points (multi valued), but not as doc values.
+     *
+     * @param attributes the names of the floating point attributes
+     * @return this options
+     * @see de.qaware.chronix.lucene.client.ChronixQueries#numericRange(String, double, double)
+     */
+    public IndexingOptions setFloatingPointAttributes(String... attributes) {
+        this.floatingPointAttributes = new HashSet<>(Arrays.asList(attributes));
+        return this;
+    }
+
+    /**
+     * Enables the packed storage of the attributes. All attributes except the start, the end and the data
+     * of a chunk are stored in one binary field instead of a stored field per attribute and list element.
+     * The attributes are still indexed as configured, e.g. as identity attributes.
+     * Chunks with and without packed attributes can be mixed within an index.
+     *
+     * @param packedAttributes true to store the attributes packed into one field
+     * @return this options
+     */
+    public IndexingOptions setPackedAttributes(boolean packedAttributes) {
+        this.packedAttributes = packedAttributes;
+        return this;
+    }
+
+    /**
+     * @return true if the attributes are stored packed into one field
+     */
+    public boolean isPackedAttributes() {
+        return packedAttributes;
+    }
+
+    /**
+     * @param attribute the attribute name
+     * @return true if the attribute is indexed for range queries
+     */
+    public boolean isNumeric(String attribute) {
+        return numericAttributes.contains(attribute) || isFloatingPoint(attribute);
+    }
+
+    /**
+     * @param attribute the attribute name
+     * @return true if the attribute is indexed as floating point number for range queries
+     */
+    public boolean isFloatingPoint(String attribute) {
+        return floatingPointAttributes.contains(attribute);
+    }
+
+    /**
+     * @param attribute the attribute name
+     * @return true if the attribute is an identity attribute
+     */
+    public boolean isIdentity(String attribute) {
+        return identityAttributes.contains(attribute);
+    }
+
+    /**
+     * @param attribute the attribute name
+     * @return true if the attribute is analyzed
+     */
+    public boolean isAnalyzed(String attribute) {
+        if (isIdentity(attribute)) {
+            return false;
+        }
+        return analyzedAttributes == null || analyzedAttributes.contains(attribute);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexingOptions{" +
+                "upsert=" + upsert +
+                ", identityAttributes=" + identityAttributes +
+                ", analyzedAttributes=" + analyzedAttributes +
+                ", numericAttributes=" + numericAttributes +
+                ", floatingPointAttributes=" + floatingPointAttributes +
+                ", packedAttributes=" + packedAttributes +
+                '}';
+    }
+}
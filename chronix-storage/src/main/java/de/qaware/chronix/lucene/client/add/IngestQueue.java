@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.add;
+
+import de.qaware.chronix.converter.TimeSeriesConverter;
+import de.qaware.chronix.lucene.client.LuceneIndex;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * A bounded queue that feeds time series from many producers into the index writer of a lucene index.
+ * <p>
+ * Producers hand the time series to a lock-free ring buffer and return immediately.
+ * A fixed set of indexing threads drains the buffer in batches, converts the time series and adds them to the writer.
+ * Hence the writer is always fed by the same few threads and keeps a bounded number of in-memory segments,
+ * instead of one per producer thread.
+ * <p>
+ * The queue does not block producers. If it is full, {@link #offer(Object)} returns false and the producer
+ * decides whether to retry, to wait ({@link #offer(Object, long, TimeUnit)}) or to drop the time series.
+ * Note: The queue does not commit the added time series.
+ *
+ * @param <T> the type of the time series
+ */
+public final class IngestQueue<T> implements Closeable {
+
+    /**
+     * The default number of time series an indexing thread takes at once
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestQueue.class);
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TimeSeriesConverter<T> converter;
+    private final LuceneIndex index;
+    private final IndexingOptions options;
+    private final Function<T, String> seriesKey;
+    private final MpmcRingBuffer<T> queue;
+    private final int batchSize;
+    private final Thread[] threads;
+
+    private final AtomicInteger producers = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates the queue and starts its indexing threads.
+     *
+     * @param converter the converter to convert the time series into a lucene document
+     * @param index     the lucene index
+     * @param options   the indexing options
+     * @param seriesKey the function that returns the key of the series a chunk belongs to, may be null
+     * @param capacity  the max number of queued time series
+     * @param threads   the number of indexing threads
+     */
+    public IngestQueue(TimeSeriesConverter<T> converter, LuceneIndex index, IndexingOptions options, Function<T, String> seriesKey,
+                       int capacity, int threads) {
+        this(converter, index, options, seriesKey, capacity, threads, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates the queue and starts its indexing threads.
+     *
+     * @param converter the converter to convert the time series into a lucene document
+     * @param index     the lucene index
+     * @param options   the indexing options
+     * @param seriesKey the function that returns the key of the series a chunk belongs to, may be null
+     * @param capacity  the max number of queued time series
+     * @param threads   the number of indexing threads
+     * @param batchSize the max number of time series an indexing thread takes at once
+     */
+    public IngestQueue(TimeSeriesConverter<T> converter, LuceneIndex index, IndexingOptions options, Function<T, String> seriesKey,
+                       int capacity, int threads, int batchSize) {
+        if (capacity < 1 || threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Capacity, threads and batch size must be positive");
+        }
+        this.converter = converter;
+        this.index = index;
+        this.options = options;
+        this.seriesKey = seriesKey;
+        this.queue = new MpmcRingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.threads = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::run, "chronix-lucene-ingest-" + i);
+            thread.setDaemon(true);
+            this.threads[i] = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues the time series if the queue is not full. Never blocks.
+     *
+     * @param timeSeries the time series
+     * @return true if the time series is queued, false if the queue is full or closed
+     */
+    public boolean offer(T timeSeries) {
+        if (enqueue(timeSeries)) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Queues the time series and waits until there is space in the queue.
+     *
+     * @param timeSeries the time series
+     * @param timeout    the max time to wait
+     * @param unit       the unit of the timeout
+     * @return true if the time series is queued, false if the timeout elapsed or the queue is closed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean offer(T timeSeries, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!enqueue(timeSeries)) {
+            if (closed || System.nanoTime() - deadline >= 0) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            pause();
+        }
+        return true;
+    }
+
+    /**
+     * Waits until all queued time series are added to the index writer.
+     *
+     * @param timeout the max time to wait
+     * @param unit    the unit of the timeout
+     * @return true if all queued time series are added, false if the timeout elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (indexed.get() + failed.get() < accepted.get()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            pause();
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting time series and waits until the queued time series are added.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                LOGGER.info("Interrupted while waiting for the indexing threads.", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the approximate number of queued time series
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of time series added to the index writer
+     */
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    /**
+     * @return the number of time series that could not be added
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of offers rejected because the queue was full or closed
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private boolean enqueue(T timeSeries) {
+        if (timeSeries == null) {
+            throw new NullPointerException("The time series must not be null");
+        }
+        producers.incrementAndGet();
+        try {
+            if (!closed && queue.offer(timeSeries)) {
+                accepted.incrementAndGet();
+                return true;
+            }
+            return false;
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>(batchSize);
+        while (true) {
+            if (queue.drainTo(batch, batchSize) == 0) {
+                //an empty queue after close is final once no producer is within offer
+                if (closed && producers.get() == 0 && queue.drainTo(batch, batchSize) == 0) {
+                    return;
+                }
+                if (batch.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                    continue;
+                }
+            }
+            index(batch);
+            batch.clear();
+        }
+    }
+
+    private void index(List<T> batch) {
+        IndexWriter writer;
+        try {
+            writer = index.getOpenWriter();
+        } catch (IOException e) {
+            LOGGER.error("Could not open lucene index writer", e);
+            failed.addAndGet(batch.size());
+            return;
+        }
+        for (T timeSeries : batch) {
+            try {
+                writer = add(timeSeries, writer);
+                indexed.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Could not add documents to lucene.", e);
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    private IndexWriter add(T timeSeries, IndexWriter writer) throws IOException {
+        try {
+            LuceneAddingService.add(converter, timeSeries, writer, options, seriesKey);
+            return writer;
+        } catch (AlreadyClosedException e) {
+            //the writer was closed by a reader of the index, retry once with the reopened writer
+            IndexWriter reopened = index.getOpenWriter();
+            LuceneAddingService.add(converter, timeSeries, reopened, options, seriesKey);
+            return reopened;
+        }
+    }
+
+    private static void pause() throws InterruptedException {
+        LockSupport.parkNanos(IDLE_NANOS);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -15,21 +15,36 @@
  */
 package de.qaware.chronix.lucene.client.add;
 
+import com.google.common.hash.Hashing;
+import de.qaware.chronix.Schema;
 import de.qaware.chronix.converter.BinaryTimeSeries;
 import de.qaware.chronix.converter.TimeSeriesConverter;
 import de.qaware.chronix.lucene.client.ChronixLuceneStorageConstants;
+import de.qaware.chronix.lucene.client.PackedAttributes;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * A service class to add time series to lucene.
@@ -55,6 +70,25 @@ public final class LuceneAddingService {
      * @return true if successful, otherwise false
      */
     public static <T> boolean add(TimeSeriesConverter<T> converter, Collection<T> timeSeries, IndexWriter indexWriter) {
+        return add(converter, timeSeries, indexWriter, new IndexingOptions(), null);
+    }
+
+    /**
+     * Adds the given collection of time series to the lucene index using the given indexing options.
+     * If a series key function is given, each chunk gets a deterministic chunk id derived from the series key
+     * and the start of the chunk. In upsert mode chunks with the same chunk id replace each other.
+     * <p>
+     * Note: The add method do not commit the time series.
+     *
+     * @param converter   the converter to converter the time series into a lucene document
+     * @param timeSeries  the collection with time series
+     * @param indexWriter the lucene index writer
+     * @param options     the indexing options
+     * @param seriesKey   the function that returns the key of the series a chunk belongs to, may be null
+     * @return true if successful, otherwise false
+     */
+    public static <T> boolean add(TimeSeriesConverter<T> converter, Collection<T> timeSeries, IndexWriter indexWriter,
+                                  IndexingOptions options, Function<T, String> seriesKey) {
 
         if (timeSeries == null || timeSeries.isEmpty()) {
             LOGGER.debug("Collection is empty. Nothing to commit");
@@ -63,7 +97,7 @@ public final class LuceneAddingService {
 
         timeSeries.parallelStream().forEach(ts -> {
             try {
-                indexWriter.addDocument(convert(ts, converter));
+                add(converter, ts, indexWriter, options, seriesKey);
             } catch (IOException e) {
                 LOGGER.error("Could not add documents to lucene.", e);
             }
@@ -71,33 +105,169 @@ public final class LuceneAddingService {
         return true;
     }
 
+    /**
+     * Converts and adds a single time series in the calling thread.
+     *
+     * @param converter   the converter to converter the time series into a lucene document
+     * @param ts          the time series
+     * @param indexWriter the lucene index writer
+     * @param options     the indexing options
+     * @param seriesKey   the function that returns the key of the series a chunk belongs to, may be null
+     * @throws IOException if the document can not be added
+     */
+    static <T> void add(TimeSeriesConverter<T> converter, T ts, IndexWriter indexWriter, IndexingOptions options,
+                        Function<T, String> seriesKey) throws IOException {
+        BinaryTimeSeries series = converter.to(ts);
+        Document document = convert(series, options);
+        String chunkId = options.isUpsert() ? chunkId(ts, series, seriesKey) : null;
+
+        if (chunkId == null) {
+            indexWriter.addDocument(document);
+        } else {
+            document.add(new StringField(ChronixLuceneStorageConstants.CHUNK_ID, chunkId, Field.Store.NO));
+            indexWriter.updateDocument(new Term(ChronixLuceneStorageConstants.CHUNK_ID, chunkId), document);
+        }
+    }
+
+    /**
+     * Derives the deterministic id of a chunk from the key of its series and its start.
+     *
+     * @param ts        the time series of type <T>
+     * @param series    the time series converted into a binary time series
+     * @param seriesKey the function that returns the key of the series, may be null
+     * @return the chunk id, or null if the series key or the start of the chunk is unknown
+     */
+    private static <T> String chunkId(T ts, BinaryTimeSeries series, Function<T, String> seriesKey) {
+        Object start = series.getFields().get(Schema.START);
+        if (seriesKey == null || !(start instanceof Number)) {
+            return null;
+        }
+        return chunkId(seriesKey.apply(ts), ((Number) start).longValue());
+    }
+
+    /**
+     * Derives the deterministic id of a chunk from the key of its series and its start.
+     *
+     * @param seriesKey the key of the series the chunk belongs to
+     * @param start     the start of the chunk
+     * @return the chunk id
+     */
+    public static String chunkId(String seriesKey, long start) {
+        return Hashing.murmur3_128().newHasher()
+                .putString(seriesKey, StandardCharsets.UTF_8)
+                .putLong(start)
+                .hash().toString();
+    }
+
     /**
      * Converts a time series of type <T> to lucene document.
      * Handles the default java object types (e.g. double, int, array, collections, ...)
      * and wraps them into the matching lucene fields (int -> IntField).
      *
-     * @param ts the time series of type <T>
+     * @param series  the time series converted into a binary time series
+     * @param options the indexing options
      * @return a filled lucene document
      */
-    private static <T> Document convert(T ts, TimeSeriesConverter<T> converter) {
-        BinaryTimeSeries series = converter.to(ts);
+    private static Document convert(BinaryTimeSeries series, IndexingOptions options) {
         Document document = new Document();
+        Map<String, Object> packed = new HashMap<>();
 
         series.getFields().entrySet().forEach(entry -> {
 
+            if (isTimeField(entry.getKey()) && entry.getValue() instanceof Number) {
+                handleTimeField(document, entry.getKey(), (Number) entry.getValue());
+                return;
+            }
+            if (isPacked(entry.getKey(), options)) {
+                packed.put(entry.getKey(), entry.getValue());
+            }
             if (entry.getValue() instanceof Number) {
-                handleNumbers(document, entry.getKey(), entry.getValue());
+                if (!isPacked(entry.getKey(), options)) {
+                    handleNumbers(document, entry.getKey(), entry.getValue());
+                }
+                if (options.isNumeric(entry.getKey())) {
+                    handleNumericAttribute(document, entry.getKey(), (Number) entry.getValue(), true, options);
+                }
             } else if (entry.getValue() instanceof String || entry.getValue() instanceof byte[]) {
-                handleStringsAndBytes(document, entry.getKey(), entry.getValue());
+                handleStringsAndBytes(document, entry.getKey(), entry.getValue(), options);
             } else if (entry.getValue() instanceof Collection || entry.getValue() instanceof Object[]) {
-                handleArraysAndIterable(document, entry.getKey(), entry.getValue());
+                handleArraysAndIterable(document, entry.getKey(), entry.getValue(), options);
             } else {
                 LOGGER.debug("Field {} could not be handled. Type is not supported", entry);
             }
         });
+        if (!packed.isEmpty()) {
+            document.add(new StoredField(ChronixLuceneStorageConstants.PACKED_ATTRIBUTES, new BytesRef(PackedAttributes.pack(packed))));
+        }
         return document;
     }
 
+    /**
+     * @param fieldName the field name
+     * @param options   the indexing options
+     * @return true if the field is stored within the packed attributes
+     */
+    private static boolean isPacked(String fieldName, IndexingOptions options) {
+        return options.isPackedAttributes() && !Schema.DATA.equals(fieldName) && !isTimeField(fieldName);
+    }
+
+    /**
+     * @param fieldName the field name
+     * @return true if the field is the start or the end of a chunk
+     */
+    private static boolean isTimeField(String fieldName) {
+        return Schema.START.equals(fieldName) || Schema.END.equals(fieldName);
+    }
+
+    /**
+     * Adds the start or end of a chunk as point (range queries), as numeric doc values (sorting)
+     * and as stored field.
+     *
+     * @param document  the lucene document to add the time
+     * @param fieldName the field name (start or end)
+     * @param time      the time value
+     */
+    private static void handleTimeField(Document document, String fieldName, Number time) {
+        long value = time.longValue();
+        document.add(new LongPoint(fieldName, value));
+        document.add(new NumericDocValuesField(fieldName, value));
+        if (time instanceof Long) {
+            document.add(new StoredField(fieldName, value));
+        } else {
+            handleNumbers(document, fieldName, time);
+        }
+    }
+
+    /**
+     * Indexes a numeric attribute for range queries. The encoding is defined by the options, not by the value,
+     * hence all chunks index an attribute the same way: Floating point attributes are indexed as double point,
+     * all other numeric attributes as long point. Single values are additionally added as doc values (sorting).
+     *
+     * @param document  the lucene document to add the number
+     * @param fieldName the field name
+     * @param value     the numeric value
+     * @param single    true if the value is a single value, false if it is an element of a list
+     * @param options   the indexing options
+     * @throws IllegalArgumentException if the value of an integral attribute has a fraction
+     */
+    private static void handleNumericAttribute(Document document, String fieldName, Number value, boolean single, IndexingOptions options) {
+        if (options.isFloatingPoint(fieldName)) {
+            document.add(new DoublePoint(fieldName, value.doubleValue()));
+            if (single) {
+                document.add(new DoubleDocValuesField(fieldName, value.doubleValue()));
+            }
+        } else {
+            if ((value instanceof Double || value instanceof Float) && value.doubleValue() != Math.rint(value.doubleValue())) {
+                throw new IllegalArgumentException("Numeric attribute " + fieldName + " is integral, but has the value " + value
+                        + ". Declare it as floating point attribute.");
+            }
+            document.add(new LongPoint(fieldName, value.longValue()));
+            if (single) {
+                document.add(new NumericDocValuesField(fieldName, value.longValue()));
+            }
+        }
+    }
+
     /**
      * Tries to cast field value (object) to an array or iterable.
      * If the field value is not an array or iterable then the method ignores the field.
@@ -108,8 +278,9 @@ public final class LuceneAddingService {
      * @param document   the lucene document to add the number
      * @param fieldName  the field name
      * @param fieldValue the field value
+     * @param options    the indexing options
      */
-    private static void handleArraysAndIterable(Document document, String fieldName, Object fieldValue) {
+    private static void handleArraysAndIterable(Document document, String fieldName, Object fieldValue, IndexingOptions options) {
 
         //assign the value as it is modified below
         Object modifiedFieldValue = fieldValue;
@@ -126,8 +297,18 @@ public final class LuceneAddingService {
             String modifiedFieldName = fieldName + ChronixLuceneStorageConstants.MULTI_VALUE_FIELD_DELIMITER;
             for (Object o : objects) {
                 fieldCounter++;
-                handleNumbers(document, modifiedFieldName + fieldCounter, o);
-                handleStringsAndBytes(document, modifiedFieldName + fieldCounter, o);
+                if (!isPacked(fieldName, options)) {
+                    handleNumbers(document, modifiedFieldName + fieldCounter, o);
+                }
+                if (o instanceof Number && options.isNumeric(fieldName)) {
+                    handleNumericAttribute(document, fieldName, (Number) o, false, options);
+                }
+                if (o instanceof String) {
+                    //the elements of a list are never identity attributes
+                    document.add(new Field(modifiedFieldName + fieldCounter, o.toString(), stringFieldType(fieldName, options)));
+                } else {
+                    handleStringsAndBytes(document, modifiedFieldName + fieldCounter, o, options);
+                }
             }
         }
     }
@@ -138,19 +319,38 @@ public final class LuceneAddingService {
      * <p>
      * If the value is a string or byte[] than the value is warped into a matching lucene field (Field for String,
      * StoredField for byte[]) and added to the lucene document.
+     * Identity attributes are additionally added as sorted doc values.
      *
      * @param document   the lucene document to add the number
      * @param fieldName  the field name
      * @param fieldValue the field value
+     * @param options    the indexing options
      */
-    private static void handleStringsAndBytes(Document document, String fieldName, Object fieldValue) {
+    private static void handleStringsAndBytes(Document document, String fieldName, Object fieldValue, IndexingOptions options) {
         if (fieldValue instanceof String) {
-            document.add(new Field(fieldName, fieldValue.toString(), TextField.TYPE_STORED));
-        } else if (fieldValue instanceof byte[]) {
+            document.add(new Field(fieldName, fieldValue.toString(), stringFieldType(fieldName, options)));
+            if (options.isIdentity(fieldName)) {
+                document.add(new SortedDocValuesField(fieldName, new BytesRef(fieldValue.toString())));
+            }
+        } else if (fieldValue instanceof byte[] && !isPacked(fieldName, options)) {
             document.add(new StoredField(fieldName, new BytesRef((byte[]) fieldValue)));
         }
     }
 
+    /**
+     * @param fieldName the field name
+     * @param options   the indexing options
+     * @return the analyzed field type (TextField) or the single term field type (StringField),
+     * not stored if the attributes are packed
+     */
+    private static FieldType stringFieldType(String fieldName, IndexingOptions options) {
+        boolean stored = !isPacked(fieldName, options);
+        if (options.isAnalyzed(fieldName)) {
+            return stored ? TextField.TYPE_STORED : TextField.TYPE_NOT_STORED;
+        }
+        return stored ? StringField.TYPE_STORED : StringField.TYPE_NOT_STORED;
+    }
+
     /**
      * Tries to cast field value (object) to a number (double, integer, float, long).
      * If the field value is not a number then method ignores the field.
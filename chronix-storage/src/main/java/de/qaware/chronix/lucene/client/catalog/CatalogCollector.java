@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.catalog;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the distinct values and their counts of attributes that are indexed with sorted (set) doc values.
+ * Only the ordinals of the doc values are counted per segment. The values are looked up once per segment
+ * and ordinal. Hence no stored fields are loaded and no chunk is decoded.
+ */
+public final class CatalogCollector extends SimpleCollector {
+
+    private final String[] attributes;
+    private final Map<String, Map<String, Long>> catalog = new LinkedHashMap<>();
+
+    /**
+     * The doc values and the ordinal counts of the current segment
+     */
+    private SortedSetDocValues[] values;
+    private int[][] ordinalCounts;
+
+    /**
+     * Constructs a catalog collector
+     *
+     * @param attributes the attributes (indexed with sorted or sorted set doc values)
+     */
+    public CatalogCollector(String... attributes) {
+        this.attributes = attributes.clone();
+        for (String attribute : attributes) {
+            catalog.put(attribute, new TreeMap<>());
+        }
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        mergeSegmentCounts();
+        values = new SortedSetDocValues[attributes.length];
+        ordinalCounts = new int[attributes.length][];
+        for (int i = 0; i < attributes.length; i++) {
+            values[i] = DocValues.getSortedSet(context.reader(), attributes[i]);
+            ordinalCounts[i] = new int[Math.toIntExact(values[i].getValueCount())];
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            SortedSetDocValues docValues = values[i];
+            if (docValues.advanceExact(doc)) {
+                for (long ord = docValues.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = docValues.nextOrd()) {
+                    ordinalCounts[i][(int) ord]++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    /**
+     * @return the attributes with their distinct values (sorted) and the number of matching chunks per value
+     * @throws IOException if the values of the ordinals can not be read
+     */
+    public Map<String, Map<String, Long>> getCatalog() throws IOException {
+        mergeSegmentCounts();
+        return catalog;
+    }
+
+    /**
+     * Merges the ordinal counts of the current segment into the catalog.
+     *
+     * @throws IOException if the values of the ordinals can not be read
+     */
+    private void mergeSegmentCounts() throws IOException {
+        if (values == null) {
+            return;
+        }
+        for (int i = 0; i < attributes.length; i++) {
+            Map<String, Long> counts = catalog.get(attributes[i]);
+            int[] segmentCounts = ordinalCounts[i];
+            for (int ord = 0; ord < segmentCounts.length; ord++) {
+                if (segmentCounts[ord] > 0) {
+                    counts.merge(values[i].lookupOrd(ord).utf8ToString(), (long) segmentCounts[ord], Long::sum);
+                }
+            }
+        }
+        values = null;
+        ordinalCounts = null;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.delete;
+
+/**
+ * The result of a time range delete
+ */
+public final class DeleteReport {
+
+    private final int deletedChunks;
+    private final int trimmedChunks;
+    private final int addedChunks;
+
+    /**
+     * Constructs a delete report
+     *
+     * @param deletedChunks the number of chunks within the time range that are deleted
+     * @param trimmedChunks the number of chunks overlapping the time range that are trimmed
+     * @param addedChunks   the number of chunks that are added for the trimmed chunks
+     */
+    DeleteReport(int deletedChunks, int trimmedChunks, int addedChunks) {
+        this.deletedChunks = deletedChunks;
+        this.trimmedChunks = trimmedChunks;
+        this.addedChunks = addedChunks;
+    }
+
+    /**
+     * @return the number of chunks within the time range that are deleted
+     */
+    public int getDeletedChunks() {
+        return deletedChunks;
+    }
+
+    /**
+     * @return the number of chunks overlapping the time range that are replaced by their trimmed parts
+     */
+    public int getTrimmedChunks() {
+        return trimmedChunks;
+    }
+
+    /**
+     * @return the number of chunks that are added for the trimmed chunks, i.e. their parts before and after the time range
+     */
+    public int getAddedChunks() {
+        return addedChunks;
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteReport{" +
+                "deletedChunks=" + deletedChunks +
+                ", trimmedChunks=" + trimmedChunks +
+                ", addedChunks=" + addedChunks +
+                '}';
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.delete;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.TimeSeriesConverter;
+import de.qaware.chronix.lucene.client.ChronixQueries;
+import de.qaware.chronix.lucene.client.add.IndexingOptions;
+import de.qaware.chronix.lucene.client.add.LuceneAddingService;
+import de.qaware.chronix.lucene.client.stream.TimeSeriesConverterCaller;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A service class to delete the points of a time range from lucene.
+ * <p>
+ * Chunks that are completely within the time range are deleted with one delete by query.
+ * Chunks that overlap the time range are trimmed: Their points before and after the range are converted
+ * into new chunks, the chunk itself is deleted. Only the chunks that overlap the range are read.
+ */
+public final class LuceneDeletingService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LuceneDeletingService.class);
+
+    private static final Set<String> TIME_FIELDS = new HashSet<>(Arrays.asList(Schema.START, Schema.END));
+
+    private LuceneDeletingService() {
+        //Avoid instances
+    }
+
+    /**
+     * Deletes the points within the time range of the chunks matching the query.
+     * The trimmed chunks are converted with the given converter and added with the indexing options.
+     * The range should not be written concurrently, as overlapping chunks that are added while
+     * the delete runs are deleted without being trimmed.
+     * <p>
+     * Note: The delete method does not commit.
+     *
+     * @param converter   the converter to trim the chunks
+     * @param query       the query that selects the chunks, e.g. the chunks of a series
+     * @param start       the start of the time range (inclusive)
+     * @param end         the end of the time range (inclusive)
+     * @param indexWriter the lucene index writer
+     * @param options     the indexing options of the trimmed chunks
+     * @param seriesKey   the function that returns the key of the series a chunk belongs to, may be null
+     * @param <T>         the type of the time series
+     * @return the report of the delete
+     * @throws IOException if the chunks can not be read, deleted or added
+     */
+    public static <T> DeleteReport delete(TimeSeriesConverter<T> converter, Query query, long start, long end, IndexWriter indexWriter,
+                                          IndexingOptions options, Function<T, String> seriesKey) throws IOException {
+
+        Query covered = new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.FILTER)
+                .add(LongPoint.newRangeQuery(Schema.START, start, Long.MAX_VALUE), BooleanClause.Occur.FILTER)
+                .add(LongPoint.newRangeQuery(Schema.END, Long.MIN_VALUE, end), BooleanClause.Occur.FILTER)
+                .build();
+        Query overlapping = new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.FILTER)
+                .add(ChronixQueries.range(start, end), BooleanClause.Occur.FILTER)
+                .add(covered, BooleanClause.Occur.MUST_NOT)
+                .build();
+
+        try (DirectoryReader reader = DirectoryReader.open(indexWriter)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            int deleted = searcher.count(covered);
+            int overlaps = searcher.count(overlapping);
+
+            List<T> trimmed = new ArrayList<>();
+            if (overlaps > 0) {
+                for (ScoreDoc hit : searcher.search(overlapping, overlaps).scoreDocs) {
+                    trim(converter, searcher, hit.doc, start, end, trimmed);
+                }
+            }
+            LOGGER.debug("Deleting {} chunks and trimming {} chunks between {} and {}", deleted, overlaps, start, end);
+
+            //deletes the documents indexed so far, hence the trimmed chunks are added afterwards
+            indexWriter.deleteDocuments(covered, overlapping);
+            LuceneAddingService.add(converter, trimmed, indexWriter, options, seriesKey);
+            return new DeleteReport(deleted, overlaps, trimmed.size());
+        }
+    }
+
+    /**
+     * Converts the points of the chunk before and after the time range into new chunks.
+     * As a chunk starts with its first and ends with its last point, a part only exists if the chunk starts before
+     * or ends after the range.
+     */
+    private static <T> void trim(TimeSeriesConverter<T> converter, IndexSearcher searcher, int docId, long start, long end, List<T> trimmed) throws IOException {
+        Document times = searcher.doc(docId, TIME_FIELDS);
+        long chunkStart = times.getField(Schema.START).numericValue().longValue();
+        long chunkEnd = times.getField(Schema.END).numericValue().longValue();
+        if (chunkStart < start) {
+            trimmed.add(convert(new TimeSeriesConverterCaller<>(searcher, docId, converter, chunkStart, start - 1)));
+        }
+        if (chunkEnd > end) {
+            trimmed.add(convert(new TimeSeriesConverterCaller<>(searcher, docId, converter, end + 1, chunkEnd)));
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private static <T> T convert(TimeSeriesConverterCaller<T> caller) throws IOException {
+        try {
+            return caller.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not trim chunk", e);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.importer;
+
+import de.qaware.chronix.lucene.client.stream.PointColumns;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses a csv export into columns. The first line is the header: the date column followed by the metric columns.
+ * The data lines are parsed on their bytes, hence no string is created per line or field.
+ */
+final class CsvFileParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final byte delimiter;
+    private final CsvParsers parsers;
+
+    private String[] columns;
+    private PointColumns[] points;
+
+    /**
+     * @param delimiter the delimiter of the fields
+     * @param parsers   the parsers for the dates and numbers
+     */
+    CsvFileParser(char delimiter, CsvParsers parsers) {
+        this.delimiter = (byte) delimiter;
+        this.parsers = parsers;
+    }
+
+    /**
+     * Parses the file
+     *
+     * @param file the csv file
+     * @throws IOException if the file can not be read
+     */
+    void parse(Path file) throws IOException {
+        columns = null;
+        points = null;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int start = 0;
+            int end = 0;
+            while (true) {
+                int newLine = indexOf(buffer, start, end, (byte) '\n');
+                if (newLine >= 0) {
+                    line(buffer, start, newLine);
+                    start = newLine + 1;
+                    continue;
+                }
+                //compact the buffer and read more bytes
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                if (end == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    if (end > start) {
+                        line(buffer, start, end);
+                    }
+                    return;
+                }
+                end += read;
+            }
+        }
+    }
+
+    /**
+     * @return the names of the metric columns, or null if the file has no header
+     */
+    String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the points of the metric columns
+     */
+    PointColumns[] getPoints() {
+        return points;
+    }
+
+    private void line(byte[] line, int from, int to) {
+        int end = to;
+        if (end > from && line[end - 1] == '\r') {
+            end--;
+        }
+        if (end == from) {
+            return;
+        }
+        if (columns == null) {
+            header(line, from, end);
+        } else if (!isHeader(line, from, end)) {
+            data(line, from, end);
+        }
+    }
+
+    private void header(byte[] line, int from, int to) {
+        int start = startsWith(line, from, to, UTF8_BOM) ? from + UTF8_BOM.length : from;
+        String[] fields = new String(line, start, to - start, StandardCharsets.UTF_8).split(String.valueOf((char) delimiter));
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i < fields.length; i++) {
+            names.add(fields[i]);
+        }
+        //Remove empty names of trailing delimiters
+        while (!names.isEmpty() && names.get(names.size() - 1).isEmpty()) {
+            names.remove(names.size() - 1);
+        }
+        columns = names.toArray(new String[names.size()]);
+        points = new PointColumns[columns.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new PointColumns();
+        }
+    }
+
+    /**
+     * @return true if the line is a repeated header, i.e. starts with the name of the date column
+     */
+    private boolean isHeader(byte[] line, int from, int to) {
+        byte first = line[from];
+        return first < '0' || first > '9';
+    }
+
+    private void data(byte[] line, int from, int to) {
+        int fieldEnd = indexOf(line, from, to, delimiter);
+        if (fieldEnd < 0) {
+            return;
+        }
+        long timestamp = parsers.parseDate(line, from, fieldEnd);
+        int column = 0;
+        int fieldStart = fieldEnd + 1;
+        while (fieldStart <= to && column < points.length) {
+            fieldEnd = indexOf(line, fieldStart, to, delimiter);
+            if (fieldEnd < 0) {
+                fieldEnd = to;
+            }
+            if (fieldEnd > fieldStart) {
+                points[column].add(timestamp, CsvParsers.parseDouble(line, fieldStart, fieldEnd));
+            }
+            column++;
+            fieldStart = fieldEnd + 1;
+        }
+    }
+
+    private static boolean startsWith(byte[] line, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
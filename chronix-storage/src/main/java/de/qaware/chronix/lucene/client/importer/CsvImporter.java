@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.importer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.qaware.chronix.converter.TimeSeriesConverter;
+import de.qaware.chronix.lucene.client.ChronixLuceneStorage;
+import de.qaware.chronix.lucene.client.LuceneIndex;
+import de.qaware.chronix.lucene.client.stream.PointColumns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk import of csv exports, e.g. of a monitoring system.
+ * <p>
+ * The files are parsed in parallel. Each file has a header with the date column followed by the metric columns.
+ * The dates (dd.MM.yyyy HH:mm:ss.SSS) and numbers (english format) are parsed on the bytes of the lines without allocation.
+ * The time series of a file are created by the series factory and added in one batch.
+ * <p>
+ * The import commits once at the end, or additionally every n files (checkpoints).
+ * The names of the imported files are stored in the user data of the commit that makes them durable.
+ * An interrupted import skips these files when it is started again. The files that were in flight during
+ * a checkpoint may be partially committed, hence use the upsert mode of the storage to import them idempotent.
+ *
+ * @param <T> the type of the time series
+ */
+public final class CsvImporter<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvImporter.class);
+
+    /**
+     * The key of the imported file names in the commit user data
+     */
+    public static final String IMPORTED_FILES = "chronix.import.files";
+    private static final String FILE_SEPARATOR = "\n";
+
+    private final ChronixLuceneStorage<T> storage;
+    private final TimeSeriesConverter<T> converter;
+    private final CsvSeriesFactory<T> factory;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private char delimiter = ';';
+    private ZoneId zone = ZoneId.systemDefault();
+    private int checkpointFiles;
+
+    /**
+     * Constructs a csv importer
+     *
+     * @param storage   the storage to add the time series
+     * @param converter the converter of the time series
+     * @param factory   the factory that creates the time series of a column
+     */
+    public CsvImporter(ChronixLuceneStorage<T> storage, TimeSeriesConverter<T> converter, CsvSeriesFactory<T> factory) {
+        this.storage = storage;
+        this.converter = converter;
+        this.factory = factory;
+    }
+
+    /**
+     * Sets the number of files that are parsed in parallel. Default is the number of processors.
+     *
+     * @param threads the number of import threads
+     * @return this importer
+     */
+    public CsvImporter<T> setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Sets the delimiter of the fields. Default is ';'.
+     *
+     * @param delimiter the delimiter
+     * @return this importer
+     */
+    public CsvImporter<T> setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    /**
+     * Sets the time zone of the dates. Default is the system time zone.
+     *
+     * @param zone the time zone
+     * @return this importer
+     */
+    public CsvImporter<T> setZone(ZoneId zone) {
+        this.zone = zone;
+        return this;
+    }
+
+    /**
+     * Sets the number of imported files after which a checkpoint (commit) is done.
+     * Default is 0, i.e. the import commits only once at the end.
+     *
+     * @param checkpointFiles the number of files between two checkpoints
+     * @return this importer
+     */
+    public CsvImporter<T> setCheckpointFiles(int checkpointFiles) {
+        this.checkpointFiles = checkpointFiles;
+        return this;
+    }
+
+    /**
+     * Imports the given files. Files that are already imported into the index (by name) are skipped.
+     *
+     * @param index the lucene index
+     * @param files the csv files
+     * @return the report of the import
+     * @throws IOException if the writer can not be opened or the import can not be committed
+     */
+    public ImportReport importFiles(LuceneIndex index, Collection<Path> files) throws IOException {
+        long start = System.nanoTime();
+        //Opens the writer once, so the import threads share it
+        Set<String> imported = ConcurrentHashMap.newKeySet();
+        imported.addAll(importedFiles(index));
+
+        AtomicInteger importedFiles = new AtomicInteger();
+        AtomicInteger failedFiles = new AtomicInteger();
+        AtomicLong series = new AtomicLong();
+        AtomicLong points = new AtomicLong();
+        int skippedFiles = 0;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("chronix-csv-import-%d").build());
+        ThreadLocal<CsvFileParser> parsers = ThreadLocal.withInitial(() -> new CsvFileParser(delimiter, new CsvParsers(zone)));
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (imported.contains(name)) {
+                    LOGGER.debug("Skipping already imported file {}", file);
+                    skippedFiles++;
+                    continue;
+                }
+                futures.add(pool.submit(() -> {
+                    try {
+                        long[] counts = importFile(parsers.get(), file, index);
+                        series.addAndGet(counts[0]);
+                        points.addAndGet(counts[1]);
+                        imported.add(name);
+                        int done = importedFiles.incrementAndGet();
+                        if (checkpointFiles > 0 && done % checkpointFiles == 0) {
+                            checkpoint(index, imported);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.error("Could not import file {}", file, e);
+                        failedFiles.incrementAndGet();
+                    }
+                }));
+            }
+            await(futures);
+        } finally {
+            pool.shutdownNow();
+        }
+        checkpoint(index, imported);
+
+        ImportReport report = new ImportReport(importedFiles.get(), skippedFiles, failedFiles.get(), series.get(), points.get(), System.nanoTime() - start);
+        LOGGER.info("Imported {} files: {}", files.size(), report);
+        return report;
+    }
+
+    /**
+     * Parses a file and adds its time series
+     *
+     * @return the number of time series and points of the file
+     */
+    private long[] importFile(CsvFileParser parser, Path file, LuceneIndex index) throws IOException {
+        parser.parse(file);
+        if (parser.getColumns() == null) {
+            LOGGER.warn("File {} has no header", file);
+            return new long[2];
+        }
+        List<T> timeSeries = new ArrayList<>(parser.getColumns().length);
+        long points = 0;
+        for (int i = 0; i < parser.getColumns().length; i++) {
+            PointColumns columnPoints = parser.getPoints()[i];
+            T ts = factory.create(file, parser.getColumns()[i], columnPoints);
+            if (ts != null) {
+                timeSeries.add(ts);
+                points += columnPoints.size();
+            }
+        }
+        if (!storage.add(converter, timeSeries, index)) {
+            throw new IOException("Could not add the time series of file " + file);
+        }
+        LOGGER.debug("Added {} time series with {} points of file {}", timeSeries.size(), points, file);
+        return new long[]{timeSeries.size(), points};
+    }
+
+    /**
+     * Commits the added time series together with the names of the imported files
+     */
+    private synchronized void checkpoint(LuceneIndex index, Set<String> imported) throws IOException {
+        index.commit(Collections.singletonMap(IMPORTED_FILES, String.join(FILE_SEPARATOR, new ArrayList<>(imported))));
+    }
+
+    /**
+     * @param index the lucene index
+     * @return the names of the files that are already imported (committed)
+     * @throws IOException if the writer can not be opened
+     */
+    public static Set<String> importedFiles(LuceneIndex index) throws IOException {
+        Set<String> files = new HashSet<>();
+        String importedFiles = index.getCommitData().get(IMPORTED_FILES);
+        if (importedFiles != null && !importedFiles.isEmpty()) {
+            files.addAll(Arrays.asList(importedFiles.split(FILE_SEPARATOR)));
+        }
+        return files;
+    }
+
+    private static void await(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while importing files", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Could not import files", e.getCause());
+            }
+        }
+    }
+}
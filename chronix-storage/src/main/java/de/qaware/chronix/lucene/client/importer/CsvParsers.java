@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+/**
+ * Parsers for the fields of csv exports that work on the bytes of a line and do not allocate.
+ * <p>
+ * Numbers use the english format with optional grouping, e.g. 1,234,567.89.
+ * Dates use the format dd.MM.yyyy HH:mm:ss.SSS in a given time zone.
+ * A parser instance caches the zone offset of the last hour, hence it must not be shared between threads.
+ */
+final class CsvParsers {
+
+    private static final int DATE_LENGTH = 23;
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final ZoneRules rules;
+    private final long fixedOffsetMs;
+    private long cachedLocalHour = Long.MIN_VALUE;
+    private long cachedOffsetMs;
+
+    /**
+     * @param zone the time zone of the dates
+     */
+    CsvParsers(ZoneId zone) {
+        this.rules = zone.getRules();
+        this.fixedOffsetMs = rules.isFixedOffset() ? rules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L : Long.MIN_VALUE;
+    }
+
+    /**
+     * Parses a date of the format dd.MM.yyyy HH:mm:ss.SSS
+     *
+     * @param line the bytes of the line
+     * @param from the start of the field
+     * @param to   the end of the field (exclusive)
+     * @return the milliseconds since 1970
+     */
+    long parseDate(byte[] line, int from, int to) {
+        if (to - from != DATE_LENGTH || line[from + 2] != '.' || line[from + 5] != '.' || line[from + 10] != ' '
+                || line[from + 13] != ':' || line[from + 16] != ':' || line[from + 19] != '.') {
+            throw new IllegalArgumentException("Invalid date '" + new String(line, from, to - from, StandardCharsets.UTF_8) + "'");
+        }
+        int day = digits(line, from, 2);
+        int month = digits(line, from + 3, 2);
+        int year = digits(line, from + 6, 4);
+        int hour = digits(line, from + 11, 2);
+        int minute = digits(line, from + 14, 2);
+        int second = digits(line, from + 17, 2);
+        int millis = digits(line, from + 20, 3);
+
+        long localSeconds = ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+        return localSeconds * 1000 + millis - offsetMs(localSeconds);
+    }
+
+    /**
+     * Parses a number in english format with optional grouping.
+     * Falls back to {@link Double#parseDouble(String)} for numbers that can not be parsed exactly, e.g. with exponent.
+     *
+     * @param line the bytes of the line
+     * @param from the start of the field
+     * @param to   the end of the field (exclusive)
+     * @return the number
+     */
+    static double parseDouble(byte[] line, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < to; i++) {
+            byte c = line[i];
+            if (c >= '0' && c <= '9') {
+                if (digits == MAX_EXACT_DIGITS) {
+                    return parseDoubleSlow(line, from, to);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c != ',' || fractionDigits >= 0) {
+                return parseDoubleSlow(line, from, to);
+            }
+        }
+        if (digits == 0) {
+            return parseDoubleSlow(line, from, to);
+        }
+        //both are exact doubles, hence the division is correctly rounded
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(byte[] line, int from, int to) {
+        return Double.parseDouble(new String(line, from, to - from, StandardCharsets.UTF_8).replace(",", ""));
+    }
+
+    private static int digits(byte[] line, int from, int length) {
+        int value = 0;
+        for (int i = from; i < from + length; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid digit '" + (char) line[i] + "' in date");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the days since 1970-01-01 of the given date (proleptic gregorian calendar)
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @param localSeconds the local date time as seconds since 1970
+     * @return the offset of the zone at the local date time in milliseconds
+     */
+    private long offsetMs(long localSeconds) {
+        if (fixedOffsetMs != Long.MIN_VALUE) {
+            return fixedOffsetMs;
+        }
+        long localHour = Math.floorDiv(localSeconds, 3600);
+        if (localHour != cachedLocalHour) {
+            cachedOffsetMs = rules.getOffset(LocalDateTime.ofEpochSecond(localHour * 3600, 0, ZoneOffset.UTC)).getTotalSeconds() * 1000L;
+            cachedLocalHour = localHour;
+        }
+        return cachedOffsetMs;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.importer;
+
+import de.qaware.chronix.lucene.client.stream.PointColumns;
+
+import java.nio.file.Path;
+
+/**
+ * Creates the time series of type <T> for a column of an imported csv file.
+ *
+ * @param <T> the type of the time series
+ */
+@FunctionalInterface
+public interface CsvSeriesFactory<T> {
+
+    /**
+     * Creates the time series of a column. The attributes can be derived from the file, e.g. its name.
+     *
+     * @param file   the imported file
+     * @param column the name of the column (metric)
+     * @param points the points of the column in the order of the file
+     * @return the time series, or null to skip the column
+     */
+    T create(Path file, String column, PointColumns points);
+}
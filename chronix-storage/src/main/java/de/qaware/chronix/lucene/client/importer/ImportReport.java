@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.importer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a bulk import
+ */
+public final class ImportReport {
+
+    private final int importedFiles;
+    private final int skippedFiles;
+    private final int failedFiles;
+    private final long series;
+    private final long points;
+    private final long durationNanos;
+
+    ImportReport(int importedFiles, int skippedFiles, int failedFiles, long series, long points, long durationNanos) {
+        this.importedFiles = importedFiles;
+        this.skippedFiles = skippedFiles;
+        this.failedFiles = failedFiles;
+        this.series = series;
+        this.points = points;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * @return the number of imported files
+     */
+    public int getImportedFiles() {
+        return importedFiles;
+    }
+
+    /**
+     * @return the number of files that were skipped, as they are already imported
+     */
+    public int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * @return the number of files that could not be imported
+     */
+    public int getFailedFiles() {
+        return failedFiles;
+    }
+
+    /**
+     * @return the number of imported time series (chunks)
+     */
+    public long getSeries() {
+        return series;
+    }
+
+    /**
+     * @return the number of imported points
+     */
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return the duration of the import in milliseconds (including the commit)
+     */
+    public long getDurationMs() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    /**
+     * @return the imported points per second
+     */
+    public double getPointsPerSecond() {
+        return durationNanos == 0 ? 0 : points * 1e9 / durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportReport{" +
+                "importedFiles=" + importedFiles +
+                ", skippedFiles=" + skippedFiles +
+                ", failedFiles=" + failedFiles +
+                ", series=" + series +
+                ", points=" + points +
+                ", durationMs=" + getDurationMs() +
+                ", pointsPerSecond=" + String.format("%.0f", getPointsPerSecond()) +
+                '}';
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.TimeSeriesConverter;
+
+/**
+ * A time series converter that reads binary attributes (e.g. the data of a chunk) from a byte buffer view.
+ * <p>
+ * The read path hands these converters a read-only {@link java.nio.ByteBuffer} with the position and limit
+ * of the stored value instead of a byte[]. Hence the stored bytes are not copied before they are decoded.
+ * Each buffer wraps a fresh array that is allocated for the stored value and is not reused by the read path,
+ * hence the converter may keep the buffer (e.g. to decode the points lazily) after the call.
+ *
+ * @param <T> the type of the time series
+ */
+public interface ByteBufferTimeSeriesConverter<T> extends TimeSeriesConverter<T> {
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+
+/**
+ * Helper for the attributes of chunks that are decoded into columns
+ */
+final class ChunkAttributes {
+
+    private ChunkAttributes() {
+        //Avoid instances
+    }
+
+    /**
+     * Copies the attributes of the chunk without its (compressed) data.
+     * Hence the data of a decoded chunk is not kept in memory.
+     *
+     * @param chunk the chunk
+     * @return the attributes of the chunk
+     */
+    static BinaryTimeSeries withoutData(BinaryTimeSeries chunk) {
+        BinaryTimeSeries.Builder attributes = new BinaryTimeSeries.Builder();
+        chunk.getFields().forEach((name, value) -> {
+            if (!Schema.DATA.equals(name)) {
+                attributes.field(name, value);
+            }
+        });
+        return attributes.build();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.TimeSeriesConverter;
+
+/**
+ * Reads a chunk on the read path, e.g. into a time series, a partial result or decoded columns.
+ * <p>
+ * Unlike a {@link TimeSeriesConverter} a reader only supports one direction, hence the streaming service
+ * can hand the chunks to readers that can not be converted back into a binary time series.
+ *
+ * @param <T> the type of the read chunk
+ */
+@FunctionalInterface
+public interface ChunkReader<T> {
+
+    /**
+     * Reads the chunk
+     *
+     * @param chunk      the binary time series of the chunk
+     * @param queryStart the start of the query
+     * @param queryEnd   the end of the query
+     * @return the read chunk
+     */
+    T from(BinaryTimeSeries chunk, long queryStart, long queryEnd);
+
+    /**
+     * @return true if the reader gets binary attributes as byte buffer views, see {@link ByteBufferTimeSeriesConverter}
+     */
+    default boolean readsByteBuffers() {
+        return false;
+    }
+
+    /**
+     * Adapts the converter to a reader
+     *
+     * @param converter the time series converter
+     * @param <T>       the type of the time series
+     * @return a reader that converts the chunks with the converter
+     */
+    static <T> ChunkReader<T> of(TimeSeriesConverter<T> converter) {
+        boolean byteBuffers = converter instanceof ByteBufferTimeSeriesConverter;
+        return new ChunkReader<T>() {
+            @Override
+            public T from(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+                return converter.from(chunk, queryStart, queryEnd);
+            }
+
+            @Override
+            public boolean readsByteBuffers() {
+                return byteBuffers;
+            }
+        };
+    }
+}
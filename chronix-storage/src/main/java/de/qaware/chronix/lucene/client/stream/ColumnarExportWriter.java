@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes chunks in the columnar export format to a channel. The writer buffers one block and writes it
+ * when it is full, hence its memory is bounded by the block size.
+ * <p>
+ * The format (big endian):
+ * <pre>
+ * header:     int magic 'CHRX', byte version
+ * chunk:      byte kind (1 = columns, 2 = raw), short #attributes, attributes, data
+ * attribute:  short name length, name (utf-8), byte tag, value
+ * value:      'S' int length + utf-8 | 'L' long | 'D' double | 'B' int length + bytes | 'A' int count + values
+ * columns:    int n, n timestamps (long), n values (double)
+ * raw:        int length, the stored data of the chunk as written by the converter
+ * end:        byte 0, long #chunks
+ * </pre>
+ */
+final class ColumnarExportWriter {
+
+    static final int MAGIC = 0x43485258;
+    static final byte VERSION = 1;
+    static final byte END = 0;
+    static final byte COLUMNS = 1;
+    static final byte RAW = 2;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer block;
+    private long chunks;
+    private long bytes;
+
+    /**
+     * @param channel   the channel to write to
+     * @param blockSize the size of the blocks that are written to the channel
+     */
+    ColumnarExportWriter(WritableByteChannel channel, int blockSize) {
+        this.channel = channel;
+        this.block = ByteBuffer.allocateDirect(Math.max(blockSize, Long.BYTES * 2));
+    }
+
+    /**
+     * Writes the header
+     *
+     * @throws IOException if the channel fails
+     */
+    void begin() throws IOException {
+        ensure(Integer.BYTES + 1);
+        block.putInt(MAGIC).put(VERSION);
+    }
+
+    /**
+     * Writes the attributes and the decoded points of a chunk
+     *
+     * @param chunk      the chunk
+     * @param timestamps the timestamps
+     * @param values     the values
+     * @param size       the number of points
+     * @throws IOException if the channel fails
+     */
+    void writeColumns(BinaryTimeSeries chunk, long[] timestamps, double[] values, int size) throws IOException {
+        writeAttributes(COLUMNS, chunk);
+        ensure(Integer.BYTES);
+        block.putInt(size);
+
+        //the columns are copied in bulk, in as many blocks as needed
+        for (int written = 0; written < size; ) {
+            ensure(Long.BYTES);
+            int length = Math.min(size - written, block.remaining() / Long.BYTES);
+            block.asLongBuffer().put(timestamps, written, length);
+            block.position(block.position() + length * Long.BYTES);
+            written += length;
+        }
+        for (int written = 0; written < size; ) {
+            ensure(Double.BYTES);
+            int length = Math.min(size - written, block.remaining() / Double.BYTES);
+            block.asDoubleBuffer().put(values, written, length);
+            block.position(block.position() + length * Double.BYTES);
+            written += length;
+        }
+        chunks++;
+    }
+
+    /**
+     * Writes the attributes and the stored data of a chunk unchanged
+     *
+     * @param chunk the chunk
+     * @param data  the stored data
+     * @throws IOException if the channel fails
+     */
+    void writeRaw(BinaryTimeSeries chunk, ByteBuffer data) throws IOException {
+        writeAttributes(RAW, chunk);
+        ensure(Integer.BYTES);
+        block.putInt(data.remaining());
+        writeBytes(data);
+        chunks++;
+    }
+
+    /**
+     * Writes the end marker and the remaining block
+     *
+     * @throws IOException if the channel fails
+     */
+    void end() throws IOException {
+        ensure(1 + Long.BYTES);
+        block.put(END).putLong(chunks);
+        flush();
+    }
+
+    /**
+     * @return the number of bytes written to the channel
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    private void writeAttributes(byte kind, BinaryTimeSeries chunk) throws IOException {
+        Map<String, Object> fields = chunk.getFields();
+        int count = fields.containsKey(Schema.DATA) ? fields.size() - 1 : fields.size();
+        ensure(1 + Short.BYTES);
+        block.put(kind).putShort((short) count);
+
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!Schema.DATA.equals(field.getKey())) {
+                byte[] name = field.getKey().getBytes(StandardCharsets.UTF_8);
+                ensure(Short.BYTES + name.length);
+                block.putShort((short) name.length).put(name);
+                writeValue(field.getValue());
+            }
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value instanceof Double || value instanceof Float) {
+            ensure(1 + Double.BYTES);
+            block.put((byte) 'D').putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            ensure(1 + Long.BYTES);
+            block.put((byte) 'L').putLong(((Number) value).longValue());
+        } else if (value instanceof byte[] || value instanceof ByteBuffer) {
+            ByteBuffer data = value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : ((ByteBuffer) value).duplicate();
+            ensure(1 + Integer.BYTES);
+            block.put((byte) 'B').putInt(data.remaining());
+            writeBytes(data);
+        } else if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            ensure(1 + Integer.BYTES);
+            block.put((byte) 'A').putInt(values.size());
+            for (Object element : values) {
+                writeValue(element);
+            }
+        } else {
+            ByteBuffer text = ByteBuffer.wrap(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            ensure(1 + Integer.BYTES);
+            block.put((byte) 'S').putInt(text.remaining());
+            writeBytes(text);
+        }
+    }
+
+    /**
+     * Small values are copied into the block, larger ones are written directly to the channel
+     */
+    private void writeBytes(ByteBuffer data) throws IOException {
+        if (data.remaining() <= block.remaining()) {
+            block.put(data);
+            return;
+        }
+        flush();
+        while (data.hasRemaining()) {
+            bytes += channel.write(data);
+        }
+    }
+
+    private void ensure(int length) throws IOException {
+        if (block.remaining() < length) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        block.flip();
+        while (block.hasRemaining()) {
+            bytes += channel.write(block);
+        }
+        block.clear();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+
+/**
+ * Receives the decoded points of the chunks of a columnar scan.
+ */
+@FunctionalInterface
+public interface ColumnarSink {
+
+    /**
+     * Called once per chunk. The arrays are reused for the next chunk,
+     * hence they must not be kept after the call.
+     *
+     * @param chunk      the chunk with its attributes
+     * @param timestamps the timestamps of the points
+     * @param values     the values of the points
+     * @param size       the number of points
+     */
+    void accept(BinaryTimeSeries chunk, long[] timestamps, double[] values, int size);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.TimeSeriesConverter;
+
+/**
+ * A time series converter that can decode the points of a chunk into primitive columns.
+ * Used by the columnar scan to aggregate large ranges without creating a time series per chunk.
+ *
+ * @param <T> the type of the time series
+ */
+public interface ColumnarTimeSeriesConverter<T> extends TimeSeriesConverter<T> {
+
+    /**
+     * Decodes the points of the chunk within the query range and appends them to the columns.
+     *
+     * @param chunk      the chunk with its attributes and its (compressed) data
+     * @param queryStart the start of the query
+     * @param queryEnd   the end of the query
+     * @param columns    the columns to append the points
+     */
+    void decode(BinaryTimeSeries chunk, long queryStart, long queryEnd, PointColumns columns);
+
+    /**
+     * Creates a time series with the attributes of the chunk and the given points, e.g. downsampled points.
+     * The columns are reused after the call, hence the points have to be copied.
+     *
+     * @param chunk  the chunk with the attributes of the time series (without data)
+     * @param points the points of the time series
+     * @return a time series of type <T>
+     */
+    T from(BinaryTimeSeries chunk, PointColumns points);
+}
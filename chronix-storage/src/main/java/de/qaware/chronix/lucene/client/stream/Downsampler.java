@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Downsamples the points of chunks on a grid over the time range of a query.
+ * Each chunk is reduced to a partial result while it is converted.
+ * The partial results of the chunks of a time series are merged into the final points.
+ */
+final class Downsampler {
+
+    private final Downsampling downsampling;
+    private final long from;
+    private final long to;
+    private final double bucketWidth;
+
+    /**
+     * @param downsampling the downsampling
+     * @param from         the start of the time range
+     * @param to           the end of the time range
+     */
+    Downsampler(Downsampling downsampling, long from, long to) {
+        this.downsampling = downsampling;
+        this.from = from;
+        this.to = to;
+        this.bucketWidth = Math.max(1d, ((double) to - from + 1) / downsampling.getTargetPoints());
+    }
+
+    /**
+     * Reduces the points of a chunk to a partial result
+     *
+     * @param points the points of the chunk
+     * @return the partial result of the chunk
+     */
+    Partial partial(PointColumns points) {
+        if (downsampling.getMethod() == Downsampling.Method.LTTB) {
+            return lttbPartial(points);
+        }
+        return bucketPartial(points);
+    }
+
+    /**
+     * Merges the partial results of the chunks of a time series
+     *
+     * @param partials the partial results
+     * @param points   the columns to add the downsampled points
+     */
+    void finish(List<Partial> partials, PointColumns points) {
+        if (downsampling.getMethod() == Downsampling.Method.LTTB) {
+            finishLttb(partials, points);
+        } else {
+            finishBuckets(partials, points);
+        }
+    }
+
+    private Partial bucketPartial(PointColumns points) {
+        Partial partial = new Partial();
+        int lastBucket = -1;
+        for (int i = 0; i < points.size(); i++) {
+            int bucket = bucket(points.getTimestamp(i));
+            if (bucket != lastBucket || partial.size == 0) {
+                partial.addBucket(bucket, points.getValue(i));
+                lastBucket = bucket;
+            } else {
+                int last = partial.size - 1;
+                partial.aggregates[last] = aggregate(partial.aggregates[last], points.getValue(i));
+                partial.counts[last]++;
+            }
+        }
+        return partial;
+    }
+
+    private void finishBuckets(List<Partial> partials, PointColumns points) {
+        int buckets = downsampling.getTargetPoints();
+        double[] aggregates = new double[buckets];
+        long[] counts = new long[buckets];
+        for (Partial partial : partials) {
+            for (int i = 0; i < partial.size; i++) {
+                int bucket = partial.buckets[i];
+                if (counts[bucket] == 0) {
+                    aggregates[bucket] = partial.aggregates[i];
+                } else {
+                    aggregates[bucket] = aggregate(aggregates[bucket], partial.aggregates[i]);
+                }
+                counts[bucket] += partial.counts[i];
+            }
+        }
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            if (counts[bucket] > 0) {
+                double value = downsampling.getMethod() == Downsampling.Method.MEAN ? aggregates[bucket] / counts[bucket] : aggregates[bucket];
+                points.add(from + (long) (bucket * bucketWidth), value);
+            }
+        }
+    }
+
+    /**
+     * @return the sum (mean), the minimum or the maximum of both values
+     */
+    private double aggregate(double aggregate, double value) {
+        switch (downsampling.getMethod()) {
+            case MIN:
+                return Math.min(aggregate, value);
+            case MAX:
+                return Math.max(aggregate, value);
+            default:
+                return aggregate + value;
+        }
+    }
+
+    /**
+     * @param timestamp the timestamp of a point
+     * @return the bucket of the point
+     */
+    private int bucket(long timestamp) {
+        long bucket = (long) (((double) timestamp - from) / bucketWidth);
+        return (int) Math.max(0, Math.min(downsampling.getTargetPoints() - 1L, bucket));
+    }
+
+    /**
+     * Downsamples a chunk to its share of the target points, i.e. its share of the time range.
+     */
+    private Partial lttbPartial(PointColumns points) {
+        Partial partial = new Partial();
+        if (points.size() == 0) {
+            return partial;
+        }
+        double span = (double) points.getTimestamp(points.size() - 1) - points.getTimestamp(0) + 1;
+        int chunkTarget = (int) Math.ceil(downsampling.getTargetPoints() * span / ((double) to - from + 1)) + 2;
+        PointColumns sampled = new PointColumns(Math.min(points.size(), chunkTarget));
+        lttb(points.getTimestamps(), points.getValues(), points.size(), chunkTarget, sampled);
+        partial.timestamps = Arrays.copyOf(sampled.getTimestamps(), sampled.size());
+        partial.values = Arrays.copyOf(sampled.getValues(), sampled.size());
+        partial.size = sampled.size();
+        return partial;
+    }
+
+    private void finishLttb(List<Partial> partials, PointColumns points) {
+        PointColumns merged = new PointColumns();
+        partials.stream()
+                .filter(partial -> partial.size > 0)
+                .sorted(Comparator.comparingLong(partial -> partial.timestamps[0]))
+                .forEach(partial -> merged.add(partial.timestamps, partial.values, 0, partial.size));
+        lttb(merged.getTimestamps(), merged.getValues(), merged.size(), downsampling.getTargetPoints(), points);
+    }
+
+    /**
+     * Largest triangle three buckets (Sveinn Steinarsson, 2013).
+     * Selects the first and the last point and of each bucket in between the point that forms
+     * the largest triangle with the selected point of the previous bucket and the average of the next bucket.
+     *
+     * @param timestamps the timestamps (sorted)
+     * @param values     the values
+     * @param size       the number of points
+     * @param threshold  the number of selected points
+     * @param sampled    the columns to add the selected points
+     */
+    static void lttb(long[] timestamps, double[] values, int size, int threshold, PointColumns sampled) {
+        if (threshold >= size || threshold < 3) {
+            sampled.add(timestamps, values, 0, size);
+            return;
+        }
+        double every = (double) (size - 2) / (threshold - 2);
+        int selected = 0;
+        sampled.add(timestamps[0], values[0]);
+
+        for (int i = 0; i < threshold - 2; i++) {
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            double avgTimestamp = 0;
+            double avgValue = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgTimestamp += timestamps[j];
+                avgValue += values[j];
+            }
+            avgTimestamp /= avgEnd - avgStart;
+            avgValue /= avgEnd - avgStart;
+
+            int rangeStart = (int) Math.floor(i * every) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((timestamps[selected] - avgTimestamp) * (values[j] - values[selected])
+                        - (timestamps[selected] - timestamps[j]) * (avgValue - values[selected]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            sampled.add(timestamps[next], values[next]);
+            selected = next;
+        }
+        sampled.add(timestamps[size - 1], values[size - 1]);
+    }
+
+    /**
+     * The partial result of a chunk: the aggregated buckets or the selected points (LTTB)
+     */
+    static final class Partial {
+        private int size;
+        private int[] buckets;
+        private double[] aggregates;
+        private long[] counts;
+        private long[] timestamps;
+        private double[] values;
+
+        private void addBucket(int bucket, double aggregate) {
+            if (buckets == null) {
+                buckets = new int[8];
+                aggregates = new double[8];
+                counts = new long[8];
+            } else if (size == buckets.length) {
+                buckets = Arrays.copyOf(buckets, size * 2);
+                aggregates = Arrays.copyOf(aggregates, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            buckets[size] = bucket;
+            aggregates[size] = aggregate;
+            counts[size] = 1;
+            size++;
+        }
+    }
+}
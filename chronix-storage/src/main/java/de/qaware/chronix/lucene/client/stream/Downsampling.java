@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+/**
+ * Defines how the time series of a query are downsampled to a target number of points.
+ * <p>
+ * The bucket methods (mean, min, max) split the time range of the query into target equally sized buckets
+ * and aggregate the points of each bucket. The timestamp of a bucket is its start.
+ * Largest triangle three buckets (LTTB) selects the target number of points that keep the visual shape.
+ */
+public final class Downsampling {
+
+    /**
+     * The downsampling methods
+     */
+    public enum Method {
+        MEAN, MIN, MAX, LTTB
+    }
+
+    private final Method method;
+    private final int targetPoints;
+
+    private Downsampling(Method method, int targetPoints) {
+        if (targetPoints < 1 || (method == Method.LTTB && targetPoints < 3)) {
+            throw new IllegalArgumentException("Invalid number of target points " + targetPoints + " for " + method);
+        }
+        this.method = method;
+        this.targetPoints = targetPoints;
+    }
+
+    /**
+     * @param targetPoints the max number of points of a time series
+     * @return the downsampling to the mean of each bucket
+     */
+    public static Downsampling mean(int targetPoints) {
+        return new Downsampling(Method.MEAN, targetPoints);
+    }
+
+    /**
+     * @param targetPoints the max number of points of a time series
+     * @return the downsampling to the minimum of each bucket
+     */
+    public static Downsampling min(int targetPoints) {
+        return new Downsampling(Method.MIN, targetPoints);
+    }
+
+    /**
+     * @param targetPoints the max number of points of a time series
+     * @return the downsampling to the maximum of each bucket
+     */
+    public static Downsampling max(int targetPoints) {
+        return new Downsampling(Method.MAX, targetPoints);
+    }
+
+    /**
+     * @param targetPoints the max number of points of a time series (at least 3)
+     * @return the downsampling with largest triangle three buckets
+     */
+    public static Downsampling lttb(int targetPoints) {
+        return new Downsampling(Method.LTTB, targetPoints);
+    }
+
+    /**
+     * @return the downsampling method
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the max number of points of a time series
+     */
+    public int getTargetPoints() {
+        return targetPoints;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Downsampling)) {
+            return false;
+        }
+        Downsampling that = (Downsampling) o;
+        return targetPoints == that.targetPoints && method == that.method;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * method.hashCode() + targetPoints;
+    }
+
+    @Override
+    public String toString() {
+        return "Downsampling{" +
+                "method=" + method +
+                ", targetPoints=" + targetPoints +
+                '}';
+    }
+}
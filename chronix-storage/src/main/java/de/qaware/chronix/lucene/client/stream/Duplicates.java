@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+/**
+ * Defines how points with the same timestamp are handled when the chunks of a time series are merged.
+ */
+public enum Duplicates {
+    /**
+     * All points are kept
+     */
+    KEEP_ALL,
+    /**
+     * The point of the chunk with the lowest start is kept
+     */
+    KEEP_FIRST,
+    /**
+     * The point of the chunk with the highest start is kept, e.g. a later correction of a value
+     */
+    KEEP_LAST
+}
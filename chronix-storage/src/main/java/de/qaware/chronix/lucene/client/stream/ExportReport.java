@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+/**
+ * The result of an export
+ */
+public final class ExportReport {
+
+    private final long chunks;
+    private final long rawChunks;
+    private final long points;
+    private final long bytes;
+
+    /**
+     * Constructs an export report
+     *
+     * @param chunks    the number of exported chunks
+     * @param rawChunks the number of chunks whose stored data is passed through unchanged
+     * @param points    the number of points of the chunks that are exported as columns
+     * @param bytes     the number of bytes written
+     */
+    ExportReport(long chunks, long rawChunks, long points, long bytes) {
+        this.chunks = chunks;
+        this.rawChunks = rawChunks;
+        this.points = points;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the number of exported chunks
+     */
+    public long getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the number of chunks whose stored data is passed through unchanged
+     */
+    public long getRawChunks() {
+        return rawChunks;
+    }
+
+    /**
+     * @return the number of points of the chunks that are exported as columns
+     */
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportReport{" +
+                "chunks=" + chunks +
+                ", rawChunks=" + rawChunks +
+                ", points=" + points +
+                ", bytes=" + bytes +
+                '}';
+    }
+}
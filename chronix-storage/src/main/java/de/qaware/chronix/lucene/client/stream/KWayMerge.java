@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import java.util.List;
+
+/**
+ * Merges the time ordered points of chunks into one time ordered sequence.
+ * The chunks are expected in the order of their start and their points sorted by timestamp.
+ * <p>
+ * Chunks that do not overlap are appended. Otherwise the chunks are merged with a binary heap,
+ * hence merging n points of k chunks takes O(n log k) instead of sorting them again and again.
+ */
+final class KWayMerge {
+
+    private KWayMerge() {
+        //Avoid instances
+    }
+
+    /**
+     * Merges the chunks into the given columns
+     *
+     * @param timestamps the timestamps of each chunk
+     * @param values     the values of each chunk
+     * @param duplicates the handling of points with the same timestamp
+     * @param merged     the columns to add the merged points
+     */
+    static void merge(List<long[]> timestamps, List<double[]> values, Duplicates duplicates, PointColumns merged) {
+        int total = 0;
+        boolean overlapping = false;
+        for (int chunk = 0; chunk < timestamps.size(); chunk++) {
+            long[] chunkTimestamps = timestamps.get(chunk);
+            total += chunkTimestamps.length;
+            if (chunk > 0 && chunkTimestamps.length > 0 && lastTimestamp(timestamps, chunk) >= chunkTimestamps[0]) {
+                overlapping = true;
+            }
+        }
+        merged.ensureCapacity(merged.size() + total);
+
+        if (!overlapping && duplicates == Duplicates.KEEP_ALL) {
+            for (int chunk = 0; chunk < timestamps.size(); chunk++) {
+                merged.add(timestamps.get(chunk), values.get(chunk), 0, timestamps.get(chunk).length);
+            }
+            return;
+        }
+        heapMerge(timestamps, values, duplicates, merged);
+    }
+
+    /**
+     * @return the last timestamp of the chunks before the given chunk
+     */
+    private static long lastTimestamp(List<long[]> timestamps, int chunk) {
+        for (int before = chunk - 1; before >= 0; before--) {
+            long[] beforeTimestamps = timestamps.get(before);
+            if (beforeTimestamps.length > 0) {
+                return beforeTimestamps[beforeTimestamps.length - 1];
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static void heapMerge(List<long[]> timestamps, List<double[]> values, Duplicates duplicates, PointColumns merged) {
+        int[] positions = new int[timestamps.size()];
+        int[] heap = new int[timestamps.size()];
+        int heapSize = 0;
+        for (int chunk = 0; chunk < timestamps.size(); chunk++) {
+            if (timestamps.get(chunk).length > 0) {
+                heap[heapSize++] = chunk;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, timestamps, positions);
+        }
+
+        int firstOfMerge = merged.size();
+        while (heapSize > 0) {
+            int chunk = heap[0];
+            long timestamp = timestamps.get(chunk)[positions[chunk]];
+            double value = values.get(chunk)[positions[chunk]];
+            add(merged, firstOfMerge, timestamp, value, duplicates);
+
+            positions[chunk]++;
+            if (positions[chunk] == timestamps.get(chunk).length) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0, timestamps, positions);
+        }
+    }
+
+    /**
+     * Adds a point. A point with the same timestamp as the last point is skipped (keep first) or replaces it (keep last).
+     */
+    private static void add(PointColumns merged, int firstOfMerge, long timestamp, double value, Duplicates duplicates) {
+        int last = merged.size() - 1;
+        if (duplicates != Duplicates.KEEP_ALL && last >= firstOfMerge && merged.getTimestamp(last) == timestamp) {
+            if (duplicates == Duplicates.KEEP_LAST) {
+                merged.getValues()[last] = value;
+            }
+            return;
+        }
+        merged.add(timestamp, value);
+    }
+
+    private static void siftDown(int[] heap, int heapSize, int index, List<long[]> timestamps, int[] positions) {
+        int current = index;
+        while (true) {
+            int left = 2 * current + 1;
+            int right = left + 1;
+            int smallest = current;
+            if (left < heapSize && less(heap[left], heap[smallest], timestamps, positions)) {
+                smallest = left;
+            }
+            if (right < heapSize && less(heap[right], heap[smallest], timestamps, positions)) {
+                smallest = right;
+            }
+            if (smallest == current) {
+                return;
+            }
+            int swap = heap[current];
+            heap[current] = heap[smallest];
+            heap[smallest] = swap;
+            current = smallest;
+        }
+    }
+
+    /**
+     * Orders by the current timestamp of the chunks, and on equal timestamps by the order of the chunks.
+     */
+    private static boolean less(int chunk, int other, List<long[]> timestamps, int[] positions) {
+        long timestamp = timestamps.get(chunk)[positions[chunk]];
+        long otherTimestamp = timestamps.get(other)[positions[other]];
+        return timestamp < otherTimestamp || (timestamp == otherTimestamp && chunk < other);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A service class to stream downsampled time series from a lucene index.
+ * <p>
+ * The chunks are decoded and downsampled by the conversion threads of the streaming service.
+ * Only the partial results of the chunks are kept, hence the memory of a query is bounded by
+ * the target number of points and not by the number of raw points.
+ * The partial results of the chunks of a time series are merged instead of reducing the chunks.
+ */
+public final class LuceneDownsamplingService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LuceneDownsamplingService.class);
+
+    private LuceneDownsamplingService() {
+        //Avoid instances
+    }
+
+    /**
+     * Queries lucene and returns the downsampled time series.
+     * The time range of the buckets is the range of the query limited to the range of the indexed chunks.
+     *
+     * @param converter              the columnar converter
+     * @param query                  the lucene query
+     * @param searcher               the index searcher
+     * @param nrOfTimeSeriesPerBatch the number of time series that are read by one query
+     * @param options                the query options with the downsampling
+     * @param groupBy                the function to group the chunks into time series
+     * @param <T>                    the type of the time series
+     * @return a stream of downsampled time series
+     * @throws IOException if the range of the indexed chunks can not be read
+     */
+    public static <T> Stream<T> stream(ColumnarTimeSeriesConverter<T> converter, Query query, IndexSearcher searcher, int nrOfTimeSeriesPerBatch,
+                                       QueryOptions options, Function<T, String> groupBy) throws IOException {
+        long[] queryRange = LuceneStreamingService.queryRange(query);
+        long[] indexRange = indexRange(searcher);
+        long from = Math.max(queryRange[0], indexRange[0]);
+        long to = Math.min(queryRange[1], indexRange[1]);
+        if (from > to) {
+            LOGGER.debug("No chunks within the range of query {}", query);
+            return Stream.empty();
+        }
+        Downsampler downsampler = new Downsampler(options.getDownsampling(), from, to);
+
+        try (LuceneStreamingService<DownsampledChunk<T>> service = new LuceneStreamingService<>(
+                new DownsamplingReader<>(converter, downsampler), query, searcher, nrOfTimeSeriesPerBatch, options)) {
+
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(service, Spliterator.SIZED), false)
+                    .filter(Objects::nonNull)
+                    .collect(groupingBy(chunk -> groupBy.apply(chunk.series), LinkedHashMap::new, toList())).values().stream()
+                    .map(chunks -> finish(converter, downsampler, chunks));
+        }
+    }
+
+    private static <T> T finish(ColumnarTimeSeriesConverter<T> converter, Downsampler downsampler, List<DownsampledChunk<T>> chunks) {
+        PointColumns points = new PointColumns();
+        downsampler.finish(chunks.stream().map(chunk -> chunk.partial).collect(toList()), points);
+        return converter.from(chunks.get(0).attributes, points);
+    }
+
+    /**
+     * @return the min start and the max end of the indexed chunks, or an empty range if there are no chunks
+     */
+    private static long[] indexRange(IndexSearcher searcher) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            PointValues start = leaf.reader().getPointValues(Schema.START);
+            PointValues end = leaf.reader().getPointValues(Schema.END);
+            if (start != null && end != null) {
+                min = Math.min(min, LongPoint.decodeDimension(start.getMinPackedValue(), 0));
+                max = Math.max(max, LongPoint.decodeDimension(end.getMaxPackedValue(), 0));
+            }
+        }
+        return new long[]{min, max};
+    }
+
+    /**
+     * A chunk reduced to its attributes and the partial result of the downsampling
+     */
+    private static final class DownsampledChunk<T> {
+        private final T series;
+        private final BinaryTimeSeries attributes;
+        private final Downsampler.Partial partial;
+
+        private DownsampledChunk(T series, BinaryTimeSeries attributes, Downsampler.Partial partial) {
+            this.series = series;
+            this.attributes = attributes;
+            this.partial = partial;
+        }
+    }
+
+    /**
+     * Decodes a chunk into the (per thread reused) columns and downsamples it
+     */
+    private static final class DownsamplingReader<T> implements ChunkReader<DownsampledChunk<T>> {
+
+        private static final ThreadLocal<PointColumns> COLUMNS = ThreadLocal.withInitial(PointColumns::new);
+
+        private final ColumnarTimeSeriesConverter<T> converter;
+        private final Downsampler downsampler;
+
+        private DownsamplingReader(ColumnarTimeSeriesConverter<T> converter, Downsampler downsampler) {
+            this.converter = converter;
+            this.downsampler = downsampler;
+        }
+
+        @Override
+        public DownsampledChunk<T> from(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+            PointColumns columns = COLUMNS.get();
+            columns.clear();
+            converter.decode(chunk, queryStart, queryEnd, columns);
+            Downsampler.Partial partial = downsampler.partial(columns);
+
+            BinaryTimeSeries attributesOnly = ChunkAttributes.withoutData(chunk);
+            columns.clear();
+            return new DownsampledChunk<>(converter.from(attributesOnly, columns), attributesOnly, partial);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.lucene.client.ChronixQueries;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A service class to export the chunks matching a query to a channel in a columnar binary format
+ * (see {@link ColumnarExportWriter}).
+ * <p>
+ * The export runs in the calling thread and writes one chunk at a time into a buffered block.
+ * Hence no time series object is created and the memory of an export is bounded by the largest chunk.
+ * Chunks that lie within the query range can be passed through with their stored data unchanged,
+ * only the chunks at the borders of the range are decoded and trimmed.
+ */
+public final class LuceneExportingService {
+
+    /**
+     * The default size of the blocks written to the channel
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LuceneExportingService.class);
+
+    private LuceneExportingService() {
+        //Avoid instances
+    }
+
+    /**
+     * Exports the chunks matching the query to the channel. The channel is not closed.
+     *
+     * @param converter   the converter that decodes the points of a chunk
+     * @param query       the lucene query
+     * @param searcher    the index searcher
+     * @param channel     the channel to write to
+     * @param passThrough true to write the stored data of chunks within the query range unchanged.
+     *                    The reader of the export then needs to decode the data like the converter.
+     * @param blockSize   the size of the blocks written to the channel
+     * @return the report of the export
+     * @throws IOException if the search, reading a chunk or writing to the channel fails
+     */
+    public static ExportReport export(ColumnarTimeSeriesConverter<?> converter, Query query, IndexSearcher searcher,
+                                      WritableByteChannel channel, boolean passThrough, int blockSize) throws IOException {
+        long[] range = ChronixQueries.timeRange(query);
+        ColumnarExportWriter writer = new ColumnarExportWriter(channel, blockSize);
+        ExportCollector collector = new ExportCollector(converter, range[0], range[1], passThrough, writer);
+
+        //Keep the reader open until the export is done
+        searcher.getIndexReader().incRef();
+        try {
+            writer.begin();
+            searcher.search(query, TimeRangePruningCollector.wrap(collector, query));
+            writer.end();
+        } finally {
+            searcher.getIndexReader().decRef();
+        }
+        ExportReport report = new ExportReport(collector.chunks, collector.rawChunks, collector.points, writer.getBytes());
+        LOGGER.debug("Exported {} for query {}", report, query);
+        return report;
+    }
+
+    /**
+     * Reads each collected chunk and writes it either raw or as columns
+     */
+    private static final class ExportCollector extends SimpleCollector {
+
+        private final ColumnarTimeSeriesConverter<?> converter;
+        private final long queryStart;
+        private final long queryEnd;
+        private final boolean passThrough;
+        private final boolean byteBuffers;
+        private final ColumnarExportWriter writer;
+        private final PointColumns columns = new PointColumns();
+
+        private LeafReader reader;
+        private long chunks;
+        private long rawChunks;
+        private long points;
+
+        private ExportCollector(ColumnarTimeSeriesConverter<?> converter, long queryStart, long queryEnd, boolean passThrough, ColumnarExportWriter writer) {
+            this.converter = converter;
+            this.queryStart = queryStart;
+            this.queryEnd = queryEnd;
+            this.passThrough = passThrough;
+            this.byteBuffers = converter instanceof ByteBufferTimeSeriesConverter;
+            this.writer = writer;
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) {
+            reader = context.reader();
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            TimeSeriesFieldVisitor visitor = new TimeSeriesFieldVisitor(byteBuffers);
+            reader.document(doc, visitor);
+            BinaryTimeSeries chunk = visitor.build();
+
+            ByteBuffer data = passThrough ? data(chunk) : null;
+            if (data != null && withinRange(chunk)) {
+                writer.writeRaw(chunk, data);
+                rawChunks++;
+            } else {
+                columns.clear();
+                converter.decode(chunk, queryStart, queryEnd, columns);
+                writer.writeColumns(chunk, columns.getTimestamps(), columns.getValues(), columns.size());
+                points += columns.size();
+            }
+            chunks++;
+        }
+
+        private static ByteBuffer data(BinaryTimeSeries chunk) {
+            Object data = chunk.get(Schema.DATA);
+            if (data instanceof byte[]) {
+                return ByteBuffer.wrap((byte[]) data);
+            }
+            return data instanceof ByteBuffer ? ((ByteBuffer) data).duplicate() : null;
+        }
+
+        private boolean withinRange(BinaryTimeSeries chunk) {
+            Object start = chunk.get(Schema.START);
+            Object end = chunk.get(Schema.END);
+            return start instanceof Number && end instanceof Number
+                    && ((Number) start).longValue() >= queryStart && ((Number) end).longValue() <= queryEnd;
+        }
+
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A service class to stream time series whose chunks are merged in time order.
+ * <p>
+ * The chunks are decoded into primitive columns by the conversion threads of the streaming service.
+ * The chunks of a time series are ordered by their start and merged with one k-way merge into a buffer
+ * that is sized for all points. Hence a time series of many chunks is built in linear time,
+ * instead of growing and sorting it with every pairwise reduce.
+ */
+public final class LuceneMergingService {
+
+    private LuceneMergingService() {
+        //Avoid instances
+    }
+
+    /**
+     * Queries lucene and returns the time series with their chunks merged.
+     *
+     * @param converter              the columnar converter
+     * @param query                  the lucene query
+     * @param searcher               the index searcher
+     * @param nrOfTimeSeriesPerBatch the number of time series that are read by one query
+     * @param options                the query options with the handling of duplicates
+     * @param groupBy                the function to group the chunks into time series
+     * @param <T>                    the type of the time series
+     * @return a stream of time series
+     */
+    public static <T> Stream<T> stream(ColumnarTimeSeriesConverter<T> converter, Query query, IndexSearcher searcher, int nrOfTimeSeriesPerBatch,
+                                       QueryOptions options, Function<T, String> groupBy) {
+
+        try (LuceneStreamingService<DecodedChunk<T>> service = new LuceneStreamingService<>(
+                new DecodingReader<>(converter), query, searcher, nrOfTimeSeriesPerBatch, options)) {
+
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(service, Spliterator.SIZED), false)
+                    .filter(Objects::nonNull)
+                    .collect(groupingBy(chunk -> groupBy.apply(chunk.series), LinkedHashMap::new, toList())).values().stream()
+                    .map(chunks -> merge(converter, chunks, options.getMergeChunks()));
+        }
+    }
+
+    private static <T> T merge(ColumnarTimeSeriesConverter<T> converter, List<DecodedChunk<T>> chunks, Duplicates duplicates) {
+        List<DecodedChunk<T>> ordered = new ArrayList<>(chunks);
+        ordered.sort(Comparator.comparingLong(chunk -> chunk.start));
+
+        List<long[]> timestamps = new ArrayList<>(ordered.size());
+        List<double[]> values = new ArrayList<>(ordered.size());
+        ordered.forEach(chunk -> {
+            timestamps.add(chunk.timestamps);
+            values.add(chunk.values);
+        });
+        PointColumns merged = new PointColumns(0);
+        KWayMerge.merge(timestamps, values, duplicates, merged);
+        return converter.from(ordered.get(0).attributes, merged);
+    }
+
+    /**
+     * A chunk decoded into columns of its exact size
+     */
+    private static final class DecodedChunk<T> {
+        private final T series;
+        private final BinaryTimeSeries attributes;
+        private final long start;
+        private final long[] timestamps;
+        private final double[] values;
+
+        private DecodedChunk(T series, BinaryTimeSeries attributes, long start, long[] timestamps, double[] values) {
+            this.series = series;
+            this.attributes = attributes;
+            this.start = start;
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Decodes a chunk into the (per thread reused) columns and copies them with their exact size
+     */
+    private static final class DecodingReader<T> implements ChunkReader<DecodedChunk<T>> {
+
+        private static final ThreadLocal<PointColumns> COLUMNS = ThreadLocal.withInitial(PointColumns::new);
+
+        private final ColumnarTimeSeriesConverter<T> converter;
+
+        private DecodingReader(ColumnarTimeSeriesConverter<T> converter) {
+            this.converter = converter;
+        }
+
+        @Override
+        public DecodedChunk<T> from(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+            PointColumns columns = COLUMNS.get();
+            columns.clear();
+            converter.decode(chunk, queryStart, queryEnd, columns);
+            long[] timestamps = Arrays.copyOf(columns.getTimestamps(), columns.size());
+            double[] values = Arrays.copyOf(columns.getValues(), columns.size());
+
+            Object start = chunk.get(Schema.START);
+            long chunkStart = start instanceof Number ? ((Number) start).longValue() : (timestamps.length > 0 ? timestamps[0] : Long.MAX_VALUE);
+
+            BinaryTimeSeries attributes = ChunkAttributes.withoutData(chunk);
+            columns.clear();
+            return new DecodedChunk<>(converter.from(attributes, columns), attributes, chunkStart, timestamps, values);
+        }
+    }
+}
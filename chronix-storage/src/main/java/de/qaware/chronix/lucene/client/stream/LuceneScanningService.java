@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * A service class to scan the points of the chunks matching a query as primitive columns.
+ * <p>
+ * The scan runs in the calling thread. The chunks are read and decoded while the search collects them,
+ * one chunk at a time into reused columns. Hence no time series object is created and the memory
+ * of a scan is bounded by the largest chunk.
+ */
+public final class LuceneScanningService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LuceneScanningService.class);
+
+    private LuceneScanningService() {
+        //Avoid instances
+    }
+
+    /**
+     * Scans the chunks matching the query and passes their points to the sink.
+     *
+     * @param converter the converter that decodes the points of a chunk
+     * @param query     the lucene query
+     * @param searcher  the index searcher
+     * @param sink      the sink receiving the points of each chunk
+     * @return the number of scanned chunks
+     * @throws IOException if the search or reading a chunk fails
+     */
+    public static long scan(ColumnarTimeSeriesConverter<?> converter, Query query, IndexSearcher searcher, ColumnarSink sink) throws IOException {
+        long[] range = LuceneStreamingService.queryRange(query);
+        ScanCollector collector = new ScanCollector(converter, range[0], range[1], sink);
+
+        //Keep the reader open until the scan is done
+        searcher.getIndexReader().incRef();
+        try {
+            searcher.search(query, TimeRangePruningCollector.wrap(collector, query));
+        } finally {
+            searcher.getIndexReader().decRef();
+        }
+        LOGGER.debug("Scanned {} chunks with {} points for query {}", collector.chunks, collector.points, query);
+        return collector.chunks;
+    }
+
+    /**
+     * Reads and decodes each collected chunk
+     */
+    private static final class ScanCollector extends SimpleCollector {
+
+        private final ColumnarTimeSeriesConverter<?> converter;
+        private final long queryStart;
+        private final long queryEnd;
+        private final ColumnarSink sink;
+        private final boolean byteBuffers;
+        private final PointColumns columns = new PointColumns();
+
+        private LeafReader reader;
+        private long chunks;
+        private long points;
+
+        private ScanCollector(ColumnarTimeSeriesConverter<?> converter, long queryStart, long queryEnd, ColumnarSink sink) {
+            this.converter = converter;
+            this.queryStart = queryStart;
+            this.queryEnd = queryEnd;
+            this.sink = sink;
+            this.byteBuffers = converter instanceof ByteBufferTimeSeriesConverter;
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) {
+            reader = context.reader();
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            TimeSeriesFieldVisitor visitor = new TimeSeriesFieldVisitor(byteBuffers);
+            reader.document(doc, visitor);
+            BinaryTimeSeries chunk = visitor.build();
+
+            columns.clear();
+            converter.decode(chunk, queryStart, queryEnd, columns);
+            sink.accept(chunk, columns.getTimestamps(), columns.getValues(), columns.size());
+            chunks++;
+            points += columns.size();
+        }
+
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+    }
+}
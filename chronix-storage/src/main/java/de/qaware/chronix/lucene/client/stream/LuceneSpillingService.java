@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.TimeSeriesConverter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A service class to stream time series whose grouping is bounded by the memory budget of the query.
+ * <p>
+ * The conversion threads of the streaming service estimate the size of each converted chunk from its stored fields.
+ * The chunks are grouped and reduced as usual. If the estimated size of the buffered time series exceeds the budget,
+ * they are spilled to temporary files, or the query fails, depending on the {@link Overflow} of the options.
+ * A failed query releases all its resources, hence one query can not exhaust the heap of the node.
+ * <p>
+ * Spilling converts the buffered time series back into binary time series, hence the converter has to support both directions.
+ */
+public final class LuceneSpillingService {
+
+    private LuceneSpillingService() {
+        //Avoid instances
+    }
+
+    /**
+     * Queries lucene and returns the grouped and reduced time series within the memory budget of the options.
+     *
+     * @param converter              the time series converter
+     * @param query                  the lucene query
+     * @param searcher               the index searcher
+     * @param nrOfTimeSeriesPerBatch the number of time series that are read by one query
+     * @param options                the query options with the memory budget
+     * @param groupBy                the function to group the chunks into time series
+     * @param reduce                 the function to reduce the grouped chunks into one time series
+     * @param <T>                    the type of the time series
+     * @return a stream of time series, the spill files are deleted when it is consumed or closed
+     * @throws QueryMemoryExceededException if the budget is exceeded and the query must not spill, or can not spill
+     */
+    public static <T> Stream<T> stream(TimeSeriesConverter<T> converter, Query query, IndexSearcher searcher, int nrOfTimeSeriesPerBatch,
+                                       QueryOptions options, Function<T, String> groupBy, BinaryOperator<T> reduce) {
+
+        long[] range = LuceneStreamingService.queryRange(query);
+        SpillingGrouper<T> grouper = new SpillingGrouper<>(converter, groupBy, reduce, options, range[0], range[1]);
+
+        try (LuceneStreamingService<SizedChunk<T>> service = new LuceneStreamingService<>(
+                new SizingReader<>(ChunkReader.of(converter)), query, searcher, nrOfTimeSeriesPerBatch, options)) {
+
+            while (service.hasNext()) {
+                SizedChunk<T> chunk = service.next();
+                if (chunk != null && chunk.series != null) {
+                    grouper.add(chunk.series, chunk.bytes);
+                }
+            }
+        } catch (RuntimeException e) {
+            grouper.close();
+            throw e;
+        }
+        return grouper.stream();
+    }
+
+    /**
+     * A converted chunk and its estimated size
+     */
+    private static final class SizedChunk<T> {
+        private final T series;
+        private final long bytes;
+
+        private SizedChunk(T series, long bytes) {
+            this.series = series;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Converts a chunk and estimates its size
+     */
+    private static final class SizingReader<T> implements ChunkReader<SizedChunk<T>> {
+
+        private final ChunkReader<T> reader;
+
+        private SizingReader(ChunkReader<T> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public SizedChunk<T> from(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+            return new SizedChunk<>(reader.from(chunk, queryStart, queryEnd), SpillingGrouper.estimate(chunk));
+        }
+
+        @Override
+        public boolean readsByteBuffers() {
+            //keeps the byte buffer views of the stored fields for converters that read them
+            return reader.readsByteBuffers();
+        }
+    }
+}
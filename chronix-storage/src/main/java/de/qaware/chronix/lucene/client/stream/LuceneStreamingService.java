@@ -22,25 +22,59 @@ import com.google.common.util.concurrent.MoreExecutors;
 import de.qaware.chronix.Schema;
 import de.qaware.chronix.converter.TimeSeriesConverter;
 import de.qaware.chronix.lucene.client.stream.date.DateQueryParser;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.EarlyTerminatingSortingCollector;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHitCountCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * The lucene streaming service let one stream data from a lucene index.
+ * <p>
+ * The service holds a reference on the index reader and a thread pool for the conversion.
+ * Both are released when the service is closed. This is done automatically when the last element is returned.
+ * Closing the service early cancels the search and the pending conversions.
+ * <p>
+ * If the query options define a sort or a limit, the top chunks are searched at once
+ * and returned in the order of the sort. Otherwise the chunks are searched in batches
+ * and returned in the order they are converted.
  *
  * @param <T> type of the returned class
  * @author f.lautenschlager
  */
-public class LuceneStreamingService<T> implements Iterator<T> {
+public class LuceneStreamingService<T> implements Iterator<T>, Closeable {
 
     /**
      * The class logger
@@ -54,9 +88,9 @@ public class LuceneStreamingService<T> implements Iterator<T> {
     private final IndexSearcher searcher;
 
     /**
-     * Converter for converting the documents
+     * Reader for converting the documents
      */
-    private final TimeSeriesConverter<T> converter;
+    private final ChunkReader<T> reader;
 
     /**
      * Query parameters
@@ -64,12 +98,23 @@ public class LuceneStreamingService<T> implements Iterator<T> {
     private int nrOfTimeSeriesPerBatch;
     private long nrOfAvailableTimeSeries = -1;
     private int currentDocumentCount = 0;
+    private ScoreDoc lastHit;
 
 
     /**
      * The executor service to do the work asynchronously
      */
     private final ListeningExecutorService service = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+    private final Set<Future<?>> pendingConversions = ConcurrentHashMap.newKeySet();
+    private final Deque<ListenableFuture<T>> orderedConversions = new ArrayDeque<>();
+
+    /**
+     * Deadline and cancellation of the query
+     */
+    private final QueryOptions options;
+    private final long deadline;
+    private final long clockBaseline;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
 
     /**
@@ -89,28 +134,71 @@ public class LuceneStreamingService<T> implements Iterator<T> {
      * @param nrOfTimeSeriesPerBatch - the number of time series that are read by one query
      */
     public LuceneStreamingService(TimeSeriesConverter<T> converter, Query query, IndexSearcher searcher, int nrOfTimeSeriesPerBatch) {
-        this.converter = converter;
+        this(converter, query, searcher, nrOfTimeSeriesPerBatch, new QueryOptions());
+    }
+
+    /**
+     * Constructs a streaming service
+     *
+     * @param converter              - the converter to convert documents
+     * @param query                  - the lucene query
+     * @param searcher               - the index search
+     * @param nrOfTimeSeriesPerBatch - the number of time series that are read by one query
+     * @param options                - the query options, e.g. the deadline
+     */
+    public LuceneStreamingService(TimeSeriesConverter<T> converter, Query query, IndexSearcher searcher, int nrOfTimeSeriesPerBatch, QueryOptions options) {
+        this(ChunkReader.of(converter), query, searcher, nrOfTimeSeriesPerBatch, options);
+    }
+
+    /**
+     * Constructs a streaming service that hands the chunks to a read-only reader
+     *
+     * @param reader                 - the reader of the chunks
+     * @param query                  - the lucene query
+     * @param searcher               - the index search
+     * @param nrOfTimeSeriesPerBatch - the number of time series that are read by one query
+     * @param options                - the query options, e.g. the deadline
+     */
+    public LuceneStreamingService(ChunkReader<T> reader, Query query, IndexSearcher searcher, int nrOfTimeSeriesPerBatch, QueryOptions options) {
+        this.reader = reader;
         this.query = query;
         this.searcher = searcher;
         this.nrOfTimeSeriesPerBatch = nrOfTimeSeriesPerBatch;
-        this.timeSeriesHandler = new TimeSeriesHandler<>(200);
+        this.options = options;
+        this.timeSeriesHandler = new TimeSeriesHandler<>(nrOfTimeSeriesPerBatch);
+        this.deadline = options.hasTimeout() ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.getTimeoutMs()) : Long.MAX_VALUE;
+        this.clockBaseline = options.hasTimeout() ? TimeLimitingCollector.getGlobalCounter().get() : 0;
+        //Keep the reader open until the query is done
+        searcher.getIndexReader().incRef();
         parseDates(query);
     }
 
     private void parseDates(Query query) {
+        long[] startAndEnd = queryRange(query);
+        this.queryStart = startAndEnd[0];
+        this.queryEnd = startAndEnd[1];
+    }
+
+    /**
+     * Parses the start and the end of the query to filter points on client side
+     * and to skip the parts of an index that are out of range.
+     *
+     * @param query the lucene query
+     * @return the start (default 0) and the end (default Long.MAX_VALUE) of the query
+     */
+    public static long[] queryRange(Query query) {
         DateQueryParser dateRangeParser = new DateQueryParser(new String[]{Schema.START, Schema.END});
-        long[] startAndEnd = new long[0];
+        long[] startAndEnd = new long[]{-1, -1};
         try {
             startAndEnd = dateRangeParser.getNumericQueryTerms(query.toString());
 
         } catch (ParseException e) {
             LOGGER.warn("Could not parse start or end", e);
         }
-        this.queryStart = or(startAndEnd[0], -1, 0);
-        this.queryEnd = or(startAndEnd[1], -1, Long.MAX_VALUE);
+        return new long[]{or(startAndEnd[0], -1, 0), or(startAndEnd[1], -1, Long.MAX_VALUE)};
     }
 
-    private long or(long value, long condition, long or) {
+    private static long or(long value, long condition, long or) {
         if (value == condition) {
             return or;
         } else {
@@ -120,37 +208,257 @@ public class LuceneStreamingService<T> implements Iterator<T> {
 
     @Override
     public boolean hasNext() {
+        if (closed.get()) {
+            return false;
+        }
         if (nrOfAvailableTimeSeries == -1) {
             try {
-                nrOfAvailableTimeSeries = searcher.count(query);
+                if (isOrdered()) {
+                    nrOfAvailableTimeSeries = searchTopHits();
+                } else {
+                    nrOfAvailableTimeSeries = count();
+                }
             } catch (IOException e) {
                 LOGGER.error("Could not count the found documents", e);
             }
         }
 
-        return currentDocumentCount < nrOfAvailableTimeSeries;
+        boolean hasNext = currentDocumentCount < nrOfAvailableTimeSeries;
+        if (!hasNext) {
+            close();
+        }
+        return hasNext;
     }
 
     @Override
     public T next() {
+        if (isOrdered()) {
+            currentDocumentCount++;
+            return takeOrdered();
+        }
         if (currentDocumentCount % nrOfTimeSeriesPerBatch == 0) {
             try {
-                ScoreDoc[] hits = searcher.search(query, nrOfTimeSeriesPerBatch).scoreDocs;
+                ScoreDoc after = lastHit;
+                ScoreDoc[] hits = search(() -> TopScoreDocCollector.create(nrOfTimeSeriesPerBatch, after), collector -> collector,
+                        collectors -> TopDocs.merge(nrOfTimeSeriesPerBatch, topDocs(collectors))).scoreDocs;
+                if (hits.length > 0) {
+                    lastHit = hits[hits.length - 1];
+                }
                 convertHits(hits);
             } catch (IOException e) {
                 LOGGER.info("Could not search documents");
             }
         }
         currentDocumentCount++;
-        return timeSeriesHandler.take();
+        return take();
+    }
+
+    /**
+     * Closes the service. Cancels the pending conversions, stops the thread pool,
+     * drops the buffered time series and releases the index reader.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.debug("Closing streaming service. Cancelling {} pending conversions.", pendingConversions.size());
+        pendingConversions.forEach(future -> future.cancel(true));
+        service.shutdownNow();
+        timeSeriesHandler.close();
+        orderedConversions.clear();
+        try {
+            searcher.getIndexReader().decRef();
+        } catch (IOException e) {
+            LOGGER.error("Could not release the index reader", e);
+        }
     }
 
+    /**
+     * @return true if the chunks are returned in the order of a sort or limited
+     */
+    private boolean isOrdered() {
+        return options.hasSort() || options.hasLimit();
+    }
+
+    /**
+     * @return the number of documents matching the query
+     * @throws IOException if the search fails
+     */
+    private int count() throws IOException {
+        return search(TotalHitCountCollector::new, counter -> counter,
+                counters -> counters.stream().mapToInt(TotalHitCountCollector::getTotalHits).sum());
+    }
 
-    private void convertHits(ScoreDoc[] hits) throws IOException {
+    /**
+     * Searches the top hits (by sort and limit) and starts their conversion.
+     * The sort is done on doc values, hence no stored field of a not returned document is loaded.
+     * On segments that are sorted by the same sort, the search terminates after the limit.
+     *
+     * @return the number of top hits
+     * @throws IOException if the search fails
+     */
+    private int searchTopHits() throws IOException {
+        int nrOfHits = options.hasLimit() ? options.getLimit() : count();
+        if (nrOfHits == 0) {
+            return 0;
+        }
+        ScoreDoc[] hits;
+        if (options.hasSort()) {
+            Sort sort = options.getSort();
+            hits = search(() -> TopFieldCollector.create(sort, nrOfHits, true, false, false),
+                    collector -> new EarlyTerminatingSortingCollector(collector, sort, nrOfHits),
+                    collectors -> TopDocs.merge(sort, nrOfHits, collectors.stream().map(TopFieldCollector::topDocs).toArray(TopFieldDocs[]::new))).scoreDocs;
+        } else {
+            hits = search(() -> TopScoreDocCollector.create(nrOfHits), collector -> collector,
+                    collectors -> TopDocs.merge(nrOfHits, topDocs(collectors))).scoreDocs;
+        }
+        convertHits(hits);
+        return hits.length;
+    }
+
+    /**
+     * Takes the next converted time series in the order of the top hits. Waits at most until the deadline.
+     *
+     * @return the next time series, or null if the document could not be converted
+     */
+    private T takeOrdered() {
+        ListenableFuture<T> future = orderedConversions.poll();
+        if (future == null) {
+            return null;
+        }
+        long timeoutNanos = options.hasTimeout() ? deadline - System.nanoTime() : TimeUnit.MINUTES.toNanos(1);
+        try {
+            return future.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (options.hasTimeout()) {
+                close();
+                throw new QueryTimeoutException("Query " + query + " exceeded its deadline of " + options.getTimeoutMs() + " ms while converting", e);
+            }
+            LOGGER.warn("Conversion did not finish within one minute. Returning null value to callee.", e);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Exception occurred while converting documents.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for converted time series. Stopping.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Searches the query with a collector per slice of the index and reduces the collectors.
+     * The slices are searched concurrently if the searcher has an executor.
+     * The segments outside the time range of the query are skipped.
+     * The search is stopped if the service is closed or the deadline is exceeded.
+     *
+     * @param newCollector creates the collector of a slice
+     * @param wrap         wraps the collector of a slice, e.g. to terminate early
+     * @param reduce       reduces the collectors of the slices into the result
+     * @param <C>          the type of the collector
+     * @param <R>          the type of the result
+     * @return the result of the search
+     * @throws IOException if the search fails
+     */
+    private <C extends Collector, R> R search(Supplier<C> newCollector, Function<C, Collector> wrap, Function<List<C>, R> reduce) throws IOException {
+        //the searcher creates the collectors in the calling thread and in the order of the slices
+        List<C> collectors = new ArrayList<>();
+        CollectorManager<Collector, R> manager = new CollectorManager<Collector, R>() {
+            @Override
+            public Collector newCollector() {
+                C collector = newCollector.get();
+                collectors.add(collector);
+                return guard(wrap.apply(collector));
+            }
+
+            @Override
+            public R reduce(Collection<Collector> guarded) {
+                return reduce.apply(collectors);
+            }
+        };
+
+        long start = System.nanoTime();
+        try {
+            return searcher.search(query, manager);
+        } catch (TimeLimitingCollector.TimeExceededException e) {
+            throw timeout(e);
+        } catch (RuntimeException e) {
+            //a failed slice of a concurrent search is wrapped
+            if (e.getCause() instanceof ExecutionException && e.getCause().getCause() instanceof TimeLimitingCollector.TimeExceededException) {
+                throw timeout(e.getCause().getCause());
+            }
+            if (e.getCause() instanceof ExecutionException && e.getCause().getCause() instanceof CancellationException) {
+                throw (CancellationException) e.getCause().getCause();
+            }
+            throw e;
+        } finally {
+            if (options.hasProfile()) {
+                options.getProfile().searched(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Wraps the collector of a slice with the pruning of segments, the profile, the cancellation and the deadline
+     */
+    private Collector guard(Collector collector) {
+        Collector pruned = TimeRangePruningCollector.wrap(collector, query, options.getProfile());
+        Collector profiled = options.hasProfile() ? new ProfilingCollector(pruned, options.getProfile()) : pruned;
+        Collector guarded = new CancellableCollector(profiled, closed::get);
+        if (options.hasTimeout()) {
+            TimeLimitingCollector timeLimited = new TimeLimitingCollector(guarded, TimeLimitingCollector.getGlobalCounter(), options.getTimeoutMs());
+            timeLimited.setBaseline(clockBaseline);
+            guarded = timeLimited;
+        }
+        return guarded;
+    }
+
+    private QueryTimeoutException timeout(Throwable cause) {
+        close();
+        return new QueryTimeoutException("Query " + query + " exceeded its deadline of " + options.getTimeoutMs() + " ms while searching", cause);
+    }
+
+    private static TopDocs[] topDocs(List<? extends TopDocsCollector<?>> collectors) {
+        return collectors.stream().map(collector -> collector.topDocs()).toArray(TopDocs[]::new);
+    }
+
+    /**
+     * Takes the next converted time series. Waits at most until the deadline.
+     *
+     * @return the next time series, or null if the document could not be converted
+     */
+    private T take() {
+        if (!options.hasTimeout()) {
+            return timeSeriesHandler.take();
+        }
+        long remaining = deadline - System.nanoTime();
+        T timeSeries = remaining > 0 ? timeSeriesHandler.take(remaining, TimeUnit.NANOSECONDS) : null;
+        if (timeSeries == null && System.nanoTime() - deadline >= 0) {
+            close();
+            throw new QueryTimeoutException("Query " + query + " exceeded its deadline of " + options.getTimeoutMs() + " ms while converting", null);
+        }
+        return timeSeries;
+    }
+
+
+    /**
+     * Starts the conversion of the hits. The stored fields are read by the conversion threads.
+     *
+     * @param hits the hits
+     */
+    private void convertHits(ScoreDoc[] hits) {
         for (ScoreDoc hit : hits) {
-            Document hitDoc = searcher.doc(hit.doc);
-            ListenableFuture<T> future = service.submit(new TimeSeriesConverterCaller<>(hitDoc, converter, queryStart, queryEnd));
-            Futures.addCallback(future, timeSeriesHandler);
+            if (closed.get()) {
+                return;
+            }
+            ListenableFuture<T> future = service.submit(new TimeSeriesConverterCaller<>(searcher, hit.doc, reader, queryStart, queryEnd)
+                    .setProfile(options.getProfile()));
+            pendingConversions.add(future);
+            future.addListener(() -> pendingConversions.remove(future), MoreExecutors.directExecutor());
+            if (isOrdered()) {
+                orderedConversions.add(future);
+            } else {
+                Futures.addCallback(future, timeSeriesHandler);
+            }
         }
     }
 
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+/**
+ * Defines what happens if the time series buffered by a query exceed its memory budget.
+ */
+public enum Overflow {
+
+    /**
+     * The buffered time series are spilled to temporary files and merged back while they are streamed
+     */
+    SPILL,
+
+    /**
+     * The query fails with a {@link QueryMemoryExceededException}
+     */
+    FAIL
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.util.Arrays;
+
+/**
+ * Growable primitive columns (timestamps and values) of the points of a chunk.
+ * The columns are reused for all chunks of a scan, hence decoding does not box points
+ * and does not allocate once the columns are large enough.
+ * <p>
+ * The arrays returned by {@link #getTimestamps()} and {@link #getValues()} are the backing arrays.
+ * They are only valid up to {@link #size()} and until the columns are changed.
+ */
+public final class PointColumns {
+
+    private static final int DEFAULT_CAPACITY = 128;
+
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    /**
+     * Constructs empty columns with the default capacity
+     */
+    public PointColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs empty columns
+     *
+     * @param capacity the initial capacity
+     */
+    public PointColumns(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Appends a point
+     *
+     * @param timestamp the timestamp of the point
+     * @param value     the value of the point
+     */
+    public void add(long timestamp, double value) {
+        grow(size + 1);
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Appends the points of the given columns
+     *
+     * @param timestamps the timestamps
+     * @param values     the values
+     * @param offset     the index of the first point
+     * @param length     the number of points
+     */
+    public void add(long[] timestamps, double[] values, int offset, int length) {
+        grow(size + length);
+        System.arraycopy(timestamps, offset, this.timestamps, size, length);
+        System.arraycopy(values, offset, this.values, size, length);
+        size += length;
+    }
+
+    /**
+     * Grows the columns to exactly the given number of points, if they can not hold them.
+     * Used to pre-size the columns if the number of points is known.
+     *
+     * @param capacity the number of points
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    /**
+     * Grows the columns with some head room, if they can not hold the given number of points.
+     *
+     * @param capacity the number of points
+     */
+    private void grow(int capacity) {
+        if (capacity > timestamps.length) {
+            timestamps = ArrayUtil.grow(timestamps, capacity);
+            values = ArrayUtil.grow(values, capacity);
+        }
+    }
+
+    /**
+     * Removes all points. The capacity is kept.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the index of the point
+     * @return the timestamp of the point
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @param index the index of the point
+     * @return the value of the point
+     */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the backing array of the timestamps, valid up to {@link #size()}
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the backing array of the values, valid up to {@link #size()}
+     */
+    public double[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import java.util.List;
+
+/**
+ * The time series of a query together with its execution profile
+ *
+ * @param <T> the type of the time series
+ */
+public final class ProfiledResult<T> {
+
+    private final List<T> timeSeries;
+    private final QueryProfile profile;
+
+    /**
+     * Constructs a profiled result
+     *
+     * @param timeSeries the time series
+     * @param profile    the profile of the query
+     */
+    public ProfiledResult(List<T> timeSeries, QueryProfile profile) {
+        this.timeSeries = timeSeries;
+        this.profile = profile;
+    }
+
+    /**
+     * @return the time series of the query
+     */
+    public List<T> getTimeSeries() {
+        return timeSeries;
+    }
+
+    /**
+     * @return the execution profile of the query
+     */
+    public QueryProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        return "ProfiledResult{" +
+                "timeSeries=" + timeSeries.size() +
+                ", profile=" + profile +
+                '}';
+    }
+}
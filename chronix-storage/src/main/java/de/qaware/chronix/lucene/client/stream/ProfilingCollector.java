@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collector that records the visited segments and their matching documents in the query profile.
+ */
+final class ProfilingCollector extends FilterCollector {
+
+    private final QueryProfile profile;
+
+    /**
+     * Constructs a profiling collector
+     *
+     * @param in      the wrapped collector
+     * @param profile the profile of the query
+     */
+    ProfilingCollector(Collector in, QueryProfile profile) {
+        super(in);
+        this.profile = profile;
+    }
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+        LongAdder matched = profile.segment(context.ord, context.reader().maxDoc());
+        return new FilterLeafCollector(super.getLeafCollector(context)) {
+            @Override
+            public void collect(int doc) throws IOException {
+                matched.increment();
+                super.collect(doc);
+            }
+        };
+    }
+}
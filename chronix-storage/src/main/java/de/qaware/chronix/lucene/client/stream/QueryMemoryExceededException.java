@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+/**
+ * Thrown if a query exceeds its memory budget and can not (or must not) spill.
+ */
+public class QueryMemoryExceededException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a query memory exceeded exception
+     *
+     * @param message the detail message
+     * @param cause   the cause, may be null
+     */
+    public QueryMemoryExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per query options of the streaming service.
+ * The options should be configured once before the query is executed.
+ */
+public final class QueryOptions {
+
+    private long timeoutMs = -1;
+    private int limit = -1;
+    private Sort sort;
+    private Downsampling downsampling;
+    private Duplicates mergeChunks;
+    private long memoryBudget = -1;
+    private Overflow overflow = Overflow.SPILL;
+    private Path spillDirectory;
+    private QueryProfile profile;
+    private boolean coalesce;
+
+    /**
+     * Creates the options for a "latest N chunks" query: The chunks are sorted descending by end
+     * and at most the given number of chunks is read.
+     *
+     * @param nrOfChunks the max number of chunks
+     * @return query options with sort and limit
+     */
+    public static QueryOptions latest(int nrOfChunks) {
+        return new QueryOptions().setSort(latestFirst()).setLimit(nrOfChunks);
+    }
+
+    /**
+     * Returns the sort descending by the end of the chunks on the numeric doc values of the end field.
+     * If the index is sorted the same way (see LuceneIndex#setIndexSort), a limited query terminates early on each segment.
+     *
+     * @return a sort descending by end
+     */
+    public static Sort latestFirst() {
+        return new Sort(new SortField(Schema.END, SortField.Type.LONG, true));
+    }
+
+    /**
+     * Returns a copy of these options, e.g. to change a single option of shared options.
+     * The sort, the downsampling and the profile are shared with the copy.
+     *
+     * @return a new options instance with the same options
+     */
+    public QueryOptions copy() {
+        QueryOptions copy = new QueryOptions();
+        copy.timeoutMs = timeoutMs;
+        copy.limit = limit;
+        copy.sort = sort;
+        copy.downsampling = downsampling;
+        copy.mergeChunks = mergeChunks;
+        copy.memoryBudget = memoryBudget;
+        copy.overflow = overflow;
+        copy.spillDirectory = spillDirectory;
+        copy.profile = profile;
+        copy.coalesce = coalesce;
+        return copy;
+    }
+
+    /**
+     * Sets the deadline of the query relative to its start.
+     * The deadline covers the lucene search, the conversion of the documents and the delivery of the time series.
+     *
+     * @param timeout the max time the query may take
+     * @param unit    the time unit of the timeout
+     * @return this options
+     */
+    public QueryOptions setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMs = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * @return the timeout in milliseconds, or -1 if the query has no deadline
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * @return true if the query has a deadline
+     */
+    public boolean hasTimeout() {
+        return timeoutMs > 0;
+    }
+
+    /**
+     * Sets the max number of chunks (documents) that are read.
+     * The limit is pushed into the lucene search, hence at most the given number of chunks is loaded and converted.
+     * <p>
+     * Note: The limit counts chunks, not series. There is no limit on the number of series, as the series key
+     * is only known after a chunk is converted. The chunks are grouped into series after the limit is applied,
+     * hence a series may be returned with only some of its chunks. To get the latest chunk of N series,
+     * query each series with a limit of one chunk or limit the returned stream of series.
+     *
+     * @param limit the max number of chunks
+     * @return this options
+     */
+    public QueryOptions setLimit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @return the max number of chunks, or -1 if not limited
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return true if the number of chunks is limited
+     */
+    public boolean hasLimit() {
+        return limit > 0;
+    }
+
+    /**
+     * Sets the order in which the chunks are read. The sort fields have to be indexed as doc values,
+     * e.g. the start and end of the chunks. The order of the chunks is kept when they are grouped into time series.
+     *
+     * @param sort the sort of the chunks
+     * @return this options
+     */
+    public QueryOptions setSort(Sort sort) {
+        this.sort = sort;
+        return this;
+    }
+
+    /**
+     * @return the sort of the chunks, or null if the chunks are not sorted
+     */
+    public Sort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return true if the chunks are sorted
+     */
+    public boolean hasSort() {
+        return sort != null;
+    }
+
+    /**
+     * Sets the downsampling of the time series. Each chunk is downsampled while it is converted
+     * and the chunks of a time series are merged into at most the target number of points.
+     * Requires a {@link ColumnarTimeSeriesConverter}.
+     *
+     * @param downsampling the downsampling, e.g. {@link Downsampling#mean(int)}
+     * @return this options
+     */
+    public QueryOptions setDownsampling(Downsampling downsampling) {
+        this.downsampling = downsampling;
+        return this;
+    }
+
+    /**
+     * @return the downsampling, or null if the time series are not downsampled
+     */
+    public Downsampling getDownsampling() {
+        return downsampling;
+    }
+
+    /**
+     * @return true if the time series are downsampled
+     */
+    public boolean hasDownsampling() {
+        return downsampling != null;
+    }
+
+    /**
+     * Enables the built-in merge of the chunks of a time series instead of the reduce function.
+     * The chunks of a time series are ordered by their start and their points are merged
+     * in time order into one buffer (k-way merge). Requires a {@link ColumnarTimeSeriesConverter}.
+     * Ignored if the time series are downsampled, as the downsampling already merges the chunks.
+     *
+     * @param duplicates the handling of points with the same timestamp
+     * @return this options
+     */
+    public QueryOptions setMergeChunks(Duplicates duplicates) {
+        this.mergeChunks = duplicates;
+        return this;
+    }
+
+    /**
+     * @return the handling of duplicates of the chunk merge, or null if the chunks are reduced
+     */
+    public Duplicates getMergeChunks() {
+        return mergeChunks;
+    }
+
+    /**
+     * @return true if the chunks of a time series are merged by the built-in merge
+     */
+    public boolean hasMergeChunks() {
+        return mergeChunks != null;
+    }
+
+    /**
+     * Sets the max (estimated) number of bytes of the time series that are buffered by the query while they are grouped.
+     * If the budget is exceeded, the buffered time series are spilled to temporary files or the query fails.
+     * Spilled time series are returned after the time series that are kept in memory.
+     * The budget does not apply to downsampled queries or merged chunks.
+     *
+     * @param maxBytes the max estimated bytes of the buffered time series
+     * @param overflow what happens if the budget is exceeded
+     * @return this options
+     */
+    public QueryOptions setMemoryBudget(long maxBytes, Overflow overflow) {
+        this.memoryBudget = maxBytes;
+        this.overflow = overflow;
+        return this;
+    }
+
+    /**
+     * @return the memory budget in bytes, or -1 if the query has no budget
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return what happens if the memory budget is exceeded
+     */
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return true if the query has a memory budget
+     */
+    public boolean hasMemoryBudget() {
+        return memoryBudget > 0;
+    }
+
+    /**
+     * Sets the directory of the temporary spill files. Defaults to the temporary directory of the jvm.
+     *
+     * @param spillDirectory the directory of the spill files
+     * @return this options
+     */
+    public QueryOptions setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    /**
+     * @return the directory of the spill files, or null for the temporary directory of the jvm
+     */
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Records the execution of the query in the given profile,
+     * e.g. the visited segments, the loaded chunks and the time of the search and the conversion.
+     *
+     * @param profile the profile to fill
+     * @return this options
+     */
+    public QueryOptions setProfile(QueryProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * @return the profile of the query, or null if the query is not profiled
+     */
+    public QueryProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return true if the query is profiled
+     */
+    public boolean hasProfile() {
+        return profile != null;
+    }
+
+    /**
+     * Enables the coalescing of identical concurrent queries. A query that is identical to a query in flight
+     * (same reader, converter instance, query and options) waits for the result of that query instead of executing it again.
+     * The waiting callers get the same time series instances, hence they must not modify them.
+     * Profiled queries and queries with a memory budget are never coalesced,
+     * as a shared result is held in memory and would bypass the budget.
+     *
+     * @param coalesce true to share the execution of identical concurrent queries
+     * @return this options
+     */
+    public QueryOptions setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+        return this;
+    }
+
+    /**
+     * @return true if identical concurrent queries share one execution
+     */
+    public boolean isCoalesce() {
+        return coalesce && profile == null && !hasMemoryBudget();
+    }
+
+    /**
+     * Options are equal if they execute a query the same way, e.g. to coalesce identical queries.
+     * Profiles are compared by their identity.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QueryOptions)) {
+            return false;
+        }
+        QueryOptions that = (QueryOptions) o;
+        return timeoutMs == that.timeoutMs
+                && limit == that.limit
+                && memoryBudget == that.memoryBudget
+                && coalesce == that.coalesce
+                && Objects.equals(sort, that.sort)
+                && Objects.equals(downsampling, that.downsampling)
+                && mergeChunks == that.mergeChunks
+                && overflow == that.overflow
+                && Objects.equals(spillDirectory, that.spillDirectory)
+                && profile == that.profile;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timeoutMs, limit, sort, downsampling, mergeChunks, memoryBudget, overflow, spillDirectory,
+                System.identityHashCode(profile), coalesce);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryOptions{" +
+                "timeoutMs=" + timeoutMs +
+                ", limit=" + limit +
+                ", sort=" + sort +
+                ", downsampling=" + downsampling +
+                ", mergeChunks=" + mergeChunks +
+                ", memoryBudget=" + memoryBudget +
+                ", overflow=" + overflow +
+                ", spillDirectory=" + spillDirectory +
+                ", profile=" + (profile != null) +
+                ", coalesce=" + coalesce +
+                '}';
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The execution profile of a query on the read path. The profile is filled while the query runs,
+ * by the searching thread and by the conversion threads.
+ */
+public final class QueryProfile {
+
+    private final Map<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder loadedChunks = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder conversionNanos = new LongAdder();
+    private volatile String rewrittenQuery;
+    private volatile long reduceNanos;
+    private volatile int timeSeries;
+
+    /**
+     * @return the lucene query after its rewrite, as it is executed on the segments
+     */
+    public String getRewrittenQuery() {
+        return rewrittenQuery;
+    }
+
+    /**
+     * @return the segments that are visited by the last search of the query, in the order of the index
+     */
+    public List<Segment> getSegments() {
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * @return the number of chunks matching the query
+     */
+    public long getMatchedChunks() {
+        return segments.values().stream().mapToLong(Segment::getMatched).sum();
+    }
+
+    /**
+     * @return the number of segments that are skipped without evaluating the query, e.g. outside of its time range
+     */
+    public long getPrunedSegments() {
+        return segments.values().stream().filter(Segment::isPruned).count();
+    }
+
+    /**
+     * @return the number of segments that are searched without a matching chunk
+     */
+    public long getUnmatchedSegments() {
+        return segments.values().stream().filter(segment -> !segment.isPruned() && segment.getMatched() == 0).count();
+    }
+
+    /**
+     * @return the number of searches, e.g. one per batch
+     */
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    /**
+     * @return the time spent in the lucene searches
+     */
+    public long getSearchTime(TimeUnit unit) {
+        return unit.convert(searchNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of chunks whose stored fields are loaded and converted
+     */
+    public long getLoadedChunks() {
+        return loadedChunks.sum();
+    }
+
+    /**
+     * @return the number of bytes of the stored fields that are read, i.e. decompressed
+     */
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * @return the time spent in reading and converting the chunks, summed over the conversion threads
+     */
+    public long getConversionTime(TimeUnit unit) {
+        return unit.convert(conversionNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the time spent in reducing (or merging) the chunks of the time series
+     */
+    public long getReduceTime(TimeUnit unit) {
+        return unit.convert(reduceNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of returned time series
+     */
+    public int getTimeSeries() {
+        return timeSeries;
+    }
+
+    /**
+     * Records the rewritten query
+     *
+     * @param rewrittenQuery the lucene query after its rewrite
+     */
+    public void setRewrittenQuery(String rewrittenQuery) {
+        this.rewrittenQuery = rewrittenQuery;
+    }
+
+    /**
+     * Records the segment for the current search. A later search replaces the counts of an earlier one.
+     *
+     * @return the counter of the matching chunks of the segment
+     */
+    LongAdder segment(int ord, int maxDoc) {
+        Segment segment = new Segment(ord, maxDoc);
+        segments.put(ord, segment);
+        return segment.matched;
+    }
+
+    /**
+     * Marks the segment of the current search as skipped
+     */
+    void pruned(int ord, int maxDoc) {
+        segments.computeIfAbsent(ord, key -> new Segment(key, maxDoc)).pruned = true;
+    }
+
+    void searched(long nanos) {
+        searches.increment();
+        searchNanos.add(nanos);
+    }
+
+    void converted(long bytes, long nanos) {
+        loadedChunks.increment();
+        storedBytes.add(bytes);
+        conversionNanos.add(nanos);
+    }
+
+    /**
+     * Records the time to reduce the time series and their number
+     *
+     * @param nanos      the reduce time in nanoseconds
+     * @param timeSeries the number of time series
+     */
+    public void reduced(long nanos, int timeSeries) {
+        this.reduceNanos = nanos;
+        this.timeSeries = timeSeries;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryProfile{" +
+                "rewrittenQuery='" + rewrittenQuery + '\'' +
+                ", segments=" + segments.values() +
+                ", searches=" + searches +
+                ", searchNanos=" + searchNanos +
+                ", loadedChunks=" + loadedChunks +
+                ", storedBytes=" + storedBytes +
+                ", conversionNanos=" + conversionNanos +
+                ", reduceNanos=" + reduceNanos +
+                ", timeSeries=" + timeSeries +
+                '}';
+    }
+
+    /**
+     * The profile of one segment
+     */
+    public static final class Segment {
+        private final int ord;
+        private final int maxDoc;
+        private final LongAdder matched = new LongAdder();
+        private volatile boolean pruned;
+
+        private Segment(int ord, int maxDoc) {
+            this.ord = ord;
+            this.maxDoc = maxDoc;
+        }
+
+        /**
+         * @return the position of the segment in the index
+         */
+        public int getOrd() {
+            return ord;
+        }
+
+        /**
+         * @return the number of documents of the segment, including the deleted ones
+         */
+        public int getMaxDoc() {
+            return maxDoc;
+        }
+
+        /**
+         * @return the number of chunks of the segment matching the query
+         */
+        public long getMatched() {
+            return matched.sum();
+        }
+
+        /**
+         * @return true if the segment is skipped without evaluating the query
+         */
+        public boolean isPruned() {
+            return pruned;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{ord=" + ord + ", maxDoc=" + maxDoc + ", matched=" + matched + ", pruned=" + pruned + '}';
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes and reads the records of spill files. A record is the key of a time series group
+ * and the time series converted into a binary time series.
+ * Supports the field types of the binary time series that are stored in lucene:
+ * strings, numbers, byte[] (or byte buffers) and collections of them. Other fields are not spilled.
+ */
+final class SpillCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillCodec.class);
+
+    private static final byte STRING = 'S';
+    private static final byte LONG = 'L';
+    private static final byte INT = 'I';
+    private static final byte DOUBLE = 'D';
+    private static final byte FLOAT = 'F';
+    private static final byte BYTES = 'B';
+    private static final byte COLLECTION = 'C';
+
+    private SpillCodec() {
+        //Avoid instances
+    }
+
+    /**
+     * A spilled time series and the key of its group
+     */
+    static final class Record {
+        final String key;
+        final BinaryTimeSeries series;
+
+        private Record(String key, BinaryTimeSeries series) {
+            this.key = key;
+            this.series = series;
+        }
+    }
+
+    /**
+     * Writes a record
+     *
+     * @param out    the output
+     * @param key    the key of the group
+     * @param series the time series
+     * @throws IOException if the record can not be written
+     */
+    static void write(DataOutput out, String key, BinaryTimeSeries series) throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        series.getFields().forEach((name, value) -> {
+            if (isSupported(value)) {
+                fields.put(name, value);
+            } else {
+                LOGGER.debug("Field {} with value {} is not spilled. Type is not supported", name, value);
+            }
+        });
+
+        writeString(out, key);
+        out.writeInt(fields.size());
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            writeString(out, field.getKey());
+            writeValue(out, field.getValue());
+        }
+    }
+
+    /**
+     * Reads the next record
+     *
+     * @param in          the input
+     * @param byteBuffers true if binary values are read as byte buffers, otherwise as byte[]
+     * @return the record, or null if the end of the input is reached
+     * @throws IOException if the record can not be read
+     */
+    static Record read(DataInput in, boolean byteBuffers) throws IOException {
+        String key;
+        try {
+            key = readString(in);
+        } catch (EOFException e) {
+            return null;
+        }
+        BinaryTimeSeries.Builder series = new BinaryTimeSeries.Builder();
+        int fields = in.readInt();
+        for (int i = 0; i < fields; i++) {
+            series.field(readString(in), readValue(in, byteBuffers));
+        }
+        return new Record(key, series.build());
+    }
+
+    private static boolean isSupported(Object value) {
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).stream().allMatch(SpillCodec::isSupported);
+        }
+        return value instanceof String || value instanceof Long || value instanceof Integer || value instanceof Double
+                || value instanceof Float || value instanceof byte[] || value instanceof ByteBuffer;
+    }
+
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.writeByte(BYTES);
+            writeBytes(out, bytes);
+        } else {
+            Collection<?> values = (Collection<?>) value;
+            out.writeByte(COLLECTION);
+            out.writeInt(values.size());
+            for (Object element : values) {
+                writeValue(out, element);
+            }
+        }
+    }
+
+    private static Object readValue(DataInput in, boolean byteBuffers) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case STRING:
+                return readString(in);
+            case LONG:
+                return in.readLong();
+            case INT:
+                return in.readInt();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BYTES:
+                byte[] bytes = readBytes(in);
+                return byteBuffers ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : bytes;
+            case COLLECTION:
+                int size = in.readInt();
+                List<Object> values = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(readValue(in, byteBuffers));
+                }
+                return values;
+            default:
+                throw new IOException("Unknown type " + type + " in spill file");
+        }
+    }
+
+    /**
+     * Strings are written as bytes, as attributes may exceed the 64k limit of modified utf-8
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.TimeSeriesConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Groups and reduces time series within a memory budget.
+ * <p>
+ * The grouper tracks the estimated size of the buffered time series. If the budget is exceeded,
+ * the buffered groups are either spilled to hash partitioned temporary files (runs) or the query fails.
+ * Spilled groups are converted back into binary time series with the converter. When the result is streamed,
+ * the runs are read one partition after another and merged with the groups of the partition that are still in memory.
+ * Hence a partition of the result has to fit into the budget, not the whole result.
+ * <p>
+ * A run is deleted as soon as its partition is read. The remaining runs are deleted when the result is closed,
+ * or at the latest when the jvm exits, if the result is abandoned.
+ *
+ * @param <T> the type of the time series
+ */
+final class SpillingGrouper<T> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillingGrouper.class);
+
+    /**
+     * The number of partitions (runs) of the spilled groups
+     */
+    static final int PARTITIONS = 16;
+
+    /**
+     * The decoded points of a compressed chunk take about eight times its stored bytes
+     */
+    private static final int DATA_EXPANSION = 8;
+    private static final int FIELD_OVERHEAD = 48;
+    private static final int NUMBER_BYTES = 16;
+
+    /**
+     * The spill directories of the groupers that are not closed, deleted by a shutdown hook
+     */
+    private static final Set<Path> OPEN_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> OPEN_DIRECTORIES.forEach(SpillingGrouper::delete), "chronix-spill-cleanup"));
+    }
+
+    private final TimeSeriesConverter<T> converter;
+    private final Function<T, String> groupBy;
+    private final BinaryOperator<T> reduce;
+    private final QueryOptions options;
+    private final long queryStart;
+    private final long queryEnd;
+
+    private final Map<String, T> groups = new LinkedHashMap<>();
+    private long bufferedBytes;
+
+    private Path directory;
+    private DataOutputStream[] runs;
+    private long spilledBytes;
+
+    /**
+     * Constructs a grouper
+     *
+     * @param converter  the converter to spill and read back the time series
+     * @param groupBy    the function to group the time series
+     * @param reduce     the function to reduce the grouped time series into one time series
+     * @param options    the query options with the memory budget
+     * @param queryStart the start of the query
+     * @param queryEnd   the end of the query
+     */
+    SpillingGrouper(TimeSeriesConverter<T> converter, Function<T, String> groupBy, BinaryOperator<T> reduce,
+                    QueryOptions options, long queryStart, long queryEnd) {
+        this.converter = converter;
+        this.groupBy = groupBy;
+        this.reduce = reduce;
+        this.options = options;
+        this.queryStart = queryStart;
+        this.queryEnd = queryEnd;
+    }
+
+    /**
+     * Adds a time series to its group. Spills the buffered groups or fails,
+     * if the estimated size of the buffered groups exceeds the budget.
+     *
+     * @param series the time series
+     * @param bytes  the estimated size of the time series
+     * @throws QueryMemoryExceededException if the budget is exceeded and the query must not spill, or can not spill
+     */
+    void add(T series, long bytes) {
+        groups.merge(groupBy.apply(series), series, reduce);
+        bufferedBytes += bytes;
+        if (bufferedBytes <= options.getMemoryBudget()) {
+            return;
+        }
+        if (options.getOverflow() == Overflow.FAIL) {
+            close();
+            throw new QueryMemoryExceededException("Query exceeded its memory budget of " + options.getMemoryBudget() + " bytes", null);
+        }
+        spill();
+    }
+
+    /**
+     * @return the estimated bytes of the spilled time series
+     */
+    long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Returns the grouped and reduced time series. If nothing is spilled, the time series are returned
+     * in the order of their first chunk. Otherwise they are returned partition by partition.
+     * The spill files are deleted when the stream is consumed or closed.
+     *
+     * @return the grouped time series
+     */
+    Stream<T> stream() {
+        if (runs == null) {
+            return groups.values().stream();
+        }
+        closeRuns();
+        List<List<T>> inMemory = new ArrayList<>(PARTITIONS);
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            inMemory.add(new ArrayList<>());
+        }
+        //the spilled series of a group are older, hence they are reduced first
+        groups.forEach((key, series) -> inMemory.get(partition(key)).add(series));
+        groups.clear();
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new MergingIterator(inMemory), Spliterator.ORDERED), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Deletes the spill files
+     */
+    @Override
+    public void close() {
+        groups.clear();
+        if (directory == null) {
+            return;
+        }
+        closeRuns();
+        delete(directory);
+        OPEN_DIRECTORIES.remove(directory);
+        directory = null;
+    }
+
+    private static void delete(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            LOGGER.error("Could not delete the spill files in {}", directory, e);
+        }
+    }
+
+    /**
+     * Estimates the size of a chunk when it is converted
+     *
+     * @param chunk the chunk
+     * @return the estimated bytes
+     */
+    static long estimate(BinaryTimeSeries chunk) {
+        long bytes = 0;
+        for (Map.Entry<String, Object> field : chunk.getFields().entrySet()) {
+            long size = estimate(field.getValue());
+            bytes += FIELD_OVERHEAD + 2L * field.getKey().length() + (Schema.DATA.equals(field.getKey()) ? size * DATA_EXPANSION : size);
+        }
+        return bytes;
+    }
+
+    private static long estimate(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).remaining();
+        } else if (value instanceof String) {
+            return 2L * ((String) value).length();
+        } else if (value instanceof Collection) {
+            return ((Collection<?>) value).stream().mapToLong(element -> FIELD_OVERHEAD + estimate(element)).sum();
+        }
+        return NUMBER_BYTES;
+    }
+
+    private static int partition(String key) {
+        return Math.floorMod(key.hashCode(), PARTITIONS);
+    }
+
+    /**
+     * Spills the buffered groups to the runs of their partitions
+     */
+    private void spill() {
+        try {
+            if (runs == null) {
+                openRuns();
+            }
+            for (Map.Entry<String, T> group : groups.entrySet()) {
+                SpillCodec.write(runs[partition(group.getKey())], group.getKey(), converter.to(group.getValue()));
+            }
+        } catch (IOException e) {
+            close();
+            throw new QueryMemoryExceededException("Query exceeded its memory budget of " + options.getMemoryBudget() + " bytes and could not spill", e);
+        }
+        LOGGER.debug("Spilled {} groups with an estimated size of {} bytes to {}", groups.size(), bufferedBytes, directory);
+        spilledBytes += bufferedBytes;
+        bufferedBytes = 0;
+        groups.clear();
+    }
+
+    private void openRuns() throws IOException {
+        Path parent = options.getSpillDirectory() != null ? options.getSpillDirectory() : Paths.get(System.getProperty("java.io.tmpdir"));
+        Files.createDirectories(parent);
+        directory = Files.createTempDirectory(parent, "chronix-spill");
+        OPEN_DIRECTORIES.add(directory);
+        runs = new DataOutputStream[PARTITIONS];
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            runs[partition] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run(partition))));
+        }
+    }
+
+    private void closeRuns() {
+        if (runs == null) {
+            return;
+        }
+        for (DataOutputStream run : runs) {
+            try {
+                run.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close spill file", e);
+            }
+        }
+    }
+
+    private Path run(int partition) {
+        return directory.resolve("run-" + partition);
+    }
+
+    /**
+     * Reads the run of a partition and merges it with the groups of the partition that are in memory
+     *
+     * @param partition the partition
+     * @param inMemory  the groups of the partition that are in memory
+     * @return the time series of the partition
+     * @throws IOException if the run can not be read
+     */
+    private Collection<T> merge(int partition, List<T> inMemory) throws IOException {
+        Map<String, T> merged = new LinkedHashMap<>();
+        Path run = run(partition);
+        long bytes = 0;
+        boolean byteBuffers = converter instanceof ByteBufferTimeSeriesConverter;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)))) {
+            SpillCodec.Record record;
+            while ((record = SpillCodec.read(in, byteBuffers)) != null) {
+                bytes += estimate(record.series);
+                if (bytes > options.getMemoryBudget()) {
+                    throw new QueryMemoryExceededException("Partition " + partition + " of the spilled time series exceeds the memory budget of "
+                            + options.getMemoryBudget() + " bytes", null);
+                }
+                T series = converter.from(record.series, queryStart, queryEnd);
+                if (series != null) {
+                    merged.merge(record.key, series, reduce);
+                }
+            }
+        }
+        Files.deleteIfExists(run);
+        inMemory.forEach(series -> merged.merge(groupBy.apply(series), series, reduce));
+        inMemory.clear();
+        return merged.values();
+    }
+
+    /**
+     * Iterates over the merged partitions. Only one partition is merged at once.
+     */
+    private final class MergingIterator implements Iterator<T> {
+
+        private final List<List<T>> inMemory;
+        private int partition;
+        private Iterator<T> current = Collections.emptyIterator();
+
+        private MergingIterator(List<List<T>> inMemory) {
+            this.inMemory = inMemory;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && partition < PARTITIONS && directory != null) {
+                try {
+                    current = merge(partition, inMemory.get(partition)).iterator();
+                    partition++;
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException("Could not read the spilled time series", e);
+                } catch (RuntimeException e) {
+                    close();
+                    throw e;
+                }
+            }
+            if (!current.hasNext()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.lucene.client.ChronixQueries;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Collector that skips the segments without a chunk in the time range of the query.
+ * <p>
+ * The bounds of a segment are the minimum start and the maximum end of its chunks, read from the
+ * metadata of the start and end points. A segment that does not overlap the time range is skipped
+ * before its scorer is created, hence the query is not evaluated on it. As time series are written in
+ * time order, most segments cover a narrow time range and a query on recent data only visits a few of them.
+ */
+final class TimeRangePruningCollector extends FilterCollector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeRangePruningCollector.class);
+
+    private final long start;
+    private final long end;
+    private final QueryProfile profile;
+
+    private TimeRangePruningCollector(Collector in, long start, long end, QueryProfile profile) {
+        super(in);
+        this.start = start;
+        this.end = end;
+        this.profile = profile;
+    }
+
+    /**
+     * Wraps the collector if the query has a time range
+     *
+     * @param in    the collector
+     * @param query the query with its time range, see {@link ChronixQueries#timeRange(Query)}
+     * @return the pruning collector, or the given collector if the query has no time range
+     */
+    static Collector wrap(Collector in, Query query) {
+        return wrap(in, query, null);
+    }
+
+    /**
+     * Wraps the collector if the query has a time range and records the skipped segments in the profile
+     *
+     * @param in      the collector
+     * @param query   the query with its time range, see {@link ChronixQueries#timeRange(Query)}
+     * @param profile the profile of the query, may be null
+     * @return the pruning collector, or the given collector if the query has no time range
+     */
+    static Collector wrap(Collector in, Query query, QueryProfile profile) {
+        long[] range = ChronixQueries.timeRange(query);
+        //a start of 0 is the default of a query without a start
+        long rangeStart = range[0] > 0 ? range[0] : Long.MIN_VALUE;
+        if (rangeStart == Long.MIN_VALUE && range[1] == Long.MAX_VALUE) {
+            return in;
+        }
+        return new TimeRangePruningCollector(in, rangeStart, range[1], profile);
+    }
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+        if (!overlaps(context.reader(), start, end)) {
+            LOGGER.debug("Skipping segment {} outside of the time range {} - {}", context.ord, start, end);
+            if (profile != null) {
+                profile.pruned(context.ord, context.reader().maxDoc());
+            }
+            throw new CollectionTerminatedException();
+        }
+        return super.getLeafCollector(context);
+    }
+
+    /**
+     * Checks if a segment contains chunks within the time range.
+     * The bounds include deleted chunks, hence a segment is skipped only if none of its chunks can match.
+     *
+     * @param reader the reader of the segment
+     * @param start  the start of the time range
+     * @param end    the end of the time range
+     * @return false if the segment has no chunk within the time range, true otherwise
+     * @throws IOException if the point values can not be read
+     */
+    static boolean overlaps(LeafReader reader, long start, long end) throws IOException {
+        PointValues starts = reader.getPointValues(Schema.START);
+        PointValues ends = reader.getPointValues(Schema.END);
+        if (starts == null || ends == null || starts.size() == 0 || ends.size() == 0) {
+            //without time points the segment can not be pruned
+            return true;
+        }
+        long minStart = LongPoint.decodeDimension(starts.getMinPackedValue(), 0);
+        long maxEnd = LongPoint.decodeDimension(ends.getMaxPackedValue(), 0);
+        return maxEnd >= start && minStart <= end;
+    }
+}
@@ -19,12 +19,17 @@ package de.qaware.chronix.lucene.client.stream;
 import de.qaware.chronix.converter.BinaryTimeSeries;
 import de.qaware.chronix.converter.TimeSeriesConverter;
 import de.qaware.chronix.lucene.client.ChronixLuceneStorageConstants;
+import de.qaware.chronix.lucene.client.PackedAttributes;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +37,10 @@ import java.util.concurrent.Callable;
 
 /**
  * Converts the lucene document into a binary time series and calls the given document converter.
+ * <p>
+ * If constructed with a searcher and a document id, the stored fields are read in the calling (worker) thread
+ * directly into the binary time series. Binary values are not copied. A {@link ByteBufferTimeSeriesConverter}
+ * gets them as read-only byte buffer views.
  *
  * @param <T> the type of the returned time series class
  * @author f.lautenschlager
@@ -41,9 +50,12 @@ public class TimeSeriesConverterCaller<T> implements Callable<T> {
     private static final Logger LOGGER = LoggerFactory.getLogger(TimeSeriesConverterCaller.class);
 
     private final Document document;
-    private final TimeSeriesConverter<T> documentConverter;
+    private final IndexSearcher searcher;
+    private final int docId;
+    private final ChunkReader<T> reader;
     private final long queryEnd;
     private final long queryStart;
+    private QueryProfile profile;
 
     /**
      * Constructs a SolrDocumentConverter.
@@ -53,11 +65,51 @@ public class TimeSeriesConverterCaller<T> implements Callable<T> {
      */
     public TimeSeriesConverterCaller(final Document document, final TimeSeriesConverter<T> documentConverter, long queryStart, long queryEnd) {
         this.document = document;
-        this.documentConverter = documentConverter;
+        this.searcher = null;
+        this.docId = -1;
+        this.reader = ChunkReader.of(documentConverter);
         this.queryStart = queryStart;
         this.queryEnd = queryEnd;
     }
 
+    /**
+     * Constructs a converter caller that reads the stored fields of the document when it is called.
+     *
+     * @param searcher          - the searcher to read the stored fields
+     * @param docId             - the id of the document
+     * @param documentConverter - the concrete document converter
+     */
+    public TimeSeriesConverterCaller(final IndexSearcher searcher, int docId, final TimeSeriesConverter<T> documentConverter, long queryStart, long queryEnd) {
+        this(searcher, docId, ChunkReader.of(documentConverter), queryStart, queryEnd);
+    }
+
+    /**
+     * Constructs a caller that reads the stored fields of the document when it is called and hands them to the reader.
+     *
+     * @param searcher - the searcher to read the stored fields
+     * @param docId    - the id of the document
+     * @param reader   - the reader of the chunk
+     */
+    TimeSeriesConverterCaller(final IndexSearcher searcher, int docId, final ChunkReader<T> reader, long queryStart, long queryEnd) {
+        this.document = null;
+        this.searcher = searcher;
+        this.docId = docId;
+        this.reader = reader;
+        this.queryStart = queryStart;
+        this.queryEnd = queryEnd;
+    }
+
+    /**
+     * Records the stored bytes and the time of the conversion in the profile
+     *
+     * @param profile the profile of the query, may be null
+     * @return this caller
+     */
+    TimeSeriesConverterCaller<T> setProfile(QueryProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
     /**
      * Converts the solr document given in the constructor into a time series of type <T>
      *
@@ -67,6 +119,31 @@ public class TimeSeriesConverterCaller<T> implements Callable<T> {
     @Override
     @SuppressWarnings("PMD.SignatureDeclareThrowsException")
     public T call() throws Exception {
+        long start = profile != null ? System.nanoTime() : 0;
+        long storedBytes = 0;
+        BinaryTimeSeries binaryTimeSeries;
+        if (document == null) {
+            TimeSeriesFieldVisitor visitor = new TimeSeriesFieldVisitor(isByteBufferConverter());
+            searcher.doc(docId, visitor);
+            binaryTimeSeries = visitor.build();
+            storedBytes = visitor.getBytes();
+        } else {
+            binaryTimeSeries = fromDocument();
+        }
+
+        LOGGER.debug("Calling document converter with {}", binaryTimeSeries);
+        T timeSeries = reader.from(binaryTimeSeries, queryStart, queryEnd);
+        if (profile != null) {
+            profile.converted(storedBytes, System.nanoTime() - start);
+        }
+        LOGGER.debug("Returning time series {} to callee", timeSeries);
+        return timeSeries;
+    }
+
+    /**
+     * @return the binary time series with the fields of the document
+     */
+    private BinaryTimeSeries fromDocument() {
         BinaryTimeSeries.Builder timeSeriesBuilder = new BinaryTimeSeries.Builder();
 
         Map<String, List<Object>> multivalued = new HashMap<>();
@@ -74,7 +151,10 @@ public class TimeSeriesConverterCaller<T> implements Callable<T> {
         document.forEach(attributeField -> {
             String key = attributeField.name();
 
-            if (key.contains(ChronixLuceneStorageConstants.MULTI_VALUE_FIELD_DELIMITER)) {
+            if (ChronixLuceneStorageConstants.PACKED_ATTRIBUTES.equals(key)) {
+                BytesRef packed = attributeField.binaryValue();
+                PackedAttributes.unpack(packed.bytes, packed.offset, packed.length, timeSeriesBuilder::field);
+            } else if (key.contains(ChronixLuceneStorageConstants.MULTI_VALUE_FIELD_DELIMITER)) {
                 key = key.substring(0, key.indexOf(ChronixLuceneStorageConstants.MULTI_VALUE_FIELD_DELIMITER));
                 //Handle multivalued fields
                 if (!multivalued.containsKey(key)) {
@@ -87,11 +167,11 @@ public class TimeSeriesConverterCaller<T> implements Callable<T> {
             }
         });
         multivalued.forEach(timeSeriesBuilder::field);
+        return timeSeriesBuilder.build();
+    }
 
-        LOGGER.debug("Calling document converter with {}", document);
-        T timeSeries = documentConverter.from(timeSeriesBuilder.build(), queryStart, queryEnd);
-        LOGGER.debug("Returning time series {} to callee", timeSeries);
-        return timeSeries;
+    private boolean isByteBufferConverter() {
+        return reader.readsByteBuffers();
     }
 
     /**
@@ -109,11 +189,27 @@ public class TimeSeriesConverterCaller<T> implements Callable<T> {
         } else if (field.stringValue() != null) {
             return field.stringValue();
         } else if (field.binaryValue() != null) {
-            return field.binaryValue().bytes;
+            return binary(field.binaryValue());
         } else {
             LOGGER.debug("Field {} could not be handled. Type is not supported", field);
             return null;
         }
     }
-}
 
+    /**
+     * Returns the bytes of the binary value. Respects the offset and length of the value
+     * and only copies if the value does not cover the whole array.
+     *
+     * @param value the binary value
+     * @return a byte buffer view for a {@link ByteBufferTimeSeriesConverter}, otherwise a byte[]
+     */
+    private Object binary(BytesRef value) {
+        if (isByteBufferConverter()) {
+            return ByteBuffer.wrap(value.bytes, value.offset, value.length).slice().asReadOnlyBuffer();
+        }
+        if (value.offset == 0 && value.length == value.bytes.length) {
+            return value.bytes;
+        }
+        return Arrays.copyOfRange(value.bytes, value.offset, value.offset + value.length);
+    }
+}
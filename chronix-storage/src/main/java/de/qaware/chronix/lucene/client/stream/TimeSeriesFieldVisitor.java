@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.lucene.client.ChronixLuceneStorageConstants;
+import de.qaware.chronix.lucene.client.PackedAttributes;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the stored fields of a chunk directly into a binary time series.
+ * No lucene document and no field objects are created.
+ * Binary values are passed as they are read, or as byte buffer view.
+ * Packed attributes are decoded once the binary time series is built.
+ */
+final class TimeSeriesFieldVisitor extends StoredFieldVisitor {
+
+    private final BinaryTimeSeries.Builder builder = new BinaryTimeSeries.Builder();
+    private final Map<String, List<Object>> multivalued = new HashMap<>();
+    private final boolean byteBuffers;
+    private long bytes;
+    private byte[] packed;
+
+    /**
+     * @param byteBuffers true to pass binary values as read-only byte buffers, false to pass them as byte[]
+     */
+    TimeSeriesFieldVisitor(boolean byteBuffers) {
+        this.byteBuffers = byteBuffers;
+    }
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) {
+        return Status.YES;
+    }
+
+    @Override
+    public void binaryField(FieldInfo fieldInfo, byte[] value) {
+        //the stored fields reader allocates the value with its exact length
+        bytes += value.length;
+        if (ChronixLuceneStorageConstants.PACKED_ATTRIBUTES.equals(fieldInfo.name)) {
+            //decoded when the chunk is built
+            packed = value;
+            return;
+        }
+        add(fieldInfo.name, byteBuffers ? ByteBuffer.wrap(value).asReadOnlyBuffer() : value);
+    }
+
+    @Override
+    public void stringField(FieldInfo fieldInfo, byte[] value) {
+        bytes += value.length;
+        add(fieldInfo.name, new String(value, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void intField(FieldInfo fieldInfo, int value) {
+        bytes += Integer.BYTES;
+        add(fieldInfo.name, value);
+    }
+
+    @Override
+    public void longField(FieldInfo fieldInfo, long value) {
+        bytes += Long.BYTES;
+        add(fieldInfo.name, value);
+    }
+
+    @Override
+    public void floatField(FieldInfo fieldInfo, float value) {
+        bytes += Float.BYTES;
+        add(fieldInfo.name, value);
+    }
+
+    @Override
+    public void doubleField(FieldInfo fieldInfo, double value) {
+        bytes += Double.BYTES;
+        add(fieldInfo.name, value);
+    }
+
+    private void add(String name, Object value) {
+        int delimiter = name.indexOf(ChronixLuceneStorageConstants.MULTI_VALUE_FIELD_DELIMITER);
+        if (delimiter >= 0) {
+            multivalued.computeIfAbsent(name.substring(0, delimiter), key -> new ArrayList<>()).add(value);
+        } else {
+            builder.field(name, value);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the visited fields
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the binary time series with the visited fields
+     */
+    BinaryTimeSeries build() {
+        if (packed != null) {
+            PackedAttributes.unpack(packed, 0, packed.length, builder::field);
+        }
+        multivalued.forEach(builder::field);
+        return builder.build();
+    }
+}
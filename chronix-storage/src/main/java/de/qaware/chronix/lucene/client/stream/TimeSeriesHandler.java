@@ -32,10 +32,23 @@ import java.util.concurrent.TimeUnit;
 public class TimeSeriesHandler<T> implements FutureCallback<T> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TimeSeriesHandler.class);
+
+    /**
+     * Marks a document that could not be converted. Hence the consumer does not wait for it.
+     */
+    private static final Object NO_RESULT = new Object();
+
+    /**
+     * The interval in which a blocked producer checks if the handler is closed
+     */
+    private static final long OFFER_INTERVAL_MS = 100;
+
     /**
      * The blocking queue containing elements of type t
      */
-    private BlockingQueue<T> queue;
+    private final BlockingQueue<Object> queue;
+
+    private volatile boolean closed;
 
     /**
      * Constructs a time series callback handler
@@ -47,18 +60,15 @@ public class TimeSeriesHandler<T> implements FutureCallback<T> {
     }
 
     /**
-     * On success we add the result to our blocking queue
+     * On success we add the result to our blocking queue.
+     * If the queue is full, we wait until there is space or the handler is closed.
      *
      * @param result - the resulting time series
      */
     @Override
     public void onSuccess(T result) {
-        try {
-            LOGGER.debug("Putting {} into queue", result);
-            queue.put(result);
-        } catch (InterruptedException e) {
-            LOGGER.warn("Exception occurred while putting the converted result in queue", e);
-        }
+        LOGGER.debug("Putting {} into queue", result);
+        offer(result == null ? NO_RESULT : result);
     }
 
     /**
@@ -68,7 +78,25 @@ public class TimeSeriesHandler<T> implements FutureCallback<T> {
      */
     @Override
     public void onFailure(Throwable t) {
+        if (closed) {
+            LOGGER.debug("Conversion stopped as the handler is closed.", t);
+            return;
+        }
         LOGGER.warn("Exception occurred while converting documents.", t);
+        offer(NO_RESULT);
+    }
+
+    private void offer(Object element) {
+        try {
+            while (!closed) {
+                if (queue.offer(element, OFFER_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("Exception occurred while putting the converted result in queue", e);
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -79,14 +107,40 @@ public class TimeSeriesHandler<T> implements FutureCallback<T> {
      * @return the first element of type <T> in the queue
      */
     public T take() {
+        return take(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Gets the first element in the queue.
+     * If no element is present within the given timeout or the document could not be converted,
+     * then it returns null.
+     *
+     * @param timeout the max time to wait
+     * @param unit    the time unit of the timeout
+     * @return the first element of type <T> in the queue
+     */
+    @SuppressWarnings("unchecked")
+    public T take(long timeout, TimeUnit unit) {
         try {
-            T object = queue.poll(1, TimeUnit.MINUTES);
+            Object object = queue.poll(timeout, unit);
             LOGGER.debug("Getting element from queue: {}", object);
-            return object;
+            if (object == null || object == NO_RESULT) {
+                return null;
+            }
+            return (T) object;
 
         } catch (InterruptedException e) {
             LOGGER.warn("InterruptedException occurred. Returning null value to callee.", e);
-            throw new IllegalStateException("Try to poll time series records for more than 1 Minute. Stopping.", e);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while polling time series records. Stopping.", e);
         }
     }
+
+    /**
+     * Closes the handler. Blocked producers return and buffered elements are released.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
 }
@@ -15,18 +15,33 @@
  */
 package de.qaware.chronix.lucene.client
 
+import de.qaware.chronix.converter.BinaryTimeSeries
+import de.qaware.chronix.lucene.client.add.IndexingOptions
+import de.qaware.chronix.lucene.client.stream.Downsampling
+import de.qaware.chronix.lucene.client.stream.Duplicates
+import de.qaware.chronix.lucene.client.stream.Overflow
+import de.qaware.chronix.lucene.client.stream.QueryMemoryExceededException
+import de.qaware.chronix.lucene.client.stream.QueryOptions
 import org.apache.lucene.analysis.standard.StandardAnalyzer
 import org.apache.lucene.document.Document
 import org.apache.lucene.queryparser.classic.QueryParser
+import org.apache.lucene.search.MatchAllDocsQuery
 import org.apache.lucene.search.Query
 import org.apache.lucene.store.FSDirectory
+import org.apache.lucene.store.RAMDirectory
 import spock.lang.Shared
 import spock.lang.Specification
 
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.function.BinaryOperator
 import java.util.function.Function
+import java.util.stream.Collectors
 /**
  * Unit test for the Chronix Lucene Storage
  * @author f.lautenschlager
@@ -75,6 +90,268 @@ class ChronixLuceneStorageTest extends Specification {
         stream.count() == 1
     }
 
+    def "test catalog of identity attributes"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def luceneStorage = new ChronixLuceneStorage<>(200, group, reduce, new IndexingOptions().setIdentityAttributes("host", "metric"))
+        def documents = [series("a", "cpu"), series("a", "memory"), series("b", "cpu")]
+
+        when:
+        luceneStorage.add(new SimpleTimeSeriesConverter(), documents.subList(0, 2), luceneIndex)
+        luceneIndex.commit()
+        luceneStorage.add(new SimpleTimeSeriesConverter(), documents.subList(2, 3), luceneIndex)
+        luceneIndex.commit()
+
+        def catalog = luceneStorage.catalog(luceneIndex, new MatchAllDocsQuery(), "host", "metric", "unknown")
+        def cpuHosts = luceneStorage.distinct(luceneIndex, ChronixQueries.exact("metric", "cpu"), "host")
+
+        then:
+        catalog.host == [a: 2L, b: 1L]
+        catalog.metric == [cpu: 2L, memory: 1L]
+        catalog.unknown.isEmpty()
+        cpuHosts as List == ["a", "b"]
+    }
+
+    def "test stream downsampled time series"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def byName = { ts -> ts.fields.get("name") } as Function
+        def luceneStorage = new ChronixLuceneStorage<>(200, byName, reduce)
+        def chunks = (0..<4).collect { chunk ->
+            def timestamps = (0..<100).collect { chunk % 2 * 100L + it } as long[]
+            SimplePointsConverter.chunk(chunk < 2 ? "a" : "b", timestamps, timestamps.collect { it as double } as double[])
+        }
+        luceneStorage.add(new SimplePointsConverter(), chunks, luceneIndex)
+        luceneIndex.commit()
+
+        when:
+        def series = luceneStorage.stream(new SimplePointsConverter(), luceneIndex, new MatchAllDocsQuery(),
+                new QueryOptions().setDownsampling(downsampling)).collect()
+
+        then:
+        series.size() == 2
+        series.every { it.fields.get("timestamps").length == 10 && !it.fields.containsKey("data") }
+        series[0].fields.get("values")[0] == firstValue
+        series[0].fields.get("values")[9] == lastValue
+
+        where:
+        downsampling            || firstValue | lastValue
+        Downsampling.mean(10)   || 9.5d       | 189.5d
+        Downsampling.min(10)    || 0d         | 180d
+        Downsampling.max(10)    || 19d        | 199d
+        Downsampling.lttb(10)   || 0d         | 199d
+    }
+
+    def "test stream time series with merged chunks"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def byName = { ts -> ts.fields.get("name") } as Function
+        def luceneStorage = new ChronixLuceneStorage<>(200, byName, reduce)
+        def chunks = [
+                SimplePointsConverter.chunk("a", [20L, 30L] as long[], [20d, 30d] as double[]),
+                SimplePointsConverter.chunk("a", [0L, 10L, 20L] as long[], [0d, 10d, 21d] as double[]),
+                SimplePointsConverter.chunk("b", [5L] as long[], [5d] as double[])]
+        luceneStorage.add(new SimplePointsConverter(), chunks, luceneIndex)
+        luceneIndex.commit()
+
+        when:
+        def series = luceneStorage.stream(new SimplePointsConverter(), luceneIndex, new MatchAllDocsQuery(),
+                new QueryOptions().setMergeChunks(Duplicates.KEEP_FIRST)).collect()
+        def a = series.find { it.fields.get("name") == "a" }
+
+        then:
+        series.size() == 2
+        a.fields.get("timestamps") == [0L, 10L, 20L, 30L] as long[]
+        a.fields.get("values") == [0d, 10d, 21d, 30d] as double[]
+    }
+
+    def "test merge requires a columnar converter"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def luceneStorage = new ChronixLuceneStorage<>(200, group, reduce)
+
+        when:
+        luceneStorage.stream(new SimpleTimeSeriesConverter(), luceneIndex, new MatchAllDocsQuery(), new QueryOptions().setMergeChunks(Duplicates.KEEP_ALL))
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "test stream time series within a memory budget"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def byName = { ts -> ts.fields.get("name") } as Function
+        def first = { t1, t2 -> t1 } as BinaryOperator
+        def luceneStorage = new ChronixLuceneStorage<>(200, byName, first)
+        def chunks = (0..<20).collect { SimplePointsConverter.chunk("series-" + it % 4, [it as long] as long[], [it as double] as double[]) }
+        luceneStorage.add(new SimplePointsConverter(), chunks, luceneIndex)
+        luceneIndex.commit()
+        def spillDirectory = File.createTempDir("chronix-spill-test", "")
+
+        when:
+        def stream = luceneStorage.stream(new SimplePointsConverter(), luceneIndex, new MatchAllDocsQuery(),
+                new QueryOptions().setMemoryBudget(2500, Overflow.SPILL).setSpillDirectory(spillDirectory.toPath()))
+        def series = stream.collect()
+        stream.close()
+
+        then:
+        series.collect { it.fields.get("name") }.sort() == ["series-0", "series-1", "series-2", "series-3"]
+
+        when: "a stream is closed before it is consumed"
+        stream = luceneStorage.stream(new SimplePointsConverter(), luceneIndex, new MatchAllDocsQuery(),
+                new QueryOptions().setMemoryBudget(2500, Overflow.SPILL).setSpillDirectory(spillDirectory.toPath()))
+        def spilled = spillDirectory.list().length
+        stream.close()
+
+        then:
+        spilled == 1
+        spillDirectory.list().length == 0
+
+        when:
+        luceneStorage.stream(new SimplePointsConverter(), luceneIndex, new MatchAllDocsQuery(),
+                new QueryOptions().setMemoryBudget(2500, Overflow.FAIL))
+
+        then:
+        thrown QueryMemoryExceededException
+
+        cleanup:
+        spillDirectory.deleteDir()
+    }
+
+    def "test profile a query"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def byName = { ts -> ts.fields.get("name") } as Function
+        def luceneStorage = new ChronixLuceneStorage<>(200, byName, { t1, t2 -> t1 } as BinaryOperator)
+        def converter = new SimplePointsConverter()
+        luceneStorage.add(converter, [SimplePointsConverter.chunk("cpu", [0L, 1L] as long[], [0d, 1d] as double[]),
+                                      SimplePointsConverter.chunk("cpu", [2L, 3L] as long[], [2d, 3d] as double[])], luceneIndex)
+        luceneIndex.commit()
+        luceneStorage.add(converter, [SimplePointsConverter.chunk("memory", [0L] as long[], [0d] as double[])], luceneIndex)
+        luceneIndex.commit()
+
+        when:
+        def options = new QueryOptions()
+        def result = luceneStorage.profile(converter, luceneIndex, ChronixQueries.exact("name", "cpu"), options)
+        def profile = result.profile
+
+        then:
+        !options.hasProfile()
+        result.timeSeries.size() == 1
+        profile.rewrittenQuery == "name:cpu"
+        profile.matchedChunks == 2
+        profile.segments.size() >= 2
+        profile.prunedSegments == 0
+        profile.unmatchedSegments == profile.segments.count { it.matched == 0 }
+        profile.unmatchedSegments >= 1
+        profile.loadedChunks == 2
+        profile.storedBytes > 2 * 2 * (Long.BYTES + Double.BYTES)
+        profile.searches > 0
+        profile.getConversionTime(TimeUnit.NANOSECONDS) > 0
+        profile.timeSeries == 1
+    }
+
+    def "test identical concurrent queries are coalesced"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def byName = { ts -> ts.fields.get("name") } as Function
+        def luceneStorage = new ChronixLuceneStorage<>(200, byName, { t1, t2 -> t1 } as BinaryOperator)
+        def conversions = new AtomicInteger()
+        def slowConverter = new SimplePointsConverter() {
+            @Override
+            SimpleTimeSeries from(BinaryTimeSeries binaryTimeSeries, long queryStart, long queryEnd) {
+                conversions.incrementAndGet()
+                Thread.sleep(500)
+                return super.from(binaryTimeSeries, queryStart, queryEnd)
+            }
+        }
+        luceneStorage.add(slowConverter, [SimplePointsConverter.chunk("cpu", [0L] as long[], [0d] as double[])], luceneIndex)
+        luceneIndex.commit()
+        luceneIndex.getSearcher()
+        def start = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(5)
+
+        when:
+        def results = (0..<5).collect {
+            executor.submit({
+                start.await()
+                luceneStorage.stream(slowConverter, luceneIndex, new MatchAllDocsQuery(), new QueryOptions().setCoalesce(true)).collect(Collectors.toList())
+            } as Callable)
+        }
+        start.countDown()
+        def series = results.collect { it.get() }
+
+        then:
+        series.every { it.size() == 1 && it[0].fields.get("name") == "cpu" }
+        conversions.get() == 1
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "test concurrent queries with different converters are not coalesced"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), analyzer)
+        def byName = { ts -> ts.fields.get("name") } as Function
+        def luceneStorage = new ChronixLuceneStorage<>(200, byName, { t1, t2 -> t1 } as BinaryOperator)
+        def conversions = new AtomicInteger()
+        def slowConverter = {
+            new SimplePointsConverter() {
+                @Override
+                SimpleTimeSeries from(BinaryTimeSeries binaryTimeSeries, long queryStart, long queryEnd) {
+                    conversions.incrementAndGet()
+                    Thread.sleep(500)
+                    return super.from(binaryTimeSeries, queryStart, queryEnd)
+                }
+            }
+        }
+        def converters = [slowConverter(), slowConverter()]
+        luceneStorage.add(new SimplePointsConverter(), [SimplePointsConverter.chunk("cpu", [0L] as long[], [0d] as double[])], luceneIndex)
+        luceneIndex.commit()
+        luceneIndex.getSearcher()
+        def start = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(4)
+
+        when:
+        def results = (0..<4).collect { i ->
+            executor.submit({
+                start.await()
+                luceneStorage.stream(converters[i % 2], luceneIndex, new MatchAllDocsQuery(), new QueryOptions().setCoalesce(true)).collect(Collectors.toList())
+            } as Callable)
+        }
+        start.countDown()
+        def series = results.collect { it.get() }
+
+        then:
+        converters[0].class == converters[1].class
+        series.every { it.size() == 1 }
+        conversions.get() == 2
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "test coalescing keys and memory budgets"() {
+        given:
+        def options = { new QueryOptions().setCoalesce(true).setLimit(10).setDownsampling(Downsampling.mean(10)) }
+
+        expect:
+        options() == options()
+        options().hashCode() == options().hashCode()
+        options() != options().setLimit(11)
+        options().copy() == options()
+        options().copy().setLimit(11) == options().setLimit(11)
+        options().coalesce
+        !options().setMemoryBudget(1024, Overflow.SPILL).coalesce
+    }
+
+    SimpleTimeSeries series(String host, String metric) {
+        def ts = new SimpleTimeSeries()
+        ts.add("host", host)
+        ts.add("metric", metric)
+        ts
+    }
+
     Collection<SimpleTimeSeries> createDocument() {
         def text = "This is the text to be indexed."
 
@@ -16,9 +16,17 @@
 package de.qaware.chronix.lucene.client
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.StoredField
+import org.apache.lucene.index.DirectoryReader
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.search.ScoreDoc
+import org.apache.lucene.store.FSDirectory
 import org.apache.lucene.store.RAMDirectory
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
+
 /**
  * Unit test for the lucene index wrapper class
  * @author f.lautenschlager
@@ -40,6 +48,57 @@ class LuceneIndexTest extends Specification {
         luceneIndex.writerClosed()
     }
 
+    def "test getSearcher after the writer is reopened"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        luceneIndex.getOpenWriter().commit()
+        def searcher = luceneIndex.getSearcher()
+
+        when:
+        luceneIndex.getOpenWriter().addDocument(new Document())
+        luceneIndex.commit()
+        def reopened = luceneIndex.getSearcher()
+
+        then:
+        !reopened.is(searcher)
+        reopened.indexReader.numDocs() == 1
+    }
+
+    def "test concurrent search of slices"() {
+        given:
+        def executor = LuceneIndex.newSearchExecutor(4)
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+                .setSearchExecutor(executor)
+                .setSlices(25, 2)
+        6.times { segment ->
+            10.times { luceneIndex.getOpenWriter().addDocument(new Document()) }
+            luceneIndex.commit()
+        }
+
+        when:
+        def searcher = luceneIndex.getSearcher()
+        def count = searcher.count(new MatchAllDocsQuery())
+        def docs = []
+        ScoreDoc after = null
+        while (true) {
+            def hits = searcher.searchAfter(after, new MatchAllDocsQuery(), 7).scoreDocs
+            if (hits.length == 0) {
+                break
+            }
+            docs.addAll(hits*.doc)
+            after = hits[-1]
+        }
+
+        then:
+        searcher.indexReader.leaves().size() == 6
+        searcher.leafSlices.length == 3
+        count == 60
+        docs == (0..<60)
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
     def "test getOpenWriter after openReader"() {
         given:
         def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
@@ -81,4 +140,152 @@ class LuceneIndexTest extends Specification {
         dir != null
         dir instanceof RAMDirectory
     }
+
+    def "test commit groups already committed operations"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def writer = luceneIndex.openWriter
+        def seqNo = writer.addDocument(document())
+
+        when:
+        def firstCommit = luceneIndex.commit()
+        def secondCommit = luceneIndex.commit()
+
+        then:
+        firstCommit >= seqNo
+        secondCommit == firstCommit
+        luceneIndex.lastCommittedSequenceNumber == firstCommit
+        luceneIndex.awaitCommit(writer, seqNo, 1, TimeUnit.MILLISECONDS)
+    }
+
+    def "test commit policy commits in background"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        luceneIndex.setCommitPolicy(new CommitPolicy().setMaxOperations(2).setCheckInterval(10, TimeUnit.MILLISECONDS))
+
+        when:
+        def writer = luceneIndex.openWriter
+        writer.addDocument(document())
+        def seqNo = writer.addDocument(document())
+        def committed = luceneIndex.awaitCommit(writer, seqNo, 10, TimeUnit.SECONDS)
+
+        then:
+        committed
+        DirectoryReader.open(luceneIndex.directory).numDocs() == 2
+
+        cleanup:
+        luceneIndex.close()
+    }
+
+    def "test commit policy limits"() {
+        expect:
+        policy.needsCommit(millis, pending, ram) == expected
+
+        where:
+        policy                                                   | millis | pending | ram     || expected
+        CommitPolicy.manual()                                    | 10000  | 100     | 1 << 30 || false
+        new CommitPolicy().setMaxTime(1, TimeUnit.SECONDS)       | 999    | 1       | 0       || false
+        new CommitPolicy().setMaxTime(1, TimeUnit.SECONDS)       | 1000   | 1       | 0       || true
+        new CommitPolicy().setMaxTime(1, TimeUnit.SECONDS)       | 1000   | 0       | 0       || false
+        new CommitPolicy().setMaxOperations(10)                  | 0      | 10      | 0       || true
+        new CommitPolicy().setMaxRamBufferMB(1)                  | 0      | 1       | 1 << 20 || true
+        new CommitPolicy().setMaxRamBufferMB(1)                  | 0      | 1       | 1 << 19 || false
+    }
+
+    def "test close stops commit scheduler and commits"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        luceneIndex.setCommitPolicy(new CommitPolicy().setMaxTime(1, TimeUnit.HOURS))
+        def writer = luceneIndex.openWriter
+        def seqNo = writer.addDocument(document())
+
+        when:
+        luceneIndex.close()
+
+        then:
+        luceneIndex.awaitCommit(writer, seqNo, 1, TimeUnit.MILLISECONDS)
+        DirectoryReader.open(luceneIndex.directory).numDocs() == 1
+    }
+
+    def "test await commit of a reopened writer"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def oldWriter = luceneIndex.openWriter
+        oldWriter.addDocument(document())
+        def oldSeqNo = oldWriter.addDocument(document())
+        luceneIndex.close()
+
+        when:
+        def newWriter = luceneIndex.openWriter
+        def newSeqNo = newWriter.addDocument(document())
+
+        then:
+        luceneIndex.awaitCommit(oldWriter, oldSeqNo, 1, TimeUnit.MILLISECONDS)
+        !luceneIndex.awaitCommit(newWriter, newSeqNo, 1, TimeUnit.MILLISECONDS)
+        luceneIndex.awaitCommit(newWriter, luceneIndex.commit(), 1, TimeUnit.MILLISECONDS)
+
+        cleanup:
+        luceneIndex.close()
+    }
+
+    def "test incremental backup"() {
+        given:
+        def indexDirectory = fileSystem ? File.createTempDir("chronix-index", "") : null
+        def directory = fileSystem ? FSDirectory.open(indexDirectory.toPath()) : new RAMDirectory()
+        def luceneIndex = new LuceneIndex(directory, new StandardAnalyzer())
+        def target = File.createTempDir("chronix-backup", "")
+        luceneIndex.openWriter.addDocument(document())
+        luceneIndex.commit()
+
+        when:
+        def first = luceneIndex.backup(target.toPath())
+        luceneIndex.openWriter.addDocument(document())
+        luceneIndex.commit()
+        def second = luceneIndex.backup(target.toPath())
+        def backupReader = DirectoryReader.open(FSDirectory.open(target.toPath()))
+
+        then:
+        first.copiedFiles > 1
+        first.skippedFiles == 0
+        second.skippedFiles > 0
+        second.deletedFiles == 1
+        second.generation > first.generation
+        backupReader.numDocs() == 2
+        luceneIndex.openWriter.config.indexDeletionPolicy.snapshotCount == 0
+
+        cleanup:
+        backupReader?.close()
+        luceneIndex.close()
+        directory.close()
+        indexDirectory?.deleteDir()
+        target.deleteDir()
+
+        where:
+        fileSystem << [false, true]
+    }
+
+    def "test backup of an index without commit"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def target = File.createTempDir("chronix-backup", "")
+
+        when:
+        def report = luceneIndex.backup(target.toPath())
+        def backupReader = DirectoryReader.open(FSDirectory.open(target.toPath()))
+
+        then:
+        report.copiedFiles >= 1
+        backupReader.numDocs() == 0
+
+        cleanup:
+        backupReader?.close()
+        luceneIndex.close()
+        target.deleteDir()
+    }
+
+    Document document() {
+        def document = new Document()
+        document.add(new StoredField("name", "test"))
+        document
+    }
 }
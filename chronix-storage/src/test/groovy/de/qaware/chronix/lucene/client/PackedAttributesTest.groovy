@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the packed attributes
+ */
+class PackedAttributesTest extends Specification {
+
+    def "test pack and unpack attributes"() {
+        given:
+        def attributes = [string: "äöü", int: -5i, long: Long.MIN_VALUE, float: 1.5f, double: -2.5d, bytes: [1, 2, 3] as byte[],
+                          list: [1L, "two", 3.0d], array: ["a", "b"] as String[], unsupported: new Object()]
+        def unpacked = [:]
+
+        when:
+        def packed = PackedAttributes.pack(attributes)
+        PackedAttributes.unpack(packed, 0, packed.length, { name, value -> unpacked[name] = value })
+
+        then:
+        unpacked.keySet() == attributes.keySet() - "unsupported"
+        unpacked.string == "äöü"
+        unpacked.int == -5i
+        unpacked.long == Long.MIN_VALUE
+        unpacked.float == 1.5f
+        unpacked.double == -2.5d
+        unpacked.bytes == [1, 2, 3] as byte[]
+        unpacked.list == [1L, "two", 3.0d]
+        unpacked.array == ["a", "b"]
+    }
+
+    def "test unknown version"() {
+        when:
+        PackedAttributes.unpack([9] as byte[], 0, 1, { name, value -> })
+
+        then:
+        thrown IllegalStateException
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client
+
+import de.qaware.chronix.lucene.client.stream.Duplicates
+import de.qaware.chronix.lucene.client.stream.QueryOptions
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.index.DirectoryReader
+import org.apache.lucene.index.IndexWriter
+import org.apache.lucene.index.MergeScheduler
+import org.apache.lucene.index.MergeTrigger
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.BinaryOperator
+import java.util.function.Function
+
+/**
+ * Unit test for the tiered lucene index
+ */
+class TieredLuceneIndexTest extends Specification {
+
+    def converter = new SimplePointsConverter()
+    def storage = new ChronixLuceneStorage<>(200, { ts -> ts.fields.get("name") } as Function, { t1, t2 -> t1 } as BinaryOperator)
+    def tiered = new TieredLuceneIndex(index(), index())
+
+    def cleanup() {
+        tiered.close()
+    }
+
+    def "test migrate chunks into the cold tier"() {
+        given:
+        storage.add(converter, [chunk("a", 0), chunk("a", 100), chunk("a", 200), chunk("b", 100)], tiered.getHot())
+        tiered.getHot().commit()
+
+        when:
+        def migrated = tiered.migrate(150)
+        def migratedAgain = tiered.migrate(150)
+        def series = storage.stream(converter, tiered, new MatchAllDocsQuery(), new QueryOptions().setMergeChunks(Duplicates.KEEP_ALL)).collect()
+
+        then:
+        migrated == 3
+        migratedAgain == 0
+        tiered.getHot().getOpenWriter().numDocs() == 1
+        tiered.getCold().getOpenWriter().numDocs() == 3
+        tiered.getCold().getCommitData().get(TieredLuceneIndex.MIGRATED_UNTIL) == "150"
+        series.find { it.fields.get("name") == "a" }.fields.get("timestamps").length == 30
+        series.find { it.fields.get("name") == "b" }.fields.get("timestamps").length == 10
+    }
+
+    def "test route queries to the tiers in range"() {
+        given:
+        storage.add(converter, [chunk("a", 0), chunk("a", 200)], tiered.getHot())
+        tiered.migrate(100)
+
+        when:
+        def reader = tiered.openReader(query)
+        def tiers = reader.getContext().children().size()
+        reader.close()
+
+        then:
+        tiers == expectedTiers
+
+        where:
+        query                               || expectedTiers
+        new MatchAllDocsQuery()             || 2
+        ChronixQueries.range(0, 50)         || 1
+        ChronixQueries.range(150, 300)      || 1
+        ChronixQueries.range(1000, 2000)    || 0
+    }
+
+    def "test finish an interrupted migration"() {
+        given: "the cold tier has committed a migration until 150 that is not committed in the hot tier"
+        storage.add(converter, [chunk("a", 0), chunk("a", 200)], tiered.getHot())
+        tiered.getHot().commit()
+        storage.add(converter, [chunk("a", 0)], tiered.getCold())
+        tiered.getCold().commit([(TieredLuceneIndex.MIGRATED_UNTIL): "150"])
+
+        and: "a late chunk older than the cutoff is added after the interruption"
+        storage.add(converter, [chunk("late", 50)], tiered.getHot())
+        tiered.getHot().commit()
+
+        when:
+        def migrated = tiered.migrate(160)
+        def coldNames = DirectoryReader.open(tiered.getCold().getOpenWriter()).withCloseable { reader ->
+            (0..<reader.maxDoc()).collect { reader.document(it).get("name") }.sort()
+        }
+
+        then:
+        migrated == 1
+        tiered.getHot().getOpenWriter().numDocs() == 1
+        tiered.getHot().getCommitData().get(TieredLuceneIndex.MIGRATED_UNTIL) == "160"
+        coldNames == ["a", "late"]
+    }
+
+    def "test keep chunks added while a migration runs"() {
+        given: "two segments of chunks in the hot tier"
+        def hot = index()
+        def cold = index()
+        def running = new AtomicBoolean(true)
+        //runs within the copy into the cold tier: adds an old chunk and merges the hot segments
+        cold.setMergeScheduler(new MergeScheduler() {
+            @Override
+            void merge(IndexWriter writer, MergeTrigger trigger, boolean newMergesFound) throws IOException {
+                if (running.getAndSet(false)) {
+                    storage.add(converter, [chunk("late", 50)], hot)
+                    hot.getOpenWriter().forceMerge(1)
+                }
+            }
+
+            @Override
+            void close() {
+            }
+        })
+        def migrating = new TieredLuceneIndex(hot, cold)
+        storage.add(converter, [chunk("a", 0)], hot)
+        hot.commit()
+        storage.add(converter, [chunk("a", 200)], hot)
+        hot.commit()
+
+        when:
+        def migrated = migrating.migrate(150)
+        def coldNames = DirectoryReader.open(cold.getOpenWriter()).withCloseable { reader ->
+            (0..<reader.maxDoc()).collect { reader.document(it).get("name") }
+        }
+
+        then:
+        !running.get()
+        migrated == 1
+        coldNames == ["a"]
+        hot.getOpenWriter().numDocs() == 2
+        migrating.migrate(150) == 1
+        hot.getOpenWriter().numDocs() == 1
+
+        cleanup:
+        migrating.close()
+    }
+
+    def "test time range of queries"() {
+        expect:
+        ChronixQueries.timeRange(ChronixQueries.range(10, 20)) == [10L, 20L] as long[]
+        ChronixQueries.timeRange(new MatchAllDocsQuery()) == [0L, Long.MAX_VALUE] as long[]
+    }
+
+    LuceneIndex index() {
+        new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+    }
+
+    SimpleTimeSeries chunk(String name, long start) {
+        def timestamps = (start..<start + 10) as long[]
+        SimplePointsConverter.chunk(name, timestamps, timestamps.collect { it as double } as double[])
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.StoredField
+import org.apache.lucene.index.SegmentInfos
+import org.apache.lucene.index.SerialMergeScheduler
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit test for the time series merge policy
+ */
+class TimeSeriesMergePolicyTest extends Specification {
+
+    def "test merge of young neighbouring segments"() {
+        given:
+        def directory = new RAMDirectory()
+        def policy = new TimeSeriesMergePolicy().setMergeFactor(3).setSealAge(1, TimeUnit.DAYS)
+        //merges within the commit, hence every flushed segment is merged before the next one is written
+        def luceneIndex = new LuceneIndex(directory, new StandardAnalyzer()).setMergePolicy(policy)
+                .setMergeScheduler(new SerialMergeScheduler())
+
+        when:
+        flushSegments(luceneIndex, 6, 0)
+        luceneIndex.close()
+        def infos = SegmentInfos.readLatestCommit(directory)
+
+        then:
+        infos.size() == 2
+        infos.totalMaxDoc() == 6
+        policy.getMerges() == 2
+        policy.getWriteAmplification() > 1
+        infos.every { TimeSeriesMergePolicy.created(it) > 0 }
+    }
+
+    def "test sealed segments are not merged"() {
+        given:
+        def directory = new RAMDirectory()
+        def policy = new TimeSeriesMergePolicy().setMergeFactor(3).setSealAge(1, TimeUnit.MILLISECONDS)
+        def luceneIndex = new LuceneIndex(directory, new StandardAnalyzer()).setMergePolicy(policy)
+
+        when:
+        flushSegments(luceneIndex, 6, 10)
+        luceneIndex.close()
+
+        then:
+        SegmentInfos.readLatestCommit(directory).size() == 6
+        policy.getMerges() == 0
+        policy.getWriteAmplification() == 1
+    }
+
+    def "test forced merge keeps the segment order"() {
+        given:
+        def directory = new RAMDirectory()
+        def policy = new TimeSeriesMergePolicy().setMergeFactor(10)
+        def luceneIndex = new LuceneIndex(directory, new StandardAnalyzer()).setMergePolicy(policy)
+
+        when:
+        flushSegments(luceneIndex, 6, 0)
+        luceneIndex.getOpenWriter().forceMerge(2)
+        luceneIndex.commit()
+        luceneIndex.close()
+        def infos = SegmentInfos.readLatestCommit(directory)
+
+        then:
+        infos.size() == 2
+        infos.info(0).info.maxDoc() == 3
+        infos.info(1).info.maxDoc() == 3
+    }
+
+    def "test created time of merged segment is the one of the oldest segment"() {
+        given:
+        def directory = new RAMDirectory()
+        def policy = new TimeSeriesMergePolicy().setMergeFactor(2)
+        def luceneIndex = new LuceneIndex(directory, new StandardAnalyzer()).setMergePolicy(policy)
+
+        when:
+        flushSegments(luceneIndex, 1, 20)
+        def oldest = TimeSeriesMergePolicy.created(SegmentInfos.readLatestCommit(directory).info(0))
+        flushSegments(luceneIndex, 1, 0)
+        luceneIndex.close()
+        def infos = SegmentInfos.readLatestCommit(directory)
+
+        then:
+        infos.size() == 1
+        TimeSeriesMergePolicy.created(infos.info(0)) == oldest
+    }
+
+    def flushSegments(LuceneIndex luceneIndex, int segments, long pause) {
+        segments.times {
+            def document = new Document()
+            document.add(new StoredField("value", it))
+            luceneIndex.getOpenWriter().addDocument(document)
+            luceneIndex.commit()
+            sleep(pause)
+        }
+    }
+}
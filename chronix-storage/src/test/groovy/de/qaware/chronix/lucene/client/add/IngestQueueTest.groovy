@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.add
+
+import de.qaware.chronix.converter.BinaryTimeSeries
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.SimpleTimeSeries
+import de.qaware.chronix.lucene.client.SimpleTimeSeriesConverter
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit test for the ingest queue
+ */
+class IngestQueueTest extends Specification {
+
+    def "test many producers feed the index writer"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def queue = new IngestQueue<SimpleTimeSeries>(new SimpleTimeSeriesConverter(), luceneIndex, new IndexingOptions(), null, 64, 2, 16)
+        def executor = Executors.newFixedThreadPool(4)
+
+        when:
+        def producers = (0..<4).collect { producer ->
+            executor.submit({
+                (0..<250).count { queue.offer(series("series-" + producer + "-" + it), 5, TimeUnit.SECONDS) }
+            } as Callable)
+        }
+        def offered = producers.sum { it.get() }
+        def flushed = queue.flush(5, TimeUnit.SECONDS)
+        luceneIndex.commit()
+
+        then:
+        offered == 1000
+        flushed
+        queue.indexed == 1000
+        queue.failed == 0
+        queue.size() == 0
+        luceneIndex.getSearcher().count(new MatchAllDocsQuery()) == 1000
+
+        cleanup:
+        queue.close()
+        executor.shutdownNow()
+    }
+
+    def "test full queue rejects offers"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def taken = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def blockingConverter = new SimpleTimeSeriesConverter() {
+            @Override
+            BinaryTimeSeries to(SimpleTimeSeries document) {
+                taken.countDown()
+                release.await()
+                return super.to(document)
+            }
+        }
+        def queue = new IngestQueue<SimpleTimeSeries>(blockingConverter, luceneIndex, new IndexingOptions(), null, 2, 1, 1)
+
+        when:
+        queue.offer(series("first"))
+        taken.await(5, TimeUnit.SECONDS)
+        def queued = [queue.offer(series("second")), queue.offer(series("third"))]
+        def full = queue.offer(series("fourth"))
+        def timedOut = queue.offer(series("fifth"), 10, TimeUnit.MILLISECONDS)
+        release.countDown()
+
+        then:
+        queued == [true, true]
+        !full
+        !timedOut
+        queue.rejected == 2
+        queue.flush(5, TimeUnit.SECONDS)
+        queue.indexed == 3
+
+        when:
+        queue.close()
+
+        then:
+        !queue.offer(series("closed"))
+        queue.rejected == 3
+    }
+
+    def "test ring buffer"() {
+        given:
+        def buffer = new MpmcRingBuffer<Integer>(3)
+
+        when:
+        def offered = (0..<5).collect { buffer.offer(it) }
+        def first = buffer.poll()
+        def drained = []
+        buffer.drainTo(drained, 10)
+
+        then:
+        buffer.capacity() == 4
+        offered == [true, true, true, true, false]
+        first == 0
+        drained == [1, 2, 3]
+        buffer.poll() == null
+        buffer.size() == 0
+    }
+
+    SimpleTimeSeries series(String name) {
+        def ts = new SimpleTimeSeries()
+        ts.add("name", name)
+        ts
+    }
+}
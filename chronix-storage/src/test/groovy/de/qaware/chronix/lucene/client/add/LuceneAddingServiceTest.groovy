@@ -15,16 +15,25 @@
  */
 package de.qaware.chronix.lucene.client.add
 
+import de.qaware.chronix.lucene.client.ChronixLuceneStorageConstants
+import de.qaware.chronix.lucene.client.ChronixQueries
 import de.qaware.chronix.lucene.client.LuceneIndex
 import de.qaware.chronix.lucene.client.SimpleTimeSeries
 import de.qaware.chronix.lucene.client.SimpleTimeSeriesConverter
+import de.qaware.chronix.lucene.client.stream.TimeSeriesConverterCaller
 import org.apache.lucene.analysis.standard.StandardAnalyzer
 import org.apache.lucene.document.StoredField
+import org.apache.lucene.index.DocValues
 import org.apache.lucene.index.IndexableField
+import org.apache.lucene.index.Term
+import org.apache.lucene.queryparser.classic.QueryParser
+import org.apache.lucene.search.TermQuery
 import org.apache.lucene.store.RAMDirectory
 import spock.lang.Shared
 import spock.lang.Specification
 
+import java.util.function.Function
+
 /**
  * Unit test for the lucene adding service
  * @author f.lautenschlager
@@ -82,6 +91,144 @@ class LuceneAddingServiceTest extends Specification {
         checkIfEquals(fields, expectedFields)
     }
 
+    def "test upsert replaces chunks with the same series key and start"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def seriesKey = { SimpleTimeSeries ts -> ts.fields.get("string") } as Function<SimpleTimeSeries, String>
+        def timeSeries = createTimeSeries(1)
+        timeSeries.each { it.add("start", 4711L) }
+
+        when:
+        2.times {
+            LuceneAddingService.add(new SimpleTimeSeriesConverter(), timeSeries, luceneIndex.openWriter, new IndexingOptions().setUpsert(upsert), seriesKey)
+        }
+        luceneIndex.openWriter.commit()
+
+        then:
+        luceneIndex.searcher.indexReader.numDocs() == expectedDocs
+        luceneIndex.searcher.count(new TermQuery(new Term(ChronixLuceneStorageConstants.CHUNK_ID,
+                LuceneAddingService.chunkId("hello", 4711L)))) == expectedChunkIds
+
+        where:
+        upsert << [true, false]
+        expectedDocs << [1, 2]
+        expectedChunkIds << [1, 0]
+    }
+
+    def "test identity attributes are indexed as keyword with sorted doc values"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def options = new IndexingOptions().setIdentityAttributes("host").setAnalyzedAttributes("description")
+        def ts = new SimpleTimeSeries()
+        ts.add("host", "Prod-Server.1")
+        ts.add("description", "Some Text")
+        ts.add("group", "Unix Group")
+
+        when:
+        LuceneAddingService.add(new SimpleTimeSeriesConverter(), [ts], luceneIndex.openWriter, options, null)
+        luceneIndex.openWriter.commit()
+        def searcher = luceneIndex.searcher
+        def leaf = searcher.indexReader.leaves().get(0).reader()
+        def hostValues = DocValues.getSorted(leaf, "host")
+
+        then:
+        searcher.count(ChronixQueries.exact("host", "Prod-Server.1")) == 1
+        searcher.count(ChronixQueries.exact("host", "prod")) == 0
+        searcher.count(ChronixQueries.exact("description", "text")) == 1
+        searcher.count(ChronixQueries.exact("group", "Unix Group")) == 1
+        searcher.count(ChronixQueries.series([host: "Prod-Server.1", group: "Unix Group"])) == 1
+        hostValues.advanceExact(0)
+        hostValues.binaryValue().utf8ToString() == "Prod-Server.1"
+        searcher.doc(0).get("host") == "Prod-Server.1"
+    }
+
+    def "test numeric attributes are indexed for range queries"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def options = new IndexingOptions().setNumericAttributes("cpuCount", "cores").setFloatingPointAttributes("load")
+        def series = [[8i, 0.5d, [1L, 2L]], [16L, 1.5f, [4L]], [32d, 2i, [8L, 16L]]].collect { values ->
+            def ts = new SimpleTimeSeries()
+            ts.add("cpuCount", values[0])
+            ts.add("load", values[1])
+            ts.add("cores", values[2])
+            ts.add("unindexed", 5i)
+            ts
+        }
+
+        when:
+        LuceneAddingService.add(new SimpleTimeSeriesConverter(), series, luceneIndex.openWriter, options, null)
+        luceneIndex.openWriter.commit()
+        def searcher = luceneIndex.searcher
+        def leaf = searcher.indexReader.leaves().get(0).reader()
+        def cpuCounts = DocValues.getNumeric(leaf, "cpuCount")
+
+        then:
+        searcher.count(ChronixQueries.numericRange("cpuCount", 16L, Long.MAX_VALUE)) == 2
+        searcher.count(ChronixQueries.numericRange("load", 1d, 2d)) == 2
+        searcher.count(ChronixQueries.numericRange("cores", 3L, 5L)) == 1
+        searcher.count(ChronixQueries.numericRange("unindexed", 0L, 10L)) == 0
+        cpuCounts.advanceExact(0)
+        [8L, 16L, 32L].contains(cpuCounts.longValue())
+        searcher.doc(0).getField("unindexed").numericValue() == 5
+    }
+
+    def "test integral numeric attributes reject fractions"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def ts = new SimpleTimeSeries()
+        ts.add("cpuCount", 1.5d)
+
+        when:
+        LuceneAddingService.add(new SimpleTimeSeriesConverter(), [ts], luceneIndex.openWriter, new IndexingOptions().setNumericAttributes("cpuCount"), null)
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "test packed attributes are stored in one field and still indexed"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def options = new IndexingOptions().setPackedAttributes(true).setIdentityAttributes("host").setNumericAttributes("cpuCount")
+        def ts = new SimpleTimeSeries()
+        ts.add("host", "web-1")
+        ts.add("description", "the front end")
+        ts.add("cpuCount", 16i)
+        ts.add("load", 1.5d)
+        ts.add("tags", ["prod", "eu"])
+        ts.add("start", 10L)
+        ts.add("end", 20L)
+        ts.add("data", "points".bytes)
+
+        when:
+        LuceneAddingService.add(new SimpleTimeSeriesConverter(), [ts], luceneIndex.openWriter, options, null)
+        luceneIndex.openWriter.commit()
+        def searcher = luceneIndex.searcher
+        def document = searcher.doc(0)
+        def caller = new TimeSeriesConverterCaller(searcher, 0, new SimpleTimeSeriesConverter(), 0, Long.MAX_VALUE)
+        def fields = caller.call().fields
+
+        then:
+        document.fields*.name() as Set == ["_attributes", "start", "end", "data"] as Set
+        searcher.count(ChronixQueries.exact("host", "web-1")) == 1
+        searcher.count(ChronixQueries.exact("tags::mv::2", "eu")) == 1
+        searcher.count(new QueryParser("description", new StandardAnalyzer()).parse("front")) == 1
+        searcher.count(ChronixQueries.numericRange("cpuCount", 10L, 20L)) == 1
+        fields.host == "web-1"
+        fields.description == "the front end"
+        fields.cpuCount == 16i
+        fields.load == 1.5d
+        fields.tags == ["prod", "eu"]
+        fields.start == 10L
+        fields.data == "points".bytes
+    }
+
+    def "test chunk id is deterministic"() {
+        expect:
+        LuceneAddingService.chunkId("host-metric", 1L) == LuceneAddingService.chunkId("host-metric", 1L)
+        LuceneAddingService.chunkId("host-metric", 1L) != LuceneAddingService.chunkId("host-metric", 2L)
+        LuceneAddingService.chunkId("host-metric", 1L) != LuceneAddingService.chunkId("host-other", 1L)
+    }
+
     def "test private constructor"() {
         when:
         LuceneAddingService.newInstance()
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.delete
+
+import de.qaware.chronix.converter.BinaryTimeSeries
+import de.qaware.chronix.lucene.client.ChronixLuceneStorage
+import de.qaware.chronix.lucene.client.ChronixQueries
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.SimplePointsConverter
+import de.qaware.chronix.lucene.client.SimpleTimeSeries
+import de.qaware.chronix.lucene.client.stream.Duplicates
+import de.qaware.chronix.lucene.client.stream.PointColumns
+import de.qaware.chronix.lucene.client.stream.QueryOptions
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+import java.util.function.BinaryOperator
+import java.util.function.Function
+
+/**
+ * Unit test for the lucene deleting service
+ */
+class LuceneDeletingServiceTest extends Specification {
+
+    def converter = new TrimmingConverter()
+    def byName = { ts -> ts.fields.get("name") } as Function
+    def storage = new ChronixLuceneStorage<>(200, byName, { t1, t2 -> t1 } as BinaryOperator)
+
+    def "test delete and trim chunks of a time range"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        storage.add(converter, [chunk("cpu", 0, 9), chunk("cpu", 10, 19), chunk("cpu", 20, 29), chunk("cpu", 30, 39), chunk("memory", 10, 19)], luceneIndex)
+        luceneIndex.commit()
+
+        when:
+        def report = storage.delete(converter, luceneIndex, ChronixQueries.exact("name", "cpu"), 15, 34)
+        luceneIndex.commit()
+        def series = storage.stream(converter, luceneIndex, new MatchAllDocsQuery(), new QueryOptions().setMergeChunks(Duplicates.KEEP_ALL)).collect()
+        def a = series.find { it.fields.get("name") == "cpu" }
+        def b = series.find { it.fields.get("name") == "memory" }
+
+        then:
+        report.deletedChunks == 1
+        report.trimmedChunks == 2
+        report.addedChunks == 2
+        a.fields.get("timestamps") == ((0L..14L) + (35L..39L)) as long[]
+        b.fields.get("timestamps") == (10L..19L) as long[]
+    }
+
+    def "test delete a range without chunks"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        storage.add(converter, [chunk("cpu", 0, 9)], luceneIndex)
+        luceneIndex.commit()
+
+        when:
+        def report = storage.delete(converter, luceneIndex, new MatchAllDocsQuery(), 100, 200)
+        luceneIndex.commit()
+
+        then:
+        report.deletedChunks == 0
+        report.trimmedChunks == 0
+        luceneIndex.getSearcher().count(new MatchAllDocsQuery()) == 1
+    }
+
+    def "test trim a chunk that contains the time range"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        storage.add(converter, [chunk("cpu", 0, 9)], luceneIndex)
+        luceneIndex.commit()
+
+        when:
+        def report = storage.delete(converter, luceneIndex, new MatchAllDocsQuery(), 3, 5)
+        luceneIndex.commit()
+        def a = storage.stream(converter, luceneIndex, new MatchAllDocsQuery(), new QueryOptions().setMergeChunks(Duplicates.KEEP_ALL)).findFirst().get()
+
+        then:
+        report.trimmedChunks == 1
+        report.addedChunks == 2
+        a.fields.get("timestamps") == [0L, 1L, 2L, 6L, 7L, 8L, 9L] as long[]
+    }
+
+    static SimpleTimeSeries chunk(String name, long start, long end) {
+        def timestamps = (start..end) as long[]
+        SimplePointsConverter.chunk(name, timestamps, timestamps.collect { it as double } as double[])
+    }
+
+    /**
+     * Converts the points of a chunk within the query range into a new chunk
+     */
+    static class TrimmingConverter extends SimplePointsConverter {
+        @Override
+        SimpleTimeSeries from(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+            def columns = new PointColumns()
+            decode(chunk, queryStart, queryEnd, columns)
+            def timestamps = Arrays.copyOf(columns.timestamps, columns.size())
+            def values = Arrays.copyOf(columns.values, columns.size())
+            SimplePointsConverter.chunk(chunk.get("name") as String, timestamps, values)
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.importer
+
+import de.qaware.chronix.lucene.client.ChronixLuceneStorage
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.SimplePointsConverter
+import de.qaware.chronix.lucene.client.SimpleTimeSeries
+import de.qaware.chronix.lucene.client.add.IndexingOptions
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+import java.nio.file.Path
+import java.time.ZoneId
+import java.util.function.BinaryOperator
+import java.util.function.Function
+
+/**
+ * Unit test for the csv importer
+ */
+class CsvImporterTest extends Specification {
+
+    def byName = { ts -> ts.fields.get("host") + "-" + ts.fields.get("name") } as Function
+    def reduce = { a, b -> a } as BinaryOperator
+    def csvDirectory = File.createTempDir("csv", "")
+    def factory = { Path file, String column, points ->
+        def ts = SimplePointsConverter.chunk(column, Arrays.copyOf(points.timestamps, points.size()), Arrays.copyOf(points.values, points.size()))
+        ts.add("host", file.fileName.toString().split("_")[0])
+        ts
+    } as CsvSeriesFactory
+
+    def cleanup() {
+        csvDirectory.deleteDir()
+    }
+
+    def "test import files in parallel"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def storage = new ChronixLuceneStorage<SimpleTimeSeries>(200, byName, reduce, new IndexingOptions().setUpsert(true))
+        def files = createFiles(4)
+        def importer = new CsvImporter<>(storage, new SimplePointsConverter(), factory).setThreads(2).setZone(ZoneId.of("UTC"))
+
+        when:
+        def report = importer.importFiles(luceneIndex, files)
+        def series = storage.stream(new SimplePointsConverter(), luceneIndex, new MatchAllDocsQuery()).collect()
+
+        then:
+        report.importedFiles == 4
+        report.failedFiles == 0
+        report.series == 8
+        report.points == 24
+        report.pointsPerSecond > 0
+        series.size() == 8
+        CsvImporter.importedFiles(luceneIndex).size() == 4
+    }
+
+    def "test resume skips imported files"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def storage = new ChronixLuceneStorage<SimpleTimeSeries>(200, byName, reduce, new IndexingOptions().setUpsert(true))
+        def files = createFiles(3)
+        def importer = new CsvImporter<>(storage, new SimplePointsConverter(), factory).setZone(ZoneId.of("UTC")).setCheckpointFiles(1)
+
+        when:
+        importer.importFiles(luceneIndex, files.subList(0, 2))
+        def report = importer.importFiles(luceneIndex, files)
+
+        then:
+        report.skippedFiles == 2
+        report.importedFiles == 1
+        luceneIndex.searcher.indexReader.numDocs() == 6
+    }
+
+    def "test broken file is reported as failed"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def storage = new ChronixLuceneStorage<SimpleTimeSeries>(200, byName, reduce)
+        def broken = csvDirectory.toPath().resolve("host9_broken.csv")
+        broken.write("Date;cpu;\n30.08.2013 00:00:03.722;abc\n")
+        def importer = new CsvImporter<>(storage, new SimplePointsConverter(), factory)
+
+        when:
+        def report = importer.importFiles(luceneIndex, [broken])
+
+        then:
+        report.failedFiles == 1
+        CsvImporter.importedFiles(luceneIndex).isEmpty()
+    }
+
+    List<Path> createFiles(int nrOfFiles) {
+        (0..<nrOfFiles).collect { i ->
+            def file = csvDirectory.toPath().resolve("host" + i + "_export.csv")
+            file.write("Date;cpu;memory;\r\n" +
+                    "30.08.2013 00:00:03.722;5.8;65,639,809,024;\r\n" +
+                    "30.08.2013 00:01:06.782;6.1;65,636,663,296;\r\n" +
+                    "30.08.2013 00:02:06.782;7;1,234.5\r\n")
+            file
+        }
+    }
+}
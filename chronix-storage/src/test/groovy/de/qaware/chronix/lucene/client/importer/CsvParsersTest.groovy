@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.importer
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.text.SimpleDateFormat
+import java.time.ZoneId
+
+/**
+ * Unit test for the csv parsers
+ */
+class CsvParsersTest extends Specification {
+
+    def "test parse number"() {
+        given:
+        def bytes = text.getBytes(StandardCharsets.UTF_8)
+
+        expect:
+        CsvParsers.parseDouble(bytes, 0, bytes.length) == expected
+
+        where:
+        text                     || expected
+        "0"                      || 0d
+        "5.8"                    || 5.8d
+        "-0.45"                  || -0.45d
+        "65,639,809,024"         || 65639809024d
+        "1,234.5"                || 1234.5d
+        "0.1"                    || 0.1d
+        "12345678901234567890.5" || 12345678901234567890.5d
+        "1.5E3"                  || 1500d
+    }
+
+    def "test parse invalid number"() {
+        given:
+        def bytes = "abc".getBytes(StandardCharsets.UTF_8)
+
+        when:
+        CsvParsers.parseDouble(bytes, 0, bytes.length)
+
+        then:
+        thrown NumberFormatException
+    }
+
+    def "test parse date"() {
+        given:
+        def parsers = new CsvParsers(ZoneId.of(zone))
+        def bytes = ("x;" + text + ";").getBytes(StandardCharsets.UTF_8)
+        def format = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS")
+        format.setTimeZone(TimeZone.getTimeZone(zone))
+
+        expect:
+        parsers.parseDate(bytes, 2, bytes.length - 1) == format.parse(text).time
+
+        where:
+        text                      | zone
+        "30.08.2013 00:00:03.722" | "UTC"
+        "30.08.2013 00:00:03.722" | "Europe/Berlin"
+        "01.01.2014 23:59:59.999" | "Europe/Berlin"
+        "29.02.2016 12:00:00.000" | "America/New_York"
+        "31.12.1969 23:59:59.999" | "UTC"
+    }
+
+    def "test parse invalid date"() {
+        given:
+        def bytes = "2013-08-30 00:00:03.722".getBytes(StandardCharsets.UTF_8)
+
+        when:
+        new CsvParsers(ZoneId.of("UTC")).parseDate(bytes, 0, bytes.length)
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the downsampler
+ */
+class DownsamplerTest extends Specification {
+
+    def "test buckets split by chunks are merged"() {
+        given:
+        def downsampler = new Downsampler(downsampling, 0, 99)
+        def first = columns(0..<15)
+        def second = columns(15..<100)
+
+        when:
+        def points = new PointColumns()
+        downsampler.finish([downsampler.partial(first), downsampler.partial(second)], points)
+
+        then:
+        points.size() == 5
+        points.getTimestamp(0) == 0L
+        points.getTimestamp(1) == 20L
+        points.getValue(0) == firstValue
+
+        where:
+        downsampling         || firstValue
+        Downsampling.mean(5) || 9.5d
+        Downsampling.min(5)  || 0d
+        Downsampling.max(5)  || 19d
+    }
+
+    def "test lttb keeps the first, the last and the peaks"() {
+        given:
+        def timestamps = (0..<100).collect { it as long } as long[]
+        def values = timestamps.collect { it == 42 ? 1000d : 0d } as double[]
+        def points = new PointColumns()
+
+        when:
+        Downsampler.lttb(timestamps, values, 100, 10, points)
+
+        then:
+        points.size() == 10
+        points.getTimestamp(0) == 0L
+        points.getTimestamp(9) == 99L
+        (0..<10).any { points.getValue(it) == 1000d }
+    }
+
+    def "test lttb returns all points below the threshold"() {
+        given:
+        def points = new PointColumns()
+
+        when:
+        Downsampler.lttb([1L, 2L] as long[], [1d, 2d] as double[], 2, 10, points)
+
+        then:
+        points.size() == 2
+    }
+
+    def "test invalid target points"() {
+        when:
+        Downsampling.lttb(2)
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    PointColumns columns(Range range) {
+        def columns = new PointColumns()
+        range.each { columns.add(it as long, it as double) }
+        columns
+    }
+}
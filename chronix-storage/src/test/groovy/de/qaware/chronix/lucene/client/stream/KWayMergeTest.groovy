@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the k-way merge of chunks
+ */
+class KWayMergeTest extends Specification {
+
+    def "test merge of chunks"() {
+        given:
+        def timestamps = [[1L, 3L, 5L] as long[], [2L, 3L, 6L] as long[], [] as long[], [4L] as long[]]
+        def values = [[1d, 3d, 5d] as double[], [2d, 30d, 6d] as double[], [] as double[], [4d] as double[]]
+        def merged = new PointColumns(0)
+
+        when:
+        KWayMerge.merge(timestamps, values, duplicates, merged)
+
+        then:
+        merged.getTimestamps()[0..<merged.size()] == expectedTimestamps
+        merged.getValues()[0..<merged.size()] == expectedValues
+
+        where:
+        duplicates            || expectedTimestamps       | expectedValues
+        Duplicates.KEEP_ALL   || [1, 2, 3, 3, 4, 5, 6]    | [1, 2, 3, 30, 4, 5, 6]
+        Duplicates.KEEP_FIRST || [1, 2, 3, 4, 5, 6]       | [1, 2, 3, 4, 5, 6]
+        Duplicates.KEEP_LAST  || [1, 2, 3, 4, 5, 6]       | [1, 2, 30, 4, 5, 6]
+    }
+
+    def "test chunks without overlap are appended"() {
+        given:
+        def timestamps = [[1L, 2L] as long[], [3L, 4L] as long[]]
+        def values = [[1d, 2d] as double[], [3d, 4d] as double[]]
+        def merged = new PointColumns(0)
+
+        when:
+        KWayMerge.merge(timestamps, values, Duplicates.KEEP_ALL, merged)
+
+        then:
+        merged.size() == 4
+        merged.getTimestamps().length == 4
+        merged.getTimestamp(3) == 4L
+    }
+}
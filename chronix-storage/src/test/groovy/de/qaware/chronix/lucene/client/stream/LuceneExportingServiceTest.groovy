@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream
+
+import de.qaware.chronix.lucene.client.ChronixQueries
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.SimplePointsConverter
+import de.qaware.chronix.lucene.client.add.LuceneAddingService
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.charset.StandardCharsets
+
+/**
+ * Unit test for the columnar export
+ */
+class LuceneExportingServiceTest extends Specification {
+
+    def "test export chunks as columns"() {
+        given:
+        def luceneIndex = createIndex()
+        def out = new ByteArrayOutputStream()
+
+        when:
+        def report = LuceneExportingService.export(new SimplePointsConverter(), new MatchAllDocsQuery(), luceneIndex.searcher,
+                Channels.newChannel(out), false, blockSize)
+        def chunks = read(ByteBuffer.wrap(out.toByteArray()))
+
+        then:
+        report.chunks == 3
+        report.rawChunks == 0
+        report.points == 30
+        report.bytes == out.size()
+        chunks.size() == 3
+        chunks.every { it.kind == ColumnarExportWriter.COLUMNS }
+        chunks.collectMany { it.timestamps as List }.sort() == (0L..<30L)
+        chunks.collectMany { it.values as List }.sort() == (0..<30).collect { it as double }
+        chunks.collect { it.attributes.name }.sort() == ["a", "a", "b"]
+
+        where:
+        blockSize << [16, LuceneExportingService.DEFAULT_BLOCK_SIZE]
+    }
+
+    def "test export passes through the data of chunks within the range"() {
+        given:
+        def luceneIndex = createIndex()
+        def out = new ByteArrayOutputStream()
+
+        when:
+        def report = LuceneExportingService.export(new SimplePointsConverter(), ChronixQueries.range(5, 24), luceneIndex.searcher,
+                Channels.newChannel(out), true, LuceneExportingService.DEFAULT_BLOCK_SIZE)
+        def chunks = read(ByteBuffer.wrap(out.toByteArray())).sort { it.attributes.start }
+
+        then:
+        report.chunks == 3
+        report.rawChunks == 1
+        report.points == 10
+        chunks*.kind == [ColumnarExportWriter.COLUMNS, ColumnarExportWriter.RAW, ColumnarExportWriter.COLUMNS]
+        chunks[0].timestamps == (5L..9L) as long[]
+        chunks[1].data.length == 10 * (Long.BYTES + Double.BYTES)
+        ByteBuffer.wrap(chunks[1].data).getLong(0) == 10L
+        chunks[2].timestamps == (20L..24L) as long[]
+    }
+
+    LuceneIndex createIndex() {
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def chunks = (0..<3).collect { chunk ->
+            def timestamps = (0..<10).collect { chunk * 10L + it } as long[]
+            def values = timestamps.collect { it as double } as double[]
+            SimplePointsConverter.chunk(chunk == 2 ? "b" : "a", timestamps, values)
+        }
+        LuceneAddingService.add(new SimplePointsConverter(), chunks, luceneIndex.openWriter)
+        luceneIndex.commit()
+        luceneIndex
+    }
+
+    static List<Map> read(ByteBuffer buffer) {
+        assert buffer.getInt() == ColumnarExportWriter.MAGIC
+        assert buffer.get() == ColumnarExportWriter.VERSION
+        def chunks = []
+        for (byte kind = buffer.get(); kind != ColumnarExportWriter.END; kind = buffer.get()) {
+            def chunk = [kind: kind, attributes: [:]]
+            short attributes = buffer.getShort()
+            attributes.times {
+                def name = new byte[buffer.getShort()]
+                buffer.get(name)
+                chunk.attributes[new String(name, StandardCharsets.UTF_8)] = readValue(buffer)
+            }
+            int size = buffer.getInt()
+            if (kind == ColumnarExportWriter.RAW) {
+                chunk.data = new byte[size]
+                buffer.get(chunk.data)
+            } else {
+                chunk.timestamps = new long[size]
+                chunk.values = new double[size]
+                buffer.asLongBuffer().get(chunk.timestamps)
+                buffer.position(buffer.position() + size * Long.BYTES)
+                buffer.asDoubleBuffer().get(chunk.values)
+                buffer.position(buffer.position() + size * Double.BYTES)
+            }
+            chunks << chunk
+        }
+        assert buffer.getLong() == chunks.size()
+        assert !buffer.hasRemaining()
+        chunks
+    }
+
+    static Object readValue(ByteBuffer buffer) {
+        switch (buffer.get() as char) {
+            case 'L': return buffer.getLong()
+            case 'D': return buffer.getDouble()
+            case 'A': return (0..<buffer.getInt()).collect { readValue(buffer) }
+            default:
+                def bytes = new byte[buffer.getInt()]
+                buffer.get(bytes)
+                return new String(bytes, StandardCharsets.UTF_8)
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream
+
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.SimplePointsConverter
+import de.qaware.chronix.lucene.client.add.LuceneAddingService
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.document.LongPoint
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+/**
+ * Unit test for the columnar scan
+ */
+class LuceneScanningServiceTest extends Specification {
+
+    def "test scan passes the points of each chunk"() {
+        given:
+        def luceneIndex = createIndex()
+        def sum = 0d
+        def points = 0
+        def names = [] as Set
+
+        when:
+        def chunks = LuceneScanningService.scan(new SimplePointsConverter(), new MatchAllDocsQuery(), luceneIndex.searcher,
+                { chunk, timestamps, values, size ->
+                    names << chunk.get("name")
+                    points += size
+                    for (int i = 0; i < size; i++) {
+                        sum += values[i]
+                    }
+                } as ColumnarSink)
+
+        then:
+        chunks == 3
+        points == 30
+        sum == (0..<30).sum()
+        names == ["a", "b"] as Set
+    }
+
+    def "test scan of matching chunks"() {
+        given:
+        def luceneIndex = createIndex()
+        def sizes = []
+
+        when:
+        def chunks = LuceneScanningService.scan(new SimplePointsConverter(), LongPoint.newRangeQuery("start", 10, 19), luceneIndex.searcher,
+                { chunk, timestamps, values, size -> sizes << size } as ColumnarSink)
+
+        then:
+        chunks == 1
+        sizes == [10]
+    }
+
+    def "test points columns grow"() {
+        given:
+        def columns = new PointColumns(1)
+
+        when:
+        100.times { columns.add(it, it * 2d) }
+        columns.add([1000L, 1001L] as long[], [1d, 2d] as double[], 1, 1)
+
+        then:
+        columns.size() == 101
+        columns.getTimestamp(99) == 99L
+        columns.getValue(99) == 198d
+        columns.getTimestamp(100) == 1001L
+
+        when:
+        columns.clear()
+
+        then:
+        columns.size() == 0
+    }
+
+    LuceneIndex createIndex() {
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def chunks = (0..<3).collect { chunk ->
+            def timestamps = (0..<10).collect { chunk * 10L + it } as long[]
+            def values = timestamps.collect { it as double } as double[]
+            SimplePointsConverter.chunk(chunk == 2 ? "b" : "a", timestamps, values)
+        }
+        LuceneAddingService.add(new SimplePointsConverter(), chunks, luceneIndex.openWriter)
+        luceneIndex.commit()
+        luceneIndex
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream
+
+import de.qaware.chronix.converter.BinaryTimeSeries
+import de.qaware.chronix.lucene.client.ChronixQueries
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.SimpleTimeSeries
+import de.qaware.chronix.lucene.client.SimpleTimeSeriesConverter
+import de.qaware.chronix.lucene.client.add.LuceneAddingService
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.store.RAMDirectory
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit test for the lucene streaming service
+ */
+class LuceneStreamingServiceTest extends Specification {
+
+    def "test stream more documents than one batch"() {
+        given:
+        def luceneIndex = createIndex(5)
+        def service = new LuceneStreamingService(new SimpleTimeSeriesConverter(), new MatchAllDocsQuery(), luceneIndex.searcher, 2)
+
+        when:
+        def names = service.collect { it.fields.get("name") } as Set
+
+        then:
+        names == ["ts-0", "ts-1", "ts-2", "ts-3", "ts-4"] as Set
+        !service.hasNext()
+    }
+
+    def "test deadline is exceeded while converting"() {
+        given:
+        def luceneIndex = createIndex(3)
+        def slowConverter = new SimpleTimeSeriesConverter() {
+            @Override
+            SimpleTimeSeries from(BinaryTimeSeries binaryTimeSeries, long queryStart, long queryEnd) {
+                Thread.sleep(2000)
+                return super.from(binaryTimeSeries, queryStart, queryEnd)
+            }
+        }
+        def options = new QueryOptions().setTimeout(100, TimeUnit.MILLISECONDS)
+        def service = new LuceneStreamingService(slowConverter, new MatchAllDocsQuery(), luceneIndex.searcher, 200, options)
+
+        when:
+        service.hasNext()
+        service.next()
+
+        then:
+        thrown QueryTimeoutException
+        !service.hasNext()
+    }
+
+    def "test close releases the reader"() {
+        given:
+        def luceneIndex = createIndex(3)
+        def reader = luceneIndex.searcher.indexReader
+        def refCount = reader.refCount
+
+        when:
+        def service = new LuceneStreamingService(new SimpleTimeSeriesConverter(), new MatchAllDocsQuery(), luceneIndex.searcher, 200)
+        def openRefCount = reader.refCount
+        service.hasNext()
+        service.next()
+        service.close()
+
+        then:
+        openRefCount == refCount + 1
+        reader.refCount == refCount
+        !service.hasNext()
+    }
+
+    def "test latest chunks are pushed down as sort and limit"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        if (sortedIndex) {
+            luceneIndex.setIndexSort(QueryOptions.latestFirst())
+        }
+        addChunks(luceneIndex, 10)
+        addChunks(luceneIndex, 10)
+        def service = new LuceneStreamingService(new SimpleTimeSeriesConverter(), new MatchAllDocsQuery(), luceneIndex.searcher, 200, QueryOptions.latest(3))
+
+        when:
+        def ends = service.collect { it.fields.get("end") }
+
+        then:
+        ends == [1090L, 1090L, 1080L]
+
+        where:
+        sortedIndex << [false, true]
+    }
+
+    def "test segments outside the time range are skipped"() {
+        given:
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        (0..<4).each { segment ->
+            def chunks = (0..<10).collect {
+                def ts = new SimpleTimeSeries()
+                ts.add("name", "chunk-" + it)
+                ts.add("start", segment * 1000L + it * 10L)
+                ts.add("end", segment * 1000L + it * 10L + 9L)
+                ts
+            }
+            LuceneAddingService.add(new SimpleTimeSeriesConverter(), chunks, luceneIndex.openWriter)
+            luceneIndex.commit()
+        }
+        def profile = new QueryProfile()
+        def service = new LuceneStreamingService(new SimpleTimeSeriesConverter(), ChronixQueries.range(2000, 2049), luceneIndex.searcher, 200,
+                new QueryOptions().setProfile(profile))
+
+        when:
+        def starts = service.collect { it.fields.get("start") }
+        //adding in parallel can split a window into several segments, hence only the overlapping ones are known
+        def overlapping = luceneIndex.searcher.indexReader.leaves()
+                .findAll { TimeRangePruningCollector.overlaps(it.reader(), 2000, 2049) }
+                .collect { it.ord } as Set
+
+        then:
+        starts.sort() == [2000L, 2010L, 2020L, 2030L, 2040L]
+        profile.matchedChunks == 5
+        profile.segments.size() >= 4
+        profile.segments.findAll { it.matched > 0 }.collect { it.ord } as Set == overlapping
+        profile.segments.findAll { !overlapping.contains(it.ord) }.every { it.matched == 0 }
+        profile.segments.findAll { it.pruned }.collect { it.ord } as Set == profile.segments.collect { it.ord }.findAll { !overlapping.contains(it) } as Set
+        profile.prunedSegments == profile.segments.size() - overlapping.size()
+        profile.unmatchedSegments == 0
+    }
+
+    LuceneIndex createIndex(int nrOfTimeSeries) {
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def timeSeries = (0..<nrOfTimeSeries).collect {
+            def ts = new SimpleTimeSeries()
+            ts.add("name", "ts-" + it)
+            ts
+        }
+        LuceneAddingService.add(new SimpleTimeSeriesConverter(), timeSeries, luceneIndex.openWriter)
+        luceneIndex.commit()
+        luceneIndex
+    }
+
+    void addChunks(LuceneIndex luceneIndex, int nrOfChunks) {
+        def chunks = (0..<nrOfChunks).collect {
+            def ts = new SimpleTimeSeries()
+            ts.add("name", "chunk-" + it)
+            ts.add("start", it * 10L)
+            ts.add("end", 1000L + it * 10L)
+            ts
+        }
+        LuceneAddingService.add(new SimpleTimeSeriesConverter(), chunks, luceneIndex.openWriter)
+        luceneIndex.commit()
+    }
+}
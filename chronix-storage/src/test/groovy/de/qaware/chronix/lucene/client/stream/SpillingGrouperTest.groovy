@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream
+
+import de.qaware.chronix.converter.BinaryTimeSeries
+import de.qaware.chronix.lucene.client.SimpleTimeSeries
+import de.qaware.chronix.lucene.client.SimpleTimeSeriesConverter
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.util.function.BinaryOperator
+import java.util.function.Function
+
+/**
+ * Unit test for the memory bounded grouping of time series
+ */
+class SpillingGrouperTest extends Specification {
+
+    def groupBy = { ts -> ts.fields.get("name") } as Function
+    def spillDirectory = File.createTempDir("spilling-grouper-test", "")
+
+    def reduce = { SimpleTimeSeries t1, SimpleTimeSeries t2 ->
+        def ts = new SimpleTimeSeries()
+        ts.add("name", t1.fields.get("name"))
+        ts.add("values", t1.fields.get("values") + t2.fields.get("values"))
+        ts
+    } as BinaryOperator
+
+    def cleanup() {
+        spillDirectory.deleteDir()
+    }
+
+    def "test group within and beyond the budget"() {
+        given:
+        def options = new QueryOptions().setMemoryBudget(budget, Overflow.SPILL).setSpillDirectory(spillDirectory.toPath())
+        def grouper = new SpillingGrouper(new SimpleTimeSeriesConverter(), groupBy, reduce, options, 0, Long.MAX_VALUE)
+
+        when:
+        (0..<100).each { grouper.add(series("series-" + (it % 10), it), 5000) }
+        def grouped = grouper.stream().collect()
+
+        then:
+        grouper.spilledBytes > 0 == spilled
+        grouped.size() == 10
+        grouped.every { ts -> ts.fields.get("values").sort() == (0..<10).collect { it * 10L + (ts.fields.get("name") - "series-" as long) } }
+        spillFiles() == 0
+
+        where:
+        budget || spilled
+        1000000 || false
+        10000   || true
+    }
+
+    def "test query fails if the budget is exceeded"() {
+        given:
+        def options = new QueryOptions().setMemoryBudget(250, Overflow.FAIL)
+        def grouper = new SpillingGrouper(new SimpleTimeSeriesConverter(), groupBy, reduce, options, 0, Long.MAX_VALUE)
+
+        when:
+        (0..<3).each { grouper.add(series("series", it), 100) }
+
+        then:
+        thrown QueryMemoryExceededException
+    }
+
+    def "test spill files are deleted on close"() {
+        given:
+        def options = new QueryOptions().setMemoryBudget(10, Overflow.SPILL).setSpillDirectory(spillDirectory.toPath())
+        def grouper = new SpillingGrouper(new SimpleTimeSeriesConverter(), groupBy, reduce, options, 0, Long.MAX_VALUE)
+
+        when:
+        (0..<3).each { grouper.add(series("series-" + it, it), 100) }
+        def stream = grouper.stream()
+        def spilledRuns = spillFiles()
+        stream.close()
+
+        then:
+        spilledRuns == 1
+        spillFiles() == 0
+    }
+
+    def "test estimate the size of a chunk"() {
+        given:
+        def chunk = new SimpleTimeSeriesConverter().to(new SimpleTimeSeries())
+        def withData = new BinaryTimeSeries.Builder()
+                .field("data", new byte[100])
+                .field("host", "server")
+                .build()
+
+        expect:
+        SpillingGrouper.estimate(chunk) == 0
+        SpillingGrouper.estimate(withData) > 800
+    }
+
+    long spillFiles() {
+        def files = Files.list(spillDirectory.toPath())
+        try {
+            files.count()
+        } finally {
+            files.close()
+        }
+    }
+
+    SimpleTimeSeries series(String name, long value) {
+        def ts = new SimpleTimeSeries()
+        ts.add("name", name)
+        ts.add("values", [value])
+        ts
+    }
+}
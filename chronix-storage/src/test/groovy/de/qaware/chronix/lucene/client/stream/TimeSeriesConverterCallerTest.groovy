@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client.stream
+
+import de.qaware.chronix.converter.BinaryTimeSeries
+import de.qaware.chronix.lucene.client.LuceneIndex
+import de.qaware.chronix.lucene.client.SimpleTimeSeries
+import de.qaware.chronix.lucene.client.SimpleTimeSeriesConverter
+import de.qaware.chronix.lucene.client.add.LuceneAddingService
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.StoredField
+import org.apache.lucene.store.RAMDirectory
+import org.apache.lucene.util.BytesRef
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+/**
+ * Unit test for the time series converter caller
+ */
+class TimeSeriesConverterCallerTest extends Specification {
+
+    def "test binary value respects offset and length"() {
+        given:
+        def document = new Document()
+        document.add(new StoredField("data", new BytesRef([0, 1, 2, 3, 4, 5] as byte[], 2, 3)))
+        def caller = new TimeSeriesConverterCaller(document, new SimpleTimeSeriesConverter(), 0, Long.MAX_VALUE)
+
+        when:
+        def ts = caller.call()
+
+        then:
+        ts.fields.get("data") == [2, 3, 4] as byte[]
+    }
+
+    def "test stored fields are read by the caller"() {
+        given:
+        def luceneIndex = createIndex()
+        def caller = new TimeSeriesConverterCaller(luceneIndex.searcher, 0, new SimpleTimeSeriesConverter(), 0, Long.MAX_VALUE)
+
+        when:
+        def ts = caller.call()
+
+        then:
+        ts.fields.get("name") == "ts"
+        ts.fields.get("start") == 10L
+        ts.fields.get("data") == [7, 8, 9] as byte[]
+        ts.fields.get("tags") == ["a", "b"]
+    }
+
+    def "test byte buffer converter gets a view on the binary value"() {
+        given:
+        def luceneIndex = createIndex()
+        ByteBuffer data = null
+        def converter = new ByteBufferConverter() {
+            @Override
+            SimpleTimeSeries from(BinaryTimeSeries binaryTimeSeries, long queryStart, long queryEnd) {
+                data = binaryTimeSeries.get("data") as ByteBuffer
+                return super.from(binaryTimeSeries, queryStart, queryEnd)
+            }
+        }
+        def caller = new TimeSeriesConverterCaller(luceneIndex.searcher, 0, converter, 0, Long.MAX_VALUE)
+
+        when:
+        caller.call()
+
+        then:
+        data.isReadOnly()
+        data.remaining() == 3
+        data.get(0) == 7 as byte
+    }
+
+    LuceneIndex createIndex() {
+        def luceneIndex = new LuceneIndex(new RAMDirectory(), new StandardAnalyzer())
+        def ts = new SimpleTimeSeries()
+        ts.add("name", "ts")
+        ts.add("start", 10L)
+        ts.add("data", [7, 8, 9] as byte[])
+        ts.add("tags", ["a", "b"])
+        LuceneAddingService.add(new SimpleTimeSeriesConverter(), [ts], luceneIndex.openWriter)
+        luceneIndex.commit()
+        luceneIndex
+    }
+
+    static class ByteBufferConverter extends SimpleTimeSeriesConverter implements ByteBufferTimeSeriesConverter<SimpleTimeSeries> {
+    }
+}
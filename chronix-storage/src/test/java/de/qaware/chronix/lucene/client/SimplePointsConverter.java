@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.lucene.client;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.lucene.client.stream.ColumnarTimeSeriesConverter;
+import de.qaware.chronix.lucene.client.stream.PointColumns;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A converter used for test purposes.
+ * The data of a chunk are its points encoded as (long timestamp, double value) pairs.
+ */
+public class SimplePointsConverter extends SimpleTimeSeriesConverter implements ColumnarTimeSeriesConverter<SimpleTimeSeries> {
+
+    private static final int POINT_BYTES = Long.BYTES + Double.BYTES;
+
+    @Override
+    public void decode(BinaryTimeSeries chunk, long queryStart, long queryEnd, PointColumns columns) {
+        ByteBuffer data = ByteBuffer.wrap((byte[]) chunk.get(Schema.DATA));
+        columns.ensureCapacity(columns.size() + data.remaining() / POINT_BYTES);
+        while (data.hasRemaining()) {
+            long timestamp = data.getLong();
+            double value = data.getDouble();
+            if (timestamp >= queryStart && timestamp <= queryEnd) {
+                columns.add(timestamp, value);
+            }
+        }
+    }
+
+    @Override
+    public SimpleTimeSeries from(BinaryTimeSeries chunk, PointColumns points) {
+        SimpleTimeSeries ts = new SimpleTimeSeries();
+        chunk.getFields().forEach(ts::add);
+        ts.add("timestamps", Arrays.copyOf(points.getTimestamps(), points.size()));
+        ts.add("values", Arrays.copyOf(points.getValues(), points.size()));
+        return ts;
+    }
+
+    /**
+     * Creates a chunk with the given points
+     *
+     * @param name       the name of the series
+     * @param timestamps the timestamps
+     * @param values     the values
+     * @return a chunk
+     */
+    public static SimpleTimeSeries chunk(String name, long[] timestamps, double[] values) {
+        ByteBuffer data = ByteBuffer.allocate(timestamps.length * POINT_BYTES);
+        for (int i = 0; i < timestamps.length; i++) {
+            data.putLong(timestamps[i]).putDouble(values[i]);
+        }
+        SimpleTimeSeries chunk = new SimpleTimeSeries();
+        chunk.add("name", name);
+        chunk.add(Schema.START, timestamps[0]);
+        chunk.add(Schema.END, timestamps[timestamps.length - 1]);
+        chunk.add(Schema.DATA, data.array());
+        return chunk;
+    }
+}